@@ -0,0 +1,100 @@
+package raytracer.bench;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raytracer.core.Hit;
+import raytracer.core.OBJReader;
+import raytracer.core.def.Accelerator;
+import raytracer.core.def.BVH;
+import raytracer.core.def.KdTree;
+import raytracer.core.def.UniformGrid;
+import raytracer.math.Color;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec3;
+import raytracer.shade.SingleColor;
+
+/**
+ * Measures tracing rays through the triangles of a mesh with each of the
+ * acceleration structures, so the faster one can be picked for a scene. The
+ * mesh is the bunny of the demo scene with the same scale and translation,
+ * and the rays are cast from the camera of the demo scene towards it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcceleratorBenchmark {
+
+	private static final int RAYS = 4096;
+
+	/**
+	 * The mesh to read, relative to the working directory
+	 */
+	@Param("obj/bunny.obj")
+	public String file;
+
+	/**
+	 * The acceleration structure
+	 */
+	@Param({ "bvh", "kdtree", "grid" })
+	public String accel;
+
+	private Accelerator structure;
+	private Ray[] rays;
+	private int next;
+
+	@Setup
+	public void setup() throws FileNotFoundException {
+		final SingleColor shader = new SingleColor(Color.GREEN);
+		final Vec3 translate = new Vec3(-3, 0, 0);
+		switch (accel) {
+		case "bvh": {
+			final BVH bvh = new BVH();
+			OBJReader.read(file, bvh, shader, 25, translate);
+			bvh.buildBVH();
+			structure = bvh;
+			break;
+		}
+		case "kdtree": {
+			final KdTree tree = new KdTree();
+			OBJReader.read(file, tree, shader, 25, translate);
+			tree.build();
+			structure = tree;
+			break;
+		}
+		case "grid": {
+			final UniformGrid grid = new UniformGrid();
+			OBJReader.read(file, grid, shader, 25, translate);
+			grid.build();
+			structure = grid;
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Unknown accelerator " + accel + ".");
+		}
+		rays = Rays.towards(RAYS, new Point(0, 4, -10), new Point(-5, 0, -2), new Point(0, 5, 2));
+	}
+
+	@Benchmark
+	public Hit trace() {
+		next = (next + 1) & (RAYS - 1);
+		return structure.hit(rays[next], null, 0, Float.POSITIVE_INFINITY);
+	}
+
+}
@@ -0,0 +1,85 @@
+package raytracer.bench;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raytracer.core.OBJReader;
+import raytracer.core.Shader;
+import raytracer.core.def.BVH;
+import raytracer.core.def.SimpleAccelerator;
+import raytracer.math.Color;
+import raytracer.math.Vec3;
+import raytracer.shade.SingleColor;
+
+/**
+ * Measures reading a mesh and building a BVH over its triangles, using the
+ * bunny of the demo scene with the same scale and translation
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshBenchmark {
+
+	/**
+	 * The mesh to read, relative to the working directory
+	 */
+	@Param("obj/bunny.obj")
+	public String file;
+
+	private final Shader shader = new SingleColor(Color.GREEN);
+	private final Vec3 translate = new Vec3(-3, 0, 0);
+
+	/**
+	 * Holds a BVH filled with the triangles of the mesh but not built yet.
+	 * It is a state of its own, so only the benchmarks taking it pay for
+	 * filling it before each invocation.
+	 */
+	@State(Scope.Thread)
+	public static class Unbuilt {
+
+		private BVH bvh;
+
+		/**
+		 * Fills a new BVH with the triangles of the mesh before each build,
+		 * so only the build itself is measured
+		 *
+		 * @param mesh
+		 *            The benchmark state naming the mesh
+		 */
+		@Setup(Level.Invocation)
+		public void fill(final MeshBenchmark mesh) throws FileNotFoundException {
+			bvh = new BVH();
+			OBJReader.read(mesh.file, bvh, mesh.shader, 25, mesh.translate);
+		}
+	}
+
+	@Benchmark
+	public BVH buildBVH(final Unbuilt unbuilt) {
+		unbuilt.bvh.buildBVH();
+		return unbuilt.bvh;
+	}
+
+	@Benchmark
+	public SimpleAccelerator read() throws FileNotFoundException {
+		final SimpleAccelerator accel = new SimpleAccelerator();
+		OBJReader.read(file, accel, shader, 25, translate);
+		return accel;
+	}
+
+}
@@ -0,0 +1,86 @@
+package raytracer.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raytracer.core.Hit;
+import raytracer.core.Obj;
+import raytracer.core.def.StandardObj;
+import raytracer.geom.BBox;
+import raytracer.geom.BBoxedPrimitive;
+import raytracer.geom.GeomFactory;
+import raytracer.geom.Primitive;
+import raytracer.math.Color;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec3;
+import raytracer.shade.SingleColor;
+
+/**
+ * Measures the intersection tests of single primitives. Each invocation
+ * intersects the next ray of a fixed set aimed at the region around the
+ * primitives, so both hits and misses are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveBenchmark {
+
+	private static final int RAYS = 1024;
+
+	private BBox bbox;
+	private BBoxedPrimitive triangle;
+	private Primitive sphere, plane;
+	private Obj obj;
+	private Ray[] rays;
+	private int next;
+
+	@Setup
+	public void setup() {
+		bbox = BBox.create(new Point(-1, 0, -1), new Point(1, 2, 1));
+		triangle = GeomFactory.createTriangle(new Point(-1, 0, 0), new Point(0, 2, 0), new Point(1, 0, 0));
+		sphere = GeomFactory.createSphere(new Point(0, 1, 0), 1);
+		plane = GeomFactory.createPlane(Vec3.Y, Point.ORIGIN);
+		obj = new StandardObj(sphere, new SingleColor(Color.WHITE));
+		rays = Rays.towards(RAYS, new Point(0, 4, -10), new Point(-2, -1, -2), new Point(2, 3, 2));
+	}
+
+	private Ray nextRay() {
+		next = (next + 1) & (RAYS - 1);
+		return rays[next];
+	}
+
+	@Benchmark
+	public Hit bboxHit() {
+		return bbox.hit(nextRay(), 0, Float.POSITIVE_INFINITY);
+	}
+
+	@Benchmark
+	public Hit triangleHitTest() {
+		return triangle.hitTest(nextRay(), obj, 0, Float.POSITIVE_INFINITY);
+	}
+
+	@Benchmark
+	public Hit sphereHit() {
+		return sphere.hit(nextRay(), obj, 0, Float.POSITIVE_INFINITY);
+	}
+
+	@Benchmark
+	public Hit planeHit() {
+		return plane.hit(nextRay(), obj, 0, Float.POSITIVE_INFINITY);
+	}
+
+}
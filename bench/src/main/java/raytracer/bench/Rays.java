@@ -0,0 +1,45 @@
+package raytracer.bench;
+
+import java.util.Random;
+
+import raytracer.math.Point;
+import raytracer.math.Ray;
+
+/**
+ * Creates reproducible sets of rays for the benchmarks
+ */
+final class Rays {
+
+	private Rays() {
+	}
+
+	/**
+	 * Creates rays from the given origin towards uniformly distributed points
+	 * of the given box, with a fixed seed so every run uses the same rays
+	 *
+	 * @param count
+	 *            The number of rays
+	 * @param origin
+	 *            The origin of all rays
+	 * @param min
+	 *            The minimum corner of the target box
+	 * @param max
+	 *            The maximum corner of the target box
+	 * @return The rays
+	 */
+	static Ray[] towards(final int count, final Point origin, final Point min, final Point max) {
+		final Random rnd = new Random(42);
+		final Ray[] rays = new Ray[count];
+		for (int i = 0; i < count; i++) {
+			final Point target = new Point(lerp(min.x(), max.x(), rnd.nextFloat()),
+					lerp(min.y(), max.y(), rnd.nextFloat()), lerp(min.z(), max.z(), rnd.nextFloat()));
+			rays[i] = new Ray(origin, target.sub(origin).normalized());
+		}
+		return rays;
+	}
+
+	private static float lerp(final float a, final float b, final float t) {
+		return a + (b - a) * t;
+	}
+
+}
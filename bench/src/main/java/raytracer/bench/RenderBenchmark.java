@@ -0,0 +1,60 @@
+package raytracer.bench;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raytracer.core.Renderer;
+import raytracer.core.def.Main;
+
+/**
+ * Measures the throughput of rendering whole tiles of the demo scene of
+ * {@link Main}. The tiles are taken from the centre of the image, where the
+ * spheres, the bunny and the plane are visible.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+	private static final int WIDTH = 640, HEIGHT = 480;
+
+	/**
+	 * The edge length of the rendered tile
+	 */
+	@Param({ "16", "64" })
+	public int tile;
+
+	/**
+	 * The amount of super sampling per dimension
+	 */
+	@Param({ "1", "2" })
+	public int samples;
+
+	private Renderer renderer;
+
+	@Setup
+	public void setup() throws FileNotFoundException {
+		renderer = new Renderer(Main.createScene(WIDTH, HEIGHT), WIDTH, HEIGHT, samples);
+	}
+
+	@Benchmark
+	public Renderer.Work renderTile() {
+		return renderer.renderTile((WIDTH - tile) / 2, (HEIGHT - tile) / 2, tile, tile);
+	}
+
+}
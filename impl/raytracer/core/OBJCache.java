@@ -0,0 +1,208 @@
+package raytracer.core;
+
+import raytracer.core.def.StandardObj;
+import raytracer.geom.TriangleMesh;
+import raytracer.math.Vec3;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Represents a binary cache for triangle meshes read from OBJ files. A cache
+ * file holds the parsed vertices and faces together with the built hierarchy
+ * of the mesh and is keyed by the length and the CRC32 checksum of the source
+ * file as well as by the scale and translation applied to it. Valid cache
+ * files are memory mapped and copied into the mesh arrays in bulk, stale or
+ * damaged ones are replaced.
+ */
+public final class OBJCache {
+
+	/**
+	 * The version of the cache format, cache files of other versions are
+	 * ignored
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The file name extension appended to the source file name by default
+	 */
+	public static final String EXTENSION = ".cache";
+
+	private static final int MAGIC = 0x4F424A43; // "OBJC"
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 * 4;
+
+	private OBJCache() {
+	}
+
+	/**
+	 * Reads an OBJ file into a single triangle mesh using the cache file
+	 * next to it, which is created or replaced if necessary.
+	 *
+	 * @param filename
+	 *            The file to read the data from
+	 * @param shader
+	 *            The shader which is used by all triangles
+	 * @param scale
+	 *            The scale factor which is responsible for scaling the model
+	 * @param translate
+	 *            A vector representing the translation coordinate with which
+	 *            all coordinates have to be translated
+	 * @return The object holding the triangle mesh
+	 * @throws IllegalArgumentException
+	 *             If the filename is null or the empty string, the shader is
+	 *             null, the translate vector is null, the translate vector is
+	 *             not finite or scale does not represent a legal (finite)
+	 *             floating point number
+	 */
+	public static Obj readMesh(final String filename, final Shader shader, final float scale,
+			final Vec3 translate) throws FileNotFoundException {
+		if (filename == null || filename.isEmpty())
+			throw new IllegalArgumentException("Filename is null or empty.");
+		return readMesh(filename, filename + EXTENSION, shader, scale, translate);
+	}
+
+	/**
+	 * Reads an OBJ file into a single triangle mesh using the given cache
+	 * file, which is created or replaced if necessary. Failing to write the
+	 * cache file does not affect the result.
+	 *
+	 * @param filename
+	 *            The file to read the data from
+	 * @param cacheFile
+	 *            The cache file
+	 * @param shader
+	 *            The shader which is used by all triangles
+	 * @param scale
+	 *            The scale factor which is responsible for scaling the model
+	 * @param translate
+	 *            A vector representing the translation coordinate with which
+	 *            all coordinates have to be translated
+	 * @return The object holding the triangle mesh
+	 * @throws IllegalArgumentException
+	 *             If the filename or the cache file is null or the empty
+	 *             string, the shader is null, the translate vector is null,
+	 *             the translate vector is not finite or scale does not
+	 *             represent a legal (finite) floating point number
+	 */
+	public static Obj readMesh(final String filename, final String cacheFile, final Shader shader,
+			final float scale, final Vec3 translate) throws FileNotFoundException {
+		if (filename == null || filename.isEmpty())
+			throw new IllegalArgumentException("Filename is null or empty.");
+		if (cacheFile == null || cacheFile.isEmpty())
+			throw new IllegalArgumentException("Cache file is null or empty.");
+		OBJReader.checkArguments(shader, scale, translate);
+
+		final ByteBuffer source = OBJParser.map(filename);
+		final CRC32 crc = new CRC32();
+		crc.update(source.duplicate());
+		final Key key = new Key(source.remaining(), crc.getValue(), scale, translate);
+
+		TriangleMesh mesh = load(Paths.get(cacheFile), key);
+		if (mesh == null) {
+			final OBJParser.Geometry geometry = OBJParser.parse(source, scale, translate);
+			mesh = new TriangleMesh(geometry.trimmedPositions(), geometry.trimmedFaces());
+			store(Paths.get(cacheFile), key, mesh);
+		}
+		return new StandardObj(mesh, shader);
+	}
+
+	/**
+	 * Identifies the source data and the parameters a mesh was read with
+	 */
+	private static final class Key {
+		private final long length, checksum;
+		private final int scale, x, y, z;
+
+		Key(final long length, final long checksum, final float scale, final Vec3 translate) {
+			this.length = length;
+			this.checksum = checksum;
+			this.scale = Float.floatToIntBits(scale);
+			this.x = Float.floatToIntBits(translate.x());
+			this.y = Float.floatToIntBits(translate.y());
+			this.z = Float.floatToIntBits(translate.z());
+		}
+
+		void writeTo(final ByteBuffer buf) {
+			buf.putInt(MAGIC).putInt(VERSION).putLong(length).putLong(checksum);
+			buf.putInt(scale).putInt(x).putInt(y).putInt(z);
+		}
+
+		boolean matches(final ByteBuffer buf) {
+			return buf.getInt() == MAGIC && buf.getInt() == VERSION && buf.getLong() == length
+					&& buf.getLong() == checksum && buf.getInt() == scale && buf.getInt() == x
+					&& buf.getInt() == y && buf.getInt() == z;
+		}
+	}
+
+	/**
+	 * Loads the mesh stored in the given cache file
+	 *
+	 * @return The mesh or null if the file does not exist, cannot be read or
+	 *         does not match the given key
+	 */
+	private static TriangleMesh load(final Path file, final Key key) {
+		if (!Files.isRegularFile(file))
+			return null;
+		try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+			final FileChannel channel = in.getChannel();
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+				return null;
+			final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if (!key.matches(buf))
+				return null;
+			final TriangleMesh mesh = TriangleMesh.readFrom(buf);
+			return buf.hasRemaining() ? null : mesh;
+		} catch (final IOException | IllegalArgumentException | BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the given mesh in the given cache file. The data is written to a
+	 * temporary file first, which then replaces the cache file, so that
+	 * concurrent readers never see a partially written cache.
+	 */
+	private static void store(final Path file, final Key key, final TriangleMesh mesh) {
+		final long size = HEADER_SIZE + mesh.getDataSize();
+		if (size > Integer.MAX_VALUE)
+			return;
+		final ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		key.writeTo(buf);
+		mesh.writeTo(buf);
+		buf.flip();
+
+		Path tmp = null;
+		try {
+			final Path dir = file.toAbsolutePath().getParent();
+			tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+			try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				while (buf.hasRemaining())
+					out.write(buf);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			tmp = null;
+		} catch (final IOException e) {
+			// the cache only speeds up loading, the mesh itself is fine
+		} finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (final IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+	}
+}
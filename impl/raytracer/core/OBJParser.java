@@ -0,0 +1,331 @@
+package raytracer.core;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import raytracer.math.Point;
+import raytracer.math.Vec3;
+
+/**
+ * Parses the vertices and triangular faces of OBJ data directly from its
+ * bytes. Lines shorter than seven characters, comments, other statements and
+ * vertices or faces not consisting of exactly three entries are ignored. Faces
+ * may reference vertices by their one based index, by a negative index
+ * relative to the end of the vertices read so far and may carry texture and
+ * normal indices ("f 1/1/1 2/2/2 3/3/3"), which are ignored.
+ */
+final class OBJParser {
+
+	private static final int MIN_LINE_LENGTH = 7;
+
+	/**
+	 * Powers of ten which are exactly representable as double
+	 */
+	private static final double[] POW10 = new double[23];
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10;
+	}
+
+	/**
+	 * Holds the scaled and translated vertex positions and the zero based
+	 * vertex indices of the faces read from OBJ data
+	 */
+	static final class Geometry {
+		float[] positions = new float[3 * 1024];
+		int[] faces = new int[3 * 1024];
+		int vertexCount, faceCount;
+
+		private void addVertex(final float x, final float y, final float z) {
+			if (3 * vertexCount == positions.length)
+				positions = Arrays.copyOf(positions, 2 * positions.length);
+			positions[3 * vertexCount] = x;
+			positions[3 * vertexCount + 1] = y;
+			positions[3 * vertexCount + 2] = z;
+			vertexCount++;
+		}
+
+		private void addFace(final int a, final int b, final int c) {
+			if (3 * faceCount == faces.length)
+				faces = Arrays.copyOf(faces, 2 * faces.length);
+			faces[3 * faceCount] = a;
+			faces[3 * faceCount + 1] = b;
+			faces[3 * faceCount + 2] = c;
+			faceCount++;
+		}
+
+		/**
+		 * Returns the position of the given vertex
+		 *
+		 * @throws IndexOutOfBoundsException
+		 *             If the vertex does not exist
+		 */
+		Point point(final int vertex) {
+			if (vertex < 0 || vertex >= vertexCount)
+				throw new IndexOutOfBoundsException("Vertex " + (vertex + 1) + " does not exist.");
+			return new Point(positions[3 * vertex], positions[3 * vertex + 1], positions[3 * vertex + 2]);
+		}
+
+		/**
+		 * Returns the vertex positions trimmed to their actual length
+		 */
+		float[] trimmedPositions() {
+			return Arrays.copyOf(positions, 3 * vertexCount);
+		}
+
+		/**
+		 * Returns the face indices trimmed to their actual length
+		 */
+		int[] trimmedFaces() {
+			return Arrays.copyOf(faces, 3 * faceCount);
+		}
+	}
+
+	private final ByteBuffer buf;
+	private final int end;
+	private final float scale, tx, ty, tz;
+	private final Geometry geometry = new Geometry();
+	private final int[] index = new int[4];
+	private int pos;
+
+	private OBJParser(final ByteBuffer buf, final float scale, final Vec3 translate) {
+		this.buf = buf;
+		this.pos = buf.position();
+		this.end = buf.limit();
+		this.scale = scale;
+		this.tx = translate.x();
+		this.ty = translate.y();
+		this.tz = translate.z();
+	}
+
+	/**
+	 * Parses the given file through a memory mapping
+	 *
+	 * @throws FileNotFoundException
+	 *             If the file cannot be opened
+	 * @throws UncheckedIOException
+	 *             If the file cannot be read
+	 */
+	static Geometry parse(final String filename, final float scale, final Vec3 translate)
+			throws FileNotFoundException {
+		return parse(map(filename), scale, translate);
+	}
+
+	/**
+	 * Parses the remaining data of the given stream
+	 *
+	 * @throws UncheckedIOException
+	 *             If the stream cannot be read
+	 */
+	static Geometry parse(final InputStream in, final float scale, final Vec3 translate) {
+		try {
+			byte[] data = new byte[1 << 16];
+			int len = 0;
+			for (int n; (n = in.read(data, len, data.length - len)) >= 0;) {
+				len += n;
+				if (len == data.length)
+					data = Arrays.copyOf(data, 2 * data.length);
+			}
+			in.close();
+			return parse(ByteBuffer.wrap(data, 0, len), scale, translate);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Parses the remaining data of the given buffer
+	 */
+	static Geometry parse(final ByteBuffer buf, final float scale, final Vec3 translate) {
+		final OBJParser parser = new OBJParser(buf, scale, translate);
+		parser.parse();
+		return parser.geometry;
+	}
+
+	/**
+	 * Maps the given file into memory
+	 */
+	static ByteBuffer map(final String filename) throws FileNotFoundException {
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			final FileChannel channel = file.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (final FileNotFoundException e) {
+			throw e;
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void parse() {
+		while (pos < end) {
+			final int start = pos;
+			int lineEnd = start;
+			while (lineEnd < end && buf.get(lineEnd) != '\n')
+				lineEnd++;
+			pos = lineEnd + 1;
+
+			int len = lineEnd - start;
+			if (len > 0 && buf.get(start + len - 1) == '\r')
+				len--;
+			if (len < MIN_LINE_LENGTH || !isBlank(buf.get(start + 1)))
+				continue;
+
+			switch (buf.get(start)) {
+			case 'v':
+				parseVertex(start + 2, start + len);
+				break;
+			case 'f':
+				parseFace(start + 2, start + len);
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private void parseVertex(int i, final int lineEnd) {
+		final float[] v = new float[3];
+		int n = 0;
+		while ((i = skipBlanks(i, lineEnd)) < lineEnd) {
+			if (n == 3)
+				return;
+			final int tokenEnd = tokenEnd(i, lineEnd);
+			v[n++] = parseFloat(i, tokenEnd);
+			i = tokenEnd;
+		}
+		if (n != 3)
+			return;
+		geometry.addVertex(v[0] * scale + tx, v[1] * scale + ty, v[2] * scale + tz);
+	}
+
+	private void parseFace(int i, final int lineEnd) {
+		int n = 0;
+		while ((i = skipBlanks(i, lineEnd)) < lineEnd) {
+			if (n == 3)
+				return;
+			final int tokenEnd = tokenEnd(i, lineEnd);
+			int indexEnd = i;
+			while (indexEnd < tokenEnd && buf.get(indexEnd) != '/')
+				indexEnd++;
+			final int idx = parseInt(i, indexEnd);
+			index[n++] = idx < 0 ? geometry.vertexCount + idx : idx - 1;
+			i = tokenEnd;
+		}
+		if (n != 3)
+			return;
+		geometry.addFace(index[0], index[1], index[2]);
+	}
+
+	private static boolean isBlank(final byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private int skipBlanks(int i, final int lineEnd) {
+		while (i < lineEnd && isBlank(buf.get(i)))
+			i++;
+		return i;
+	}
+
+	private int tokenEnd(int i, final int lineEnd) {
+		while (i < lineEnd && !isBlank(buf.get(i)))
+			i++;
+		return i;
+	}
+
+	private int parseInt(final int from, final int to) {
+		int i = from;
+		final boolean neg = i < to && buf.get(i) == '-';
+		if (neg || (i < to && buf.get(i) == '+'))
+			i++;
+		if (i == to)
+			throw new NumberFormatException("Invalid index: \"" + token(from, to) + "\"");
+		long res = 0;
+		for (; i < to; i++) {
+			final int digit = buf.get(i) - '0';
+			if (digit < 0 || digit > 9 || res > Integer.MAX_VALUE)
+				throw new NumberFormatException("Invalid index: \"" + token(from, to) + "\"");
+			res = 10 * res + digit;
+		}
+		return (int) (neg ? -res : res);
+	}
+
+	/**
+	 * Parses a decimal floating point number with an optional exponent. The
+	 * digits are converted through a single double operation, which is only
+	 * exact if the mantissa is at most 2^53, that is about 15 significant
+	 * digits, and the power of ten at most 10^22. All other numbers as well as
+	 * special values are handed over to {@link Float#parseFloat}.
+	 */
+	private float parseFloat(final int from, final int to) {
+		int i = from;
+		final boolean neg = buf.get(i) == '-';
+		if (neg || buf.get(i) == '+')
+			i++;
+
+		long mantissa = 0;
+		int digits = 0, exp = 0;
+		boolean any = false;
+		for (; i < to; i++) {
+			final int digit = buf.get(i) - '0';
+			if (digit < 0 || digit > 9)
+				break;
+			any = true;
+			if (mantissa != 0 || digit != 0)
+				digits++;
+			mantissa = 10 * mantissa + digit;
+		}
+		if (i < to && buf.get(i) == '.') {
+			for (i++; i < to; i++) {
+				final int digit = buf.get(i) - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				any = true;
+				if (mantissa != 0 || digit != 0)
+					digits++;
+				mantissa = 10 * mantissa + digit;
+				exp--;
+			}
+		}
+		if (any && i < to && (buf.get(i) == 'e' || buf.get(i) == 'E')) {
+			i++;
+			final boolean negExp = i < to && buf.get(i) == '-';
+			if (negExp || (i < to && buf.get(i) == '+'))
+				i++;
+			int e = 0;
+			boolean anyExp = false;
+			for (; i < to; i++) {
+				final int digit = buf.get(i) - '0';
+				if (digit < 0 || digit > 9 || e > 1000)
+					break;
+				anyExp = true;
+				e = 10 * e + digit;
+			}
+			if (!anyExp)
+				any = false;
+			exp += negExp ? -e : e;
+		}
+
+		// the digit count keeps the mantissa from overflowing
+		if (!any || i != to || digits > 18 || mantissa > 1L << 53 || exp < -22 || exp > 22)
+			return Float.parseFloat(token(from, to));
+
+		final double value = exp < 0 ? mantissa / POW10[-exp] : mantissa * POW10[exp];
+		return (float) (neg ? -value : value);
+	}
+
+	private String token(final int from, final int to) {
+		final byte[] bytes = new byte[to - from];
+		for (int i = from; i < to; i++)
+			bytes[i - from] = buf.get(i);
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+}
@@ -4,17 +4,10 @@ import raytracer.core.def.Accelerator;
 import raytracer.core.def.StandardObj;
 import raytracer.geom.GeomFactory;
 import raytracer.geom.Primitive;
-import raytracer.math.Point;
 import raytracer.math.Vec3;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Locale;
-import java.util.Scanner;
 
 /**
  * Represents a model file reader for the OBJ format
@@ -46,7 +39,14 @@ public class OBJReader {
 	public static void read(final String filename,
 			final Accelerator accelerator, final Shader shader, final float scale,
 			final Vec3 translate) throws FileNotFoundException {
-		read(new BufferedInputStream(new FileInputStream(filename)), accelerator, shader, scale, translate);
+
+		if(filename == null || filename.isEmpty())
+			throw new IllegalArgumentException("Filename is null or empty.");
+		if(accelerator == null)
+			throw new IllegalArgumentException("Accelerator is null.");
+		checkArguments(shader, scale, translate);
+
+		addTriangles(OBJParser.parse(filename, scale, translate), accelerator, shader);
 	}
 
 
@@ -80,66 +80,95 @@ public class OBJReader {
 			throw new IllegalArgumentException("Input stream is null.");
 		if(accelerator == null)
 			throw new IllegalArgumentException("Accelerator is null.");
-		if(shader == null)
-			throw new IllegalArgumentException("Shader is null.");
-		if(translate == null)
-			throw new IllegalArgumentException("Translate vector is null.");
-		if(!translate.isFinite())
-			throw new IllegalArgumentException("Translate vector is not finite.");
-		if(!Float.isFinite(scale))
-			throw new IllegalArgumentException("Scale is not finite.");
-		if(Float.isNaN(scale))
-			throw new IllegalArgumentException("Scale is NaN.");
-
-		Scanner scanner = new Scanner(in);
-		List<Point> points = new LinkedList<>();
-
-		scanner.useLocale(Locale.ENGLISH);
-
-		while(scanner.hasNext()) {
-			String line = scanner.nextLine();
-
-			if(line.length() < 7)
-				continue;
-			switch (line.charAt(0)) {
-				case '#':
-					continue;
-				case 'v': {
-					String[] split = line.substring(2).split(" ");
+		checkArguments(shader, scale, translate);
 
-					if (split.length != 3)
-						break;
-
-					points.add(new Point(Float.parseFloat(split[0]), Float.parseFloat(split[1]), Float.parseFloat(split[2])).scale(scale).add(translate));
-					break;
-				}
-				case 'f': {
-					String[] split = line.substring(2).split(" ");
-
-					if (split.length != 3)
-						break;
+		addTriangles(OBJParser.parse(in, scale, translate), accelerator, shader);
+	}
 
-					Primitive triangle = GeomFactory.createTriangle(points.get(Integer.parseInt(split[0]) - 1), points.get(Integer.parseInt(split[1]) - 1),
-							points.get(Integer.parseInt(split[2]) - 1));
+	private static void addTriangles(final OBJParser.Geometry geometry, final Accelerator accelerator,
+			final Shader shader) {
+		for(int f = 0; f < geometry.faceCount; f++) {
+			Primitive triangle = GeomFactory.createTriangle(geometry.point(geometry.faces[3 * f]),
+					geometry.point(geometry.faces[3 * f + 1]), geometry.point(geometry.faces[3 * f + 2]));
 
-					accelerator.add(new StandardObj(triangle, shader));
-					break;
-				}
-				default:
-					break;
-			}
+			accelerator.add(new StandardObj(triangle, shader));
 		}
-
-		scanner.close();
 	}
-}
-
-
-
 
+	/**
+	 * Reads an OBJ file into a single triangle mesh which shares the vertices
+	 * between its faces and uses the given shader for all of them.
+	 *
+	 * @param filename
+	 *            The file to read the data from
+	 * @param shader
+	 *            The shader which is used by all triangles
+	 * @param scale
+	 *            The scale factor which is responsible for scaling the model
+	 * @param translate
+	 *            A vector representing the translation coordinate with which
+	 *            all coordinates have to be translated
+	 * @return The object holding the triangle mesh
+	 * @throws IllegalArgumentException
+	 *             If the filename is null or the empty string, the shader is
+	 *             null, the translate vector is null, the translate vector is
+	 *             not finite or scale does not represent a legal (finite)
+	 *             floating point number
+	 */
+	public static Obj readMesh(final String filename, final Shader shader,
+			final float scale, final Vec3 translate) throws FileNotFoundException {
+		if(filename == null || filename.isEmpty())
+			throw new IllegalArgumentException("Filename is null or empty.");
+		checkArguments(shader, scale, translate);
 
+		return createMesh(OBJParser.parse(filename, scale, translate), shader);
+	}
 
+	/**
+	 * Reads an OBJ file into a single triangle mesh which shares the vertices
+	 * between its faces and uses the given shader for all of them.
+	 *
+	 * @param in
+	 *            The InputStream of the data to be read.
+	 * @param shader
+	 *            The shader which is used by all triangles
+	 * @param scale
+	 *            The scale factor which is responsible for scaling the model
+	 * @param translate
+	 *            A vector representing the translation coordinate with which
+	 *            all coordinates have to be translated
+	 * @return The object holding the triangle mesh
+	 * @throws IllegalArgumentException
+	 *             If the InputStream is null, the shader is null, the
+	 *             translate vector is null, the translate vector is not finite
+	 *             or scale does not represent a legal (finite) floating point
+	 *             number
+	 */
+	public static Obj readMesh(final InputStream in, final Shader shader,
+			final float scale, final Vec3 translate) {
 
+		if(in == null)
+			throw new IllegalArgumentException("Input stream is null.");
+		checkArguments(shader, scale, translate);
 
+		return createMesh(OBJParser.parse(in, scale, translate), shader);
+	}
 
+	private static Obj createMesh(final OBJParser.Geometry geometry, final Shader shader) {
+		return new StandardObj(GeomFactory.createTriangleMesh(geometry.trimmedPositions(),
+				geometry.trimmedFaces()), shader);
+	}
 
+	static void checkArguments(final Shader shader, final float scale, final Vec3 translate) {
+		if(shader == null)
+			throw new IllegalArgumentException("Shader is null.");
+		if(translate == null)
+			throw new IllegalArgumentException("Translate vector is null.");
+		if(!translate.isFinite())
+			throw new IllegalArgumentException("Translate vector is not finite.");
+		if(!Float.isFinite(scale))
+			throw new IllegalArgumentException("Scale is not finite.");
+		if(Float.isNaN(scale))
+			throw new IllegalArgumentException("Scale is NaN.");
+	}
+}
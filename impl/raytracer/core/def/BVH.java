@@ -1,7 +1,9 @@
 package raytracer.core.def;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
+import raytracer.core.RenderStats;
 import raytracer.geom.BBox;
 import raytracer.math.Pair;
 import raytracer.math.Point;
@@ -9,64 +11,312 @@ import raytracer.math.Ray;
 import raytracer.math.Vec3;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Represents a bounding volume hierarchy acceleration structure
  */
 public class BVH extends BVHBase {
+	/**
+	 * Sub-BVHs with fewer objects than this number are built sequentially
+	 */
+	private static final int FORK_THRESHOLD = 2048;
+
+	/**
+	 * The bounds and partition passes of BVHs with at least this many objects
+	 * run in parallel
+	 */
+	private static final int PASS_THRESHOLD = 32768;
+
+	/**
+	 * The number of objects handled by a single task of a parallel pass
+	 */
+	private static final int PASS_CHUNK = 8192;
+
 	private final List<Obj> objects, nodes;
+	private final BinnedSAH sah;
+	// the objects without a finite bounding box, only kept by the root
+	private List<Obj> unbounded = Collections.emptyList();
 	private BBox bbox = BBox.EMPTY;
+	private boolean leaf = true;
+	private int splitDim;
+
+	// the SAH cost of the hierarchy as of the last refit and right after it
+	// was built
+	private float cost, builtCost;
 
 	public BVH() {
+		this(BinnedSAH.DEFAULT_BINS);
+	}
+
+	/**
+	 * Creates a new bounding volume hierarchy
+	 *
+	 * @param bins
+	 *            The number of bins per dimension used by the surface area
+	 *            heuristic
+	 * @throws IllegalArgumentException
+	 *             If less than two bins are requested
+	 */
+	public BVH(final int bins) {
+		this(new BinnedSAH(bins));
+	}
+
+	/**
+	 * Creates a new bounding volume hierarchy over objects with the given
+	 * intersection cost. Expensive objects, like whole meshes, are split into
+	 * smaller leaves than single primitives.
+	 *
+	 * @param bins
+	 *            The number of bins per dimension used by the surface area
+	 *            heuristic
+	 * @param intersectionCost
+	 *            The estimated cost of intersecting a single object, relative
+	 *            to the cost of traversing an inner node
+	 * @throws IllegalArgumentException
+	 *             If less than two bins are requested or the cost is not
+	 *             positive
+	 */
+	public BVH(final int bins, final float intersectionCost) {
+		this(new BinnedSAH(bins, intersectionCost));
+	}
+
+	private BVH(final BinnedSAH sah) {
 		objects = new ArrayList<>();
 		nodes = new ArrayList<>();
+		this.sah = sah;
 	}
 
+	/**
+	 * Returns the bounding box of all objects, which is infinite if the BVH
+	 * contains unbounded objects
+	 */
 	@Override
 	public BBox bbox() {
-		return bbox;
+		return unbounded.isEmpty() ? bbox : BBox.INF;
 	}
 
 	/**
-	 * Adds an object to the acceleration structure
+	 * Adds an object to the acceleration structure. Objects without a finite
+	 * bounding box, like planes, are kept in a separate list which is tested
+	 * by every ray, so they do not spoil the bounding boxes of the hierarchy.
 	 *
 	 * @param prim
 	 *            The object to add
 	 */
 	@Override
 	public void add(final Obj prim) {
+		final BBox box = prim.bbox();
+		if (!box.isFinite()) {
+			if (unbounded.isEmpty())
+				unbounded = new ArrayList<>();
+			unbounded.add(prim);
+			return;
+		}
 		objects.add(prim);
-		bbox = BBox.surround(bbox, prim.bbox());
+		bbox = BBox.surround(bbox, box);
 	}
 
 	/**
-	 * Builds the actual bounding volume hierarchy
+	 * Builds the actual bounding volume hierarchy. The objects are split
+	 * according to the binned surface area heuristic of their centroids until
+	 * intersecting the remaining objects directly is cheaper than splitting
+	 * them any further.
 	 */
 	@Override
 	public void buildBVH() {
-		if(objects.size() > BVH.THRESHOLD) {
-			BVH a = new BVH(),
-				b = new BVH();
+		final BVH[] children = split(false);
+		if (children != null) {
+			children[0].buildBVH();
+			children[1].buildBVH();
+		}
+		built();
+	}
 
-			Pair<Point, Point> minMax = calculateMinMax();
-			int dimension = calculateSplitDimension(minMax.b.sub(minMax.a));
+	/**
+	 * Builds the actual bounding volume hierarchy in parallel using the given
+	 * pool. Sub-BVHs with many objects are built in separate tasks and the
+	 * bounds and partition passes of large nodes are split into chunks. The
+	 * resulting hierarchy is identical to the one built by {@link #buildBVH()}.
+	 *
+	 * @param pool
+	 *            The pool to build the hierarchy with
+	 */
+	public void buildBVH(final ForkJoinPool pool) {
+		pool.invoke(new BuildTask(this));
+	}
 
-			distributeObjects(a, b, dimension, minMax.a.add(minMax.b.sub(minMax.a).scale(0.5f)).get(dimension));
+	/**
+	 * Splits the objects of this BVH into two new sub-BVHs, which are not
+	 * built yet, or turns this BVH into a leaf
+	 *
+	 * @param parallel
+	 *            True if the bounds and partition passes should run in
+	 *            parallel
+	 * @return The two new sub-BVHs or null if this BVH is a leaf
+	 */
+	private BVH[] split(final boolean parallel) {
+		nodes.clear();
+		leaf = true;
+
+		final BinnedSAH.Split split = parallel ? findParallel() : sah.find(boxes(), 0, objects.size());
+		if (split != null) {
+			final BVH a = new BVH(sah),
+					  b = new BVH(sah);
+
+			if (parallel)
+				distributeParallel(a, b, split.dim, split.pos);
+			else
+				distributeObjects(a, b, split.dim, split.pos);
 
-			if (a.getObjects().size() != objects.size() && b.getObjects().size() != objects.size()) {
+			if (!a.objects.isEmpty() && !b.objects.isEmpty()) {
+				leaf = false;
+				splitDim = split.dim;
 				nodes.add(a);
 				nodes.add(b);
+				return new BVH[] { a, b };
+			}
+		}
 
-				a.buildBVH();
-				b.buildBVH();
-			} else
-				for(Obj object : objects)
-					nodes.add(object);
+		nodes.addAll(objects);
+		return null;
+	}
+
+	/**
+	 * Records the cost of this freshly built BVH, whose sub-BVHs have been
+	 * built already
+	 */
+	private void built() {
+		cost = localCost();
+		builtCost = cost;
+	}
+
+	/**
+	 * Computes the SAH cost of this BVH from the costs of its sub-BVHs: the
+	 * cost of traversing this node plus the costs of the sub-BVHs weighted by
+	 * the probability that a ray hitting this node hits them
+	 */
+	private float localCost() {
+		if (leaf)
+			return objects.size() * sah.getIntersectionCost();
+		final BVH a = (BVH) nodes.get(0), b = (BVH) nodes.get(1);
+		final float area = area(bbox);
+		if (!(area > 0) || Float.isInfinite(area))
+			return BinnedSAH.TRAVERSAL_COST + a.cost + b.cost;
+		return BinnedSAH.TRAVERSAL_COST + (area(a.bbox) * a.cost + area(b.bbox) * b.cost) / area;
+	}
+
+	private static float area(final BBox box) {
+		final Vec3 d = box.getMax().sub(box.getMin());
+		if (d.x() < 0 || d.y() < 0 || d.z() < 0)
+			return 0;
+		return 2 * (d.x() * d.y() + d.y() * d.z() + d.z() * d.x());
+	}
+
+	/**
+	 * Updates the bounding boxes of the built hierarchy bottom-up to the
+	 * current bounding boxes of its objects, after objects have moved. The
+	 * topology is kept, so the hierarchy degrades as objects move away from
+	 * the objects they share nodes with. The hierarchy must not be traversed
+	 * while it is refitted.
+	 *
+	 * @return The degradation of the hierarchy after the refit, see
+	 *         {@link #getDegradation()}
+	 */
+	public float refit() {
+		if (leaf) {
+			BBox box = BBox.EMPTY;
+			for (final Obj object : objects)
+				box = BBox.surround(box, object.bbox());
+			bbox = box;
 		} else {
-			for(Obj object : objects)
-				nodes.add(object);
+			final BVH a = (BVH) nodes.get(0), b = (BVH) nodes.get(1);
+			a.refit();
+			b.refit();
+			bbox = BBox.surround(a.bbox, b.bbox);
 		}
+		cost = localCost();
+		return getDegradation();
+	}
+
+	/**
+	 * Returns how much the SAH cost of the hierarchy grew since it was built,
+	 * as of the last refit
+	 *
+	 * @return The cost divided by the cost right after building, 1 for a
+	 *         hierarchy which has not degraded
+	 */
+	public float getDegradation() {
+		return builtCost > 0 ? cost / builtCost : 1;
+	}
+
+	/**
+	 * Updates the hierarchy after objects have moved. The bounding boxes are
+	 * refitted and every sub-BVH whose cost grew by more than the given factor
+	 * since it was built is rebuilt from its objects. If the whole hierarchy
+	 * degraded that much, it is rebuilt completely. Sub-BVHs are compared to
+	 * the cost they had when they were built, so a hierarchy degrading slowly
+	 * is rebuilt completely eventually.
+	 *
+	 * @param threshold
+	 *            The factor by which the cost of a sub-BVH may grow before it
+	 *            is rebuilt
+	 * @return The number of rebuilt sub-BVHs
+	 * @throws IllegalArgumentException
+	 *             If the threshold is less than 1
+	 */
+	public int update(final float threshold) {
+		if (!(threshold >= 1))
+			throw new IllegalArgumentException("Threshold must be at least 1.");
+		refit();
+		return rebuildDegraded(threshold);
+	}
+
+	private int rebuildDegraded(final float threshold) {
+		if (cost > threshold * builtCost) {
+			buildBVH();
+			return 1;
+		}
+		if (leaf)
+			return 0;
+		final int rebuilt = ((BVH) nodes.get(0)).rebuildDegraded(threshold)
+				+ ((BVH) nodes.get(1)).rebuildDegraded(threshold);
+		if (rebuilt > 0)
+			cost = localCost();
+		return rebuilt;
+	}
+
+	private BinnedSAH.Split findParallel() {
+		final int n = objects.size();
+		final float[] cb = new CentroidTask(0, n).invoke();
+		final BinnedSAH.Bins bins = new BinTask(0, n, cb).invoke();
+		return sah.split(bins, cb, n);
+	}
+
+	private void distributeParallel(final BVH a, final BVH b, final int splitdim, final float splitpos) {
+		final Partition part = new PartitionTask(0, objects.size(), splitdim, splitpos).invoke();
+		a.objects.addAll(part.a);
+		a.bbox = part.boxA;
+		b.objects.addAll(part.b);
+		b.bbox = part.boxB;
+	}
+
+	private BinnedSAH.Boxes boxes() {
+		return new BinnedSAH.Boxes() {
+			@Override
+			public float min(final int i, final int dim) {
+				return objects.get(i).bbox().getMin().get(dim);
+			}
+
+			@Override
+			public float max(final int i, final int dim) {
+				return objects.get(i).bbox().getMax().get(dim);
+			}
+		};
 	}
 
 	@Override
@@ -97,39 +347,292 @@ public class BVH extends BVHBase {
 		return max == size.x() ? 0 : max == size.y() ? 1 : 2;
 	}
 
+	/**
+	 * Distributes the current objects into two bvhs according to the centroids
+	 * of their bounding boxes
+	 */
 	@Override
 	public void distributeObjects(final BVHBase a, final BVHBase b, final int splitdim, final float splitpos) {
 		for(Obj object : objects) {
-			if (object.bbox().getMin().get(splitdim) < splitpos)
+			final BBox box = object.bbox();
+			if (0.5f * (box.getMin().get(splitdim) + box.getMax().get(splitdim)) < splitpos)
 				a.add(object);
 			else
 				b.add(object);
 		}
 	}
 
+	/**
+	 * Computes a hit point with the given parameters. The sub-BVHs are visited
+	 * front to back: the child lying nearer along the split dimension of the
+	 * ray is visited first and the maximum distance is tightened to each hit
+	 * found, so that sub-BVHs behind it are rejected by their bounding boxes.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The computed hit
+	 */
 	@Override
 	public Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
-		Hit hit = null;
+		return nearestHit(ray, obj, tmin, tmax);
+	}
 
-		if(bbox.hit(ray, tmin, tmax).hits()) {
-			for(Obj node : nodes) {
-				Hit nodeHit = node.hit(ray, node, tmin, tmax);
+	/**
+	 * Records the nearest hit within this BVH, visiting the sub-BVHs front to
+	 * back
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far
+	 * @return True if a closer hit has been recorded
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		boolean found = false;
+		for (int i = 0; i < unbounded.size(); i++) {
+			final Obj object = unbounded.get(i);
+			found |= object.intersect(ray, object, tmin, record);
+		}
 
-				if(nodeHit.hits()) {
-					if(hit == null || nodeHit.getParameter() < hit.getParameter())
-						hit = nodeHit;
-				}
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.NODE_VISITS);
+		if (Float.isNaN(bbox.entry(ray, tmin, record.t)))
+			return found;
+		return traverse(ray, tmin, record) | found;
+	}
+
+	/**
+	 * Records the nearest hit within this BVH whose bounding box is already
+	 * known to be hit
+	 */
+	private boolean traverse(final Ray ray, final float tmin, final HitRecord record) {
+		boolean found = false;
+
+		if (leaf) {
+			for (int i = 0; i < nodes.size(); i++) {
+				final Obj node = nodes.get(i);
+				found |= node.intersect(ray, node, tmin, record);
 			}
+			return found;
 		}
 
-		if(hit != null)
-			return hit;
+		if (RenderStats.ENABLED)
+			RenderStats.add(RenderStats.Counter.NODE_VISITS, 2);
+		final int first = ray.dir().isNeg(splitDim);
+		for (int i = 0; i < 2; i++) {
+			final BVH child = (BVH) nodes.get(first ^ i);
+			if (!Float.isNaN(child.bbox.entry(ray, tmin, record.t)))
+				found |= child.traverse(ray, tmin, record);
+		}
+		return found;
+	}
+
+	/**
+	 * Checks whether any object blocks the given ray, stopping at the first
+	 * blocker found. The sub-BVHs are visited front to back.
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		for (int i = 0; i < unbounded.size(); i++)
+			if (unbounded.get(i).occluded(ray, maxDist))
+				return true;
 
-		return Hit.No.get();
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.NODE_VISITS);
+		if (Float.isNaN(bbox.entry(ray, 0, maxDist)))
+			return false;
+
+		if (leaf) {
+			for (final Obj node : nodes)
+				if (node.occluded(ray, maxDist))
+					return true;
+			return false;
+		}
+
+		final int first = ray.dir().isNeg(splitDim);
+		return nodes.get(first).occluded(ray, maxDist) || nodes.get(first ^ 1).occluded(ray, maxDist);
 	}
 
+	/**
+	 * Returns the objects with a finite bounding box, which form the
+	 * hierarchy
+	 */
 	@Override
 	public List<Obj> getObjects() {
 		return objects;
 	}
+
+	@Override
+	public List<Obj> getUnbounded() {
+		return unbounded;
+	}
+
+	@Override
+	public List<Obj> getNodes() {
+		return nodes;
+	}
+
+	@Override
+	public boolean isLeaf() {
+		return leaf;
+	}
+
+	private static final class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final BVH bvh;
+
+		BuildTask(final BVH bvh) {
+			this.bvh = bvh;
+		}
+
+		@Override
+		protected void compute() {
+			final int n = bvh.objects.size();
+			if (n < FORK_THRESHOLD) {
+				bvh.buildBVH();
+				return;
+			}
+			final BVH[] children = bvh.split(n >= PASS_THRESHOLD);
+			if (children != null)
+				invokeAll(new BuildTask(children[0]), new BuildTask(children[1]));
+			bvh.built();
+		}
+	}
+
+	/**
+	 * Processes a range of objects by recursively splitting it into chunks
+	 * and merging the results of neighbouring chunks in order
+	 */
+	private abstract static class RangeTask<T> extends RecursiveTask<T> {
+		private static final long serialVersionUID = 1L;
+		private final int from, to;
+
+		RangeTask(final int from, final int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		protected abstract T chunk(int from, int to);
+
+		protected abstract T merge(T first, T second);
+
+		protected abstract RangeTask<T> sub(int from, int to);
+
+		@Override
+		protected final T compute() {
+			if (to - from <= PASS_CHUNK)
+				return chunk(from, to);
+			final int mid = (from + to) >>> 1;
+			final RangeTask<T> second = sub(mid, to);
+			second.fork();
+			final T first = sub(from, mid).compute();
+			return merge(first, second.join());
+		}
+	}
+
+	private final class CentroidTask extends RangeTask<float[]> {
+		private static final long serialVersionUID = 1L;
+
+		CentroidTask(final int from, final int to) {
+			super(from, to);
+		}
+
+		@Override
+		protected float[] chunk(final int from, final int to) {
+			return BinnedSAH.centroidBounds(boxes(), from, to);
+		}
+
+		@Override
+		protected float[] merge(final float[] first, final float[] second) {
+			return BinnedSAH.mergeBounds(first, second);
+		}
+
+		@Override
+		protected RangeTask<float[]> sub(final int from, final int to) {
+			return new CentroidTask(from, to);
+		}
+	}
+
+	private final class BinTask extends RangeTask<BinnedSAH.Bins> {
+		private static final long serialVersionUID = 1L;
+		private final float[] cb;
+
+		BinTask(final int from, final int to, final float[] cb) {
+			super(from, to);
+			this.cb = cb;
+		}
+
+		@Override
+		protected BinnedSAH.Bins chunk(final int from, final int to) {
+			return sah.bin(boxes(), from, to, cb);
+		}
+
+		@Override
+		protected BinnedSAH.Bins merge(final BinnedSAH.Bins first, final BinnedSAH.Bins second) {
+			return first.merge(second);
+		}
+
+		@Override
+		protected RangeTask<BinnedSAH.Bins> sub(final int from, final int to) {
+			return new BinTask(from, to, cb);
+		}
+	}
+
+	private static final class Partition {
+		private final List<Obj> a = new ArrayList<>(), b = new ArrayList<>();
+		private BBox boxA = BBox.EMPTY, boxB = BBox.EMPTY;
+	}
+
+	private final class PartitionTask extends RangeTask<Partition> {
+		private static final long serialVersionUID = 1L;
+		private final int splitdim;
+		private final float splitpos;
+
+		PartitionTask(final int from, final int to, final int splitdim, final float splitpos) {
+			super(from, to);
+			this.splitdim = splitdim;
+			this.splitpos = splitpos;
+		}
+
+		@Override
+		protected Partition chunk(final int from, final int to) {
+			final Partition res = new Partition();
+			for (final Obj object : objects.subList(from, to)) {
+				final BBox box = object.bbox();
+				if (0.5f * (box.getMin().get(splitdim) + box.getMax().get(splitdim)) < splitpos) {
+					res.a.add(object);
+					res.boxA = BBox.surround(res.boxA, box);
+				} else {
+					res.b.add(object);
+					res.boxB = BBox.surround(res.boxB, box);
+				}
+			}
+			return res;
+		}
+
+		@Override
+		protected Partition merge(final Partition first, final Partition second) {
+			first.a.addAll(second.a);
+			first.b.addAll(second.b);
+			first.boxA = BBox.surround(first.boxA, second.boxA);
+			first.boxB = BBox.surround(first.boxB, second.boxB);
+			return first;
+		}
+
+		@Override
+		protected RangeTask<Partition> sub(final int from, final int to) {
+			return new PartitionTask(from, to, splitdim, splitpos);
+		}
+	}
 }
@@ -0,0 +1,396 @@
+package raytracer.core.def;
+
+/**
+ * Computes split planes for bounding volume hierarchies using a binned surface
+ * area heuristic (SAH). The centroids of the bounding boxes are sorted into a
+ * fixed number of equally sized bins per dimension and the cheapest split
+ * between two neighbouring bins is chosen. If no split is cheaper than
+ * intersecting all objects directly, no split is returned and the node should
+ * become a leaf.
+ */
+public final class BinnedSAH {
+
+	/**
+	 * The default number of bins per dimension
+	 */
+	public static final int DEFAULT_BINS = 16;
+
+	/**
+	 * The estimated cost of traversing an inner node
+	 */
+	public static final float TRAVERSAL_COST = 1.0f;
+
+	/**
+	 * The estimated cost of intersecting a single object
+	 */
+	public static final float INTERSECTION_COST = 1.0f;
+
+	/**
+	 * Provides the bounding boxes of the objects to split
+	 */
+	public interface Boxes {
+
+		/**
+		 * Returns the minimum of the i-th bounding box in the given dimension
+		 *
+		 * @param i
+		 *            The index of the bounding box
+		 * @param dim
+		 *            The dimension (x=0, y=1, z=2)
+		 * @return The minimum in the given dimension
+		 */
+		float min(int i, int dim);
+
+		/**
+		 * Returns the maximum of the i-th bounding box in the given dimension
+		 *
+		 * @param i
+		 *            The index of the bounding box
+		 * @param dim
+		 *            The dimension (x=0, y=1, z=2)
+		 * @return The maximum in the given dimension
+		 */
+		float max(int i, int dim);
+	}
+
+	/**
+	 * Represents the result of a split computation
+	 */
+	public static final class Split {
+		/**
+		 * The dimension to split in
+		 */
+		public final int dim;
+
+		/**
+		 * The split position; objects whose centroid is smaller belong to the
+		 * first half
+		 */
+		public final float pos;
+
+		/**
+		 * The estimated cost of the split
+		 */
+		public final float cost;
+
+		private Split(final int dim, final float pos, final float cost) {
+			this.dim = dim;
+			this.pos = pos;
+			this.cost = cost;
+		}
+	}
+
+	private final int bins;
+	private final float intersectionCost;
+
+	/**
+	 * Creates a new SAH split finder
+	 *
+	 * @param bins
+	 *            The number of bins per dimension
+	 * @throws IllegalArgumentException
+	 *             If less than two bins are requested
+	 */
+	public BinnedSAH(final int bins) {
+		this(bins, INTERSECTION_COST);
+	}
+
+	/**
+	 * Creates a new SAH split finder for objects with the given intersection
+	 * cost
+	 *
+	 * @param bins
+	 *            The number of bins per dimension
+	 * @param intersectionCost
+	 *            The estimated cost of intersecting a single object, relative
+	 *            to the cost of traversing an inner node
+	 * @throws IllegalArgumentException
+	 *             If less than two bins are requested or the cost is not
+	 *             positive
+	 */
+	public BinnedSAH(final int bins, final float intersectionCost) {
+		if (bins < 2)
+			throw new IllegalArgumentException("At least two bins are required.");
+		if (!(intersectionCost > 0) || Float.isInfinite(intersectionCost))
+			throw new IllegalArgumentException("Intersection cost must be positive.");
+		this.bins = bins;
+		this.intersectionCost = intersectionCost;
+	}
+
+	/**
+	 * Returns the number of bins per dimension
+	 *
+	 * @return The number of bins per dimension
+	 */
+	public int getBins() {
+		return bins;
+	}
+
+	/**
+	 * Returns the estimated cost of intersecting a single object
+	 *
+	 * @return The estimated cost of intersecting a single object
+	 */
+	public float getIntersectionCost() {
+		return intersectionCost;
+	}
+
+	/**
+	 * Computes the centroid of the i-th bounding box in the given dimension
+	 *
+	 * @param boxes
+	 *            The bounding boxes
+	 * @param i
+	 *            The index of the bounding box
+	 * @param dim
+	 *            The dimension
+	 * @return The centroid in the given dimension
+	 */
+	public static float centroid(final Boxes boxes, final int i, final int dim) {
+		return 0.5f * (boxes.min(i, dim) + boxes.max(i, dim));
+	}
+
+	/**
+	 * Computes the surface area of a box given as {minX, minY, minZ, maxX,
+	 * maxY, maxZ} starting at the given offset
+	 *
+	 * @param b
+	 *            The box data
+	 * @param ofs
+	 *            The offset of the box
+	 * @return The surface area of the box
+	 */
+	public static float area(final float[] b, final int ofs) {
+		final float dx = b[ofs + 3] - b[ofs];
+		final float dy = b[ofs + 4] - b[ofs + 1];
+		final float dz = b[ofs + 5] - b[ofs + 2];
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	/**
+	 * Finds the cheapest split for the boxes from (inclusive) to to
+	 * (exclusive)
+	 *
+	 * @param boxes
+	 *            The bounding boxes to split
+	 * @param from
+	 *            The first box
+	 * @param to
+	 *            The end of the range
+	 * @return The cheapest split or null if a leaf is cheaper
+	 */
+	public Split find(final Boxes boxes, final int from, final int to) {
+		if (to - from < 2)
+			return null;
+		final float[] cb = centroidBounds(boxes, from, to);
+		return split(bin(boxes, from, to, cb), cb, to - from);
+	}
+
+	/**
+	 * Computes the bounds of the centroids of the given range as {minX, minY,
+	 * minZ, maxX, maxY, maxZ}
+	 *
+	 * @param boxes
+	 *            The bounding boxes
+	 * @param from
+	 *            The first box
+	 * @param to
+	 *            The end of the range
+	 * @return The bounds of the centroids
+	 */
+	public static float[] centroidBounds(final Boxes boxes, final int from, final int to) {
+		final float[] cb = emptyBounds();
+		for (int i = from; i < to; i++) {
+			for (int d = 0; d < 3; d++) {
+				final float c = centroid(boxes, i, d);
+				if (c < cb[d])
+					cb[d] = c;
+				if (c > cb[d + 3])
+					cb[d + 3] = c;
+			}
+		}
+		return cb;
+	}
+
+	/**
+	 * Merges the second centroid bounds into the first one
+	 *
+	 * @param a
+	 *            The bounds to merge into
+	 * @param b
+	 *            The bounds to merge
+	 * @return The merged bounds a
+	 */
+	public static float[] mergeBounds(final float[] a, final float[] b) {
+		for (int d = 0; d < 3; d++) {
+			if (b[d] < a[d])
+				a[d] = b[d];
+			if (b[d + 3] > a[d + 3])
+				a[d + 3] = b[d + 3];
+		}
+		return a;
+	}
+
+	/**
+	 * Sorts the boxes of the given range into bins
+	 *
+	 * @param boxes
+	 *            The bounding boxes
+	 * @param from
+	 *            The first box
+	 * @param to
+	 *            The end of the range
+	 * @param cb
+	 *            The centroid bounds of the whole node
+	 * @return The filled bins
+	 */
+	public Bins bin(final Boxes boxes, final int from, final int to, final float[] cb) {
+		final Bins res = new Bins(bins);
+		for (int d = 0; d < 3; d++) {
+			final float extent = cb[d + 3] - cb[d];
+			if (!(extent > 0))
+				continue;
+			final float scale = bins / extent;
+			for (int i = from; i < to; i++) {
+				int k = (int) ((centroid(boxes, i, d) - cb[d]) * scale);
+				if (k >= bins)
+					k = bins - 1;
+				else if (k < 0)
+					k = 0;
+				res.add(d * bins + k, boxes, i);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Evaluates all split candidates of the given bins
+	 *
+	 * @param b
+	 *            The filled bins
+	 * @param cb
+	 *            The centroid bounds used for binning
+	 * @param n
+	 *            The number of binned boxes
+	 * @return The cheapest split or null if a leaf is cheaper
+	 */
+	public Split split(final Bins b, final float[] cb, final int n) {
+		final float leafCost = intersectionCost * n;
+		final float[] acc = new float[6];
+		final float[] rightArea = new float[bins];
+		final int[] rightCount = new int[bins];
+		Split best = null;
+		float bestCost = leafCost;
+
+		for (int d = 0; d < 3; d++) {
+			final float extent = cb[d + 3] - cb[d];
+			if (!(extent > 0))
+				continue;
+			final int base = d * bins;
+
+			// sweep from the right to collect the areas of all right halves
+			reset(acc);
+			int count = 0;
+			for (int k = bins - 1; k > 0; k--) {
+				grow(acc, b.bounds, (base + k) * 6);
+				count += b.counts[base + k];
+				rightArea[k] = count > 0 ? area(acc, 0) : 0;
+				rightCount[k] = count;
+			}
+			final float invTotal = 1 / area(grow(acc, b.bounds, base * 6), 0);
+
+			// sweep from the left and evaluate each split candidate
+			reset(acc);
+			count = 0;
+			for (int k = 0; k < bins - 1; k++) {
+				grow(acc, b.bounds, (base + k) * 6);
+				count += b.counts[base + k];
+				final int right = rightCount[k + 1];
+				if (count == 0 || right == 0)
+					continue;
+				final float cost = TRAVERSAL_COST + intersectionCost * invTotal
+						* (area(acc, 0) * count + rightArea[k + 1] * right);
+				if (cost < bestCost) {
+					bestCost = cost;
+					best = new Split(d, cb[d] + (k + 1) * extent / bins, cost);
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Stores the per bin bounding boxes and object counts of all three
+	 * dimensions
+	 */
+	public static final class Bins {
+		private final int[] counts;
+		private final float[] bounds;
+
+		private Bins(final int bins) {
+			counts = new int[3 * bins];
+			bounds = new float[3 * bins * 6];
+			for (int i = 0; i < counts.length; i++)
+				reset(bounds, i * 6);
+		}
+
+		private void add(final int bin, final Boxes boxes, final int i) {
+			counts[bin]++;
+			final int ofs = bin * 6;
+			for (int d = 0; d < 3; d++) {
+				final float lo = boxes.min(i, d);
+				final float hi = boxes.max(i, d);
+				if (lo < bounds[ofs + d])
+					bounds[ofs + d] = lo;
+				if (hi > bounds[ofs + d + 3])
+					bounds[ofs + d + 3] = hi;
+			}
+		}
+
+		/**
+		 * Merges the given bins into these bins
+		 *
+		 * @param other
+		 *            The bins to merge
+		 * @return These bins
+		 */
+		public Bins merge(final Bins other) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+				grow(bounds, i * 6, other.bounds, i * 6);
+			}
+			return this;
+		}
+	}
+
+	private static float[] emptyBounds() {
+		final float[] b = new float[6];
+		reset(b);
+		return b;
+	}
+
+	private static void reset(final float[] b) {
+		reset(b, 0);
+	}
+
+	private static void reset(final float[] b, final int ofs) {
+		for (int d = 0; d < 3; d++) {
+			b[ofs + d] = Float.POSITIVE_INFINITY;
+			b[ofs + d + 3] = Float.NEGATIVE_INFINITY;
+		}
+	}
+
+	private static float[] grow(final float[] acc, final float[] b, final int ofs) {
+		grow(acc, 0, b, ofs);
+		return acc;
+	}
+
+	private static void grow(final float[] acc, final int aofs, final float[] b, final int ofs) {
+		for (int d = 0; d < 3; d++) {
+			if (b[ofs + d] < acc[aofs + d])
+				acc[aofs + d] = b[ofs + d];
+			if (b[ofs + d + 3] > acc[aofs + d + 3])
+				acc[aofs + d + 3] = b[ofs + d + 3];
+		}
+	}
+}
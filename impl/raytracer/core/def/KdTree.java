@@ -0,0 +1,543 @@
+package raytracer.core.def;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.core.RenderStats;
+import raytracer.geom.BBox;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec3;
+
+/**
+ * Represents a kd-tree, which splits space by axis-aligned planes chosen by
+ * the surface area heuristic (SAH). Unlike the nodes of a {@link BVH} the
+ * children of a node do not overlap, so rays can visit the nodes strictly
+ * front to back and stop at the first node containing a hit. Objects
+ * straddling a split plane are referenced by both children.
+ *
+ * Each node occupies two ints, nodes[2i..2i+1]. For an inner node these are
+ * the bits of the float position of the split plane and (above << 2) | axis,
+ * where above is the index of the child above the plane; the child below the
+ * plane directly follows its parent. For a leaf they are the offset of its
+ * first object index in indices and (count << 2) | 3. Unbounded objects like a
+ * ground plane are kept out of the tree and tested by every ray.
+ */
+public class KdTree extends Accelerator {
+
+	/**
+	 * The estimated cost of traversing an inner node
+	 */
+	public static final float TRAVERSAL_COST = 1.0f;
+
+	/**
+	 * The estimated cost of intersecting a single object
+	 */
+	public static final float INTERSECTION_COST = 80.0f;
+
+	/**
+	 * The fraction by which splits cutting off empty space are preferred
+	 */
+	public static final float EMPTY_BONUS = 0.5f;
+
+	/**
+	 * The number of objects in a node which is never split
+	 */
+	public static final int MAX_LEAF_SIZE = 1;
+
+	private static final int LEAF = 3;
+
+	private final List<Obj> objects = new ArrayList<>();
+	private final List<Obj> unbounded = new ArrayList<>();
+	private BBox bbox = BBox.EMPTY;
+
+	private Obj[] prims, unboundedPrims;
+	private float[] boxes;
+	private final float[] bounds = new float[6];
+	private int[] nodes, indices;
+	private int nodeCount, indexCount, depth;
+	private long[][] edges;
+	private boolean built;
+
+	/**
+	 * Adds an object to the tree. Objects without a finite bounding box, like
+	 * planes, are kept in a separate list which is tested by every ray. The
+	 * tree must be built again afterwards.
+	 *
+	 * @param prim
+	 *            The object to add
+	 */
+	@Override
+	public void add(final Obj prim) {
+		final BBox box = prim.bbox();
+		if (!box.isFinite()) {
+			unbounded.add(prim);
+		} else {
+			objects.add(prim);
+			bbox = BBox.surround(bbox, box);
+		}
+		built = false;
+	}
+
+	/**
+	 * Returns the objects in the nodes of the tree
+	 *
+	 * @return The bounded objects
+	 */
+	public List<Obj> getObjects() {
+		return objects;
+	}
+
+	/**
+	 * Returns the objects kept out of the tree since they are unbounded
+	 *
+	 * @return The unbounded objects
+	 */
+	public List<Obj> getUnbounded() {
+		return unbounded;
+	}
+
+	/**
+	 * Returns the number of nodes of the tree
+	 *
+	 * @return The number of nodes
+	 * @throws IllegalStateException
+	 *             If the tree has not been built
+	 */
+	public int getNodeCount() {
+		checkBuilt();
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the depth of the tree
+	 *
+	 * @return The depth, which is 1 for a single leaf
+	 * @throws IllegalStateException
+	 *             If the tree has not been built
+	 */
+	public int getDepth() {
+		checkBuilt();
+		return depth;
+	}
+
+	/**
+	 * Builds the tree over the current objects. Nodes are split at the edges
+	 * of the bounding boxes of their objects where the surface area heuristic
+	 * is cheapest, until intersecting the remaining objects directly is
+	 * cheaper or the maximum depth of about 8 + 1.3 log2(n) is reached.
+	 */
+	public void build() {
+		prims = objects.toArray(new Obj[objects.size()]);
+		unboundedPrims = unbounded.toArray(new Obj[unbounded.size()]);
+		final int n = prims.length;
+
+		boxes = new float[6 * n];
+		for (int i = 0; i < n; i++) {
+			final BBox box = prims[i].bbox();
+			for (int d = 0; d < 3; d++) {
+				boxes[6 * i + d] = box.getMin().get(d);
+				boxes[6 * i + d + 3] = box.getMax().get(d);
+			}
+		}
+		for (int d = 0; d < 3; d++) {
+			bounds[d] = n == 0 ? 0 : bbox.getMin().get(d);
+			bounds[d + 3] = n == 0 ? 0 : bbox.getMax().get(d);
+		}
+
+		nodes = new int[64];
+		indices = new int[Math.max(16, n)];
+		nodeCount = indexCount = depth = 0;
+		edges = new long[3][2 * n];
+		final int maxDepth = n == 0 ? 0 : (int) Math.min(64, Math.round(8 + 1.3 * Math.log(n) / Math.log(2)));
+		final int[] all = new int[n];
+		for (int i = 0; i < n; i++)
+			all[i] = i;
+		buildNode(all, n, bounds.clone(), maxDepth, 0, 1);
+
+		edges = null;
+		boxes = null;
+		nodes = Arrays.copyOf(nodes, 2 * nodeCount);
+		indices = Arrays.copyOf(indices, indexCount);
+		built = true;
+	}
+
+	/**
+	 * Writes a node for the given objects and its subtree
+	 *
+	 * @param ids
+	 *            The indices of the objects of the node in ids[0..n - 1]
+	 * @param n
+	 *            The number of objects
+	 * @param box
+	 *            The bounds of the node as {minX, minY, minZ, maxX, maxY,
+	 *            maxZ}
+	 * @param maxDepth
+	 *            The remaining number of levels below this node
+	 * @param badRefines
+	 *            The number of splits above which did not lower the cost
+	 * @param level
+	 *            The level of the node, starting with 1
+	 */
+	private void buildNode(final int[] ids, final int n, final float[] box, final int maxDepth, int badRefines,
+			final int level) {
+		final int node = nodeCount++;
+		if (2 * nodeCount > nodes.length)
+			nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+		depth = Math.max(depth, level);
+
+		final float leafCost = INTERSECTION_COST * n;
+		final float area = area(box, -1, 0, 0);
+		int bestAxis = -1, bestOffset = -1;
+		float bestCost = Float.POSITIVE_INFINITY;
+		if (n > MAX_LEAF_SIZE && maxDepth > 0 && area > 0) {
+			final float invArea = 1 / area;
+			for (int axis = 0; axis < 3; axis++) {
+				final long[] e = edges[axis];
+				for (int i = 0; i < n; i++) {
+					e[2 * i] = edge(boxes[6 * ids[i] + axis], 0, ids[i]);
+					e[2 * i + 1] = edge(boxes[6 * ids[i] + axis + 3], 1, ids[i]);
+				}
+				Arrays.sort(e, 0, 2 * n);
+
+				// sweep the edges, starts sort before ends at the same
+				// position, so flat boxes always end up in a child
+				int below = 0, above = n;
+				for (int i = 0; i < 2 * n; i++) {
+					final boolean start = isStart(e[i]);
+					if (!start)
+						above--;
+					final float t = position(e[i]);
+					if (t > box[axis] && t < box[axis + 3]) {
+						final float pBelow = area(box, axis, box[axis], t) * invArea;
+						final float pAbove = area(box, axis, t, box[axis + 3]) * invArea;
+						final float bonus = below == 0 || above == 0 ? EMPTY_BONUS : 0;
+						final float cost = TRAVERSAL_COST
+								+ INTERSECTION_COST * (1 - bonus) * (pBelow * below + pAbove * above);
+						if (cost < bestCost) {
+							bestCost = cost;
+							bestAxis = axis;
+							bestOffset = i;
+						}
+					}
+					if (start)
+						below++;
+				}
+			}
+		}
+
+		if (bestCost > leafCost)
+			badRefines++;
+		if (bestAxis == -1 || (bestCost > 4 * leafCost && n < 16) || badRefines == 3) {
+			if (indexCount + n > indices.length)
+				indices = Arrays.copyOf(indices, Math.max(2 * indices.length, indexCount + n));
+			System.arraycopy(ids, 0, indices, indexCount, n);
+			nodes[2 * node] = indexCount;
+			nodes[2 * node + 1] = n << 2 | LEAF;
+			indexCount += n;
+			return;
+		}
+
+		// the edges of each axis are kept in their own array, so those of the
+		// best axis are still sorted
+		final long[] e = edges[bestAxis];
+		final float split = position(e[bestOffset]);
+		final int[] belowIds = new int[n], aboveIds = new int[n];
+		int nBelow = 0, nAbove = 0;
+		for (int i = 0; i < bestOffset; i++)
+			if (isStart(e[i]))
+				belowIds[nBelow++] = object(e[i]);
+		for (int i = bestOffset + 1; i < 2 * n; i++)
+			if (!isStart(e[i]))
+				aboveIds[nAbove++] = object(e[i]);
+
+		final float[] belowBox = box.clone(), aboveBox = box.clone();
+		belowBox[bestAxis + 3] = split;
+		aboveBox[bestAxis] = split;
+		buildNode(belowIds, nBelow, belowBox, maxDepth - 1, badRefines, level + 1);
+		nodes[2 * node] = Float.floatToRawIntBits(split);
+		nodes[2 * node + 1] = nodeCount << 2 | bestAxis;
+		buildNode(aboveIds, nAbove, aboveBox, maxDepth - 1, badRefines, level + 1);
+	}
+
+	/**
+	 * Computes the surface area of the given box, whose extent along the given
+	 * axis is replaced by [from, to] unless the axis is negative
+	 */
+	private static float area(final float[] box, final int axis, final float from, final float to) {
+		final float dx = axis == 0 ? to - from : box[3] - box[0];
+		final float dy = axis == 1 ? to - from : box[4] - box[1];
+		final float dz = axis == 2 ? to - from : box[5] - box[2];
+		return 2 * (dx * dy + dx * dz + dy * dz);
+	}
+
+	/**
+	 * Encodes an edge of a bounding box as a long which sorts by position
+	 * first and puts starts before ends at the same position
+	 */
+	private static long edge(final float t, final int end, final int object) {
+		int bits = Float.floatToIntBits(t);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return (long) bits << 32 | (long) end << 31 | object;
+	}
+
+	private static float position(final long edge) {
+		int bits = (int) (edge >> 32);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return Float.intBitsToFloat(bits);
+	}
+
+	private static boolean isStart(final long edge) {
+		return (edge & 0x80000000L) == 0;
+	}
+
+	private static int object(final long edge) {
+		return (int) (edge & 0x7fffffff);
+	}
+
+	private void checkBuilt() {
+		if (!built)
+			throw new IllegalStateException("Kd-tree has not been built.");
+	}
+
+	/**
+	 * Returns the bounding box of the tree, which is infinite if it contains
+	 * unbounded objects
+	 */
+	@Override
+	public BBox bbox() {
+		return unbounded.isEmpty() ? bbox : BBox.INF;
+	}
+
+	/**
+	 * Computes a hit point with the given parameters
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The computed hit
+	 * @throws IllegalStateException
+	 *             If the tree has not been built
+	 */
+	@Override
+	public Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		return nearestHit(ray, obj, tmin, tmax);
+	}
+
+	/**
+	 * Records the nearest hit within the tree. The nodes are visited front to
+	 * back, keeping the farther children on a stack together with the part of
+	 * the ray within them, until the nearest hit so far lies before the next
+	 * node.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far
+	 * @return True if a closer hit has been recorded
+	 * @throws IllegalStateException
+	 *             If the tree has not been built
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		checkBuilt();
+		boolean found = false;
+		for (final Obj p : unboundedPrims)
+			found |= p.intersect(ray, p, tmin, record);
+		if (prims.length == 0)
+			return found;
+
+		final long range = clip(ray, tmin, record.t);
+		if (range == MISS)
+			return found;
+		float t0 = low(range), t1 = high(range);
+
+		final Point base = ray.base();
+		final Vec3 dir = ray.dir(), invDir = ray.invDir();
+		final int[] stack = record.acquireStack(3 * depth);
+		try {
+			int sp = 0;
+			int node = 0;
+			int visits = 0;
+			while (true) {
+				// nodes starting behind the nearest hit so far are skipped, the stack
+				// is not sorted by distance if the ray lies within a split plane
+				if (!(record.t < t0)) {
+					visits++;
+					final int flags = nodes[2 * node + 1];
+					final int axis = flags & 3;
+					if (axis != LEAF) {
+						final float split = Float.intBitsToFloat(nodes[2 * node]);
+						final float o = base.get(axis);
+						final float tPlane = (split - o) * invDir.get(axis);
+						final boolean belowFirst = o < split || (o == split && dir.get(axis) <= 0);
+						final int first = belowFirst ? node + 1 : flags >>> 2;
+						final int second = belowFirst ? flags >>> 2 : node + 1;
+						if (tPlane > t1 || tPlane <= 0) {
+							node = first;
+						} else if (tPlane < t0) {
+							node = second;
+						} else {
+							// the ray lies within the plane if tPlane is NaN, so
+							// both children are visited over the whole range
+							final float mid = Float.isNaN(tPlane) ? t0 : tPlane;
+							stack[sp++] = second;
+							stack[sp++] = Float.floatToRawIntBits(mid);
+							stack[sp++] = Float.floatToRawIntBits(t1);
+							node = first;
+							if (!Float.isNaN(tPlane))
+								t1 = tPlane;
+						}
+						continue;
+					}
+					final int ofs = nodes[2 * node];
+					final int n = flags >>> 2;
+					for (int i = ofs; i < ofs + n; i++) {
+						final Obj p = prims[indices[i]];
+						found |= p.intersect(ray, p, tmin, record);
+					}
+				}
+				if (sp == 0)
+					break;
+				t1 = Float.intBitsToFloat(stack[--sp]);
+				t0 = Float.intBitsToFloat(stack[--sp]);
+				node = stack[--sp];
+			}
+			if (RenderStats.ENABLED)
+				RenderStats.add(RenderStats.Counter.NODE_VISITS, visits);
+			return found;
+		} finally {
+			record.releaseStack();
+		}
+	}
+
+	/**
+	 * Checks whether any object blocks the given ray, stopping at the first
+	 * blocker found
+	 *
+	 * @param ray
+	 *            The ray to check
+	 * @param maxDist
+	 *            The maximum distance
+	 * @return True if the ray is blocked within the given distance
+	 * @throws IllegalStateException
+	 *             If the tree has not been built
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		checkBuilt();
+		for (final Obj p : unboundedPrims)
+			if (p.occluded(ray, maxDist))
+				return true;
+		if (prims.length == 0)
+			return false;
+
+		final long range = clip(ray, 0, maxDist);
+		if (range == MISS)
+			return false;
+		float t0 = low(range), t1 = high(range);
+
+		final Point base = ray.base();
+		final Vec3 dir = ray.dir(), invDir = ray.invDir();
+		final HitRecord record = HitRecord.acquire(maxDist);
+		int visits = 0;
+		try {
+			final int[] stack = record.acquireStack(3 * depth);
+			int sp = 0;
+			int node = 0;
+			while (true) {
+				visits++;
+				final int flags = nodes[2 * node + 1];
+				final int axis = flags & 3;
+				if (axis != LEAF) {
+					final float split = Float.intBitsToFloat(nodes[2 * node]);
+					final float o = base.get(axis);
+					final float tPlane = (split - o) * invDir.get(axis);
+					final boolean belowFirst = o < split || (o == split && dir.get(axis) <= 0);
+					final int first = belowFirst ? node + 1 : flags >>> 2;
+					final int second = belowFirst ? flags >>> 2 : node + 1;
+					if (tPlane > t1 || tPlane <= 0) {
+						node = first;
+					} else if (tPlane < t0) {
+						node = second;
+					} else {
+						final float mid = Float.isNaN(tPlane) ? t0 : tPlane;
+						stack[sp++] = second;
+						stack[sp++] = Float.floatToRawIntBits(mid);
+						stack[sp++] = Float.floatToRawIntBits(t1);
+						node = first;
+						if (!Float.isNaN(tPlane))
+							t1 = tPlane;
+					}
+					continue;
+				}
+				final int ofs = nodes[2 * node];
+				final int n = flags >>> 2;
+				for (int i = ofs; i < ofs + n; i++)
+					if (prims[indices[i]].occluded(ray, maxDist))
+						return true;
+				if (sp == 0)
+					return false;
+				t1 = Float.intBitsToFloat(stack[--sp]);
+				t0 = Float.intBitsToFloat(stack[--sp]);
+				node = stack[--sp];
+			}
+		} finally {
+			if (RenderStats.ENABLED)
+				RenderStats.add(RenderStats.Counter.NODE_VISITS, visits);
+			record.release();
+		}
+	}
+
+	private static final long MISS = -1L;
+
+	/**
+	 * Clips the given range of the ray to the bounds of the tree
+	 *
+	 * @return The clipped range packed by {@link #low} and {@link #high} or
+	 *         {@link #MISS} if the bounds are missed
+	 */
+	private long clip(final Ray ray, float tmin, float tmax) {
+		final Point base = ray.base();
+		final Vec3 invDir = ray.invDir();
+		for (int d = 0; d < 3; d++) {
+			final float inv = invDir.get(d);
+			float t0 = (bounds[d] - base.get(d)) * inv;
+			float t1 = (bounds[d + 3] - base.get(d)) * inv;
+			if (t0 > t1) {
+				final float tmp = t0;
+				t0 = t1;
+				t1 = tmp;
+			}
+			if (t0 > tmin)
+				tmin = t0;
+			if (t1 < tmax)
+				tmax = t1;
+			if (tmin > tmax)
+				return MISS;
+		}
+		return (long) Float.floatToRawIntBits(tmin) << 32 | Float.floatToRawIntBits(tmax) & 0xffffffffL;
+	}
+
+	private static float low(final long range) {
+		return Float.intBitsToFloat((int) (range >>> 32));
+	}
+
+	private static float high(final long range) {
+		return Float.intBitsToFloat((int) range);
+	}
+
+}
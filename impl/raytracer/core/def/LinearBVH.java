@@ -0,0 +1,343 @@
+package raytracer.core.def;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.core.RenderStats;
+import raytracer.geom.BBox;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec3;
+
+/**
+ * Represents an immutable bounding volume hierarchy compiled from a built
+ * {@link BVHBase}. The nodes are stored in depth-first order in flat arrays:
+ * the bounds of node i occupy bounds[6i..6i+5] as {minX, minY, minZ, maxX,
+ * maxY, maxZ} and the layout of node i occupies nodes[2i..2i+1]. For a leaf
+ * these are the offset of its first object and the number of its objects, for
+ * an inner node the index of its second child and -1 - axis, where axis is the
+ * dimension along which the first child lies below the second one. The first
+ * child of an inner node always directly follows its parent. Inner nodes are
+ * traversed front to back by visiting the child lying nearer along this axis
+ * first. The unbounded objects of the compiled hierarchy are kept out of the
+ * nodes and tested by every ray.
+ */
+public class LinearBVH extends Accelerator {
+
+	private final float[] bounds;
+	private final int[] nodes;
+	private final Obj[] prims, unbounded;
+	private final int depth;
+	private final BBox bbox;
+
+	/**
+	 * Compiles the given bounding volume hierarchy
+	 *
+	 * @param bvh
+	 *            The built bounding volume hierarchy
+	 * @throws IllegalArgumentException
+	 *             If the bvh is null or one of its inner nodes does not have
+	 *             exactly two children
+	 * @throws IllegalStateException
+	 *             If the bvh has not been built yet
+	 */
+	public LinearBVH(final BVHBase bvh) {
+		if (bvh == null)
+			throw new IllegalArgumentException("BVH is null.");
+		if (bvh.getNodes().isEmpty() && !bvh.getObjects().isEmpty())
+			throw new IllegalStateException("BVH has not been built.");
+
+		final int count = count(bvh);
+		this.bounds = new float[6 * count];
+		this.nodes = new int[2 * count];
+		this.bbox = bvh.bbox();
+
+		final List<Obj> prims = new ArrayList<>();
+		this.depth = bvh.getObjects().isEmpty() ? 0 : flatten(bvh, 0, prims, 1);
+		this.prims = prims.toArray(new Obj[prims.size()]);
+		this.unbounded = bvh.getUnbounded().toArray(new Obj[bvh.getUnbounded().size()]);
+	}
+
+	private static int count(final BVHBase bvh) {
+		if (bvh.isLeaf())
+			return 1;
+		if (bvh.getNodes().size() != 2)
+			throw new IllegalArgumentException("Inner BVH nodes must have exactly two children.");
+		int res = 1;
+		for (final Obj node : bvh.getNodes())
+			res += count((BVHBase) node);
+		return res;
+	}
+
+	/**
+	 * Writes the given node and its subtree starting at the given index
+	 *
+	 * @return The depth of the written subtree
+	 */
+	private int flatten(final BVHBase bvh, final int index, final List<Obj> prims, final int level) {
+		final BBox box = index == 0 ? boundedBox(bvh) : bvh.bbox();
+		final Point min = box.getMin(), max = box.getMax();
+		for (int d = 0; d < 3; d++) {
+			bounds[6 * index + d] = min.get(d);
+			bounds[6 * index + d + 3] = max.get(d);
+		}
+
+		if (bvh.isLeaf()) {
+			nodes[2 * index] = prims.size();
+			nodes[2 * index + 1] = bvh.getNodes().size();
+			prims.addAll(bvh.getNodes());
+			return level;
+		}
+
+		BVHBase first = (BVHBase) bvh.getNodes().get(0);
+		BVHBase second = (BVHBase) bvh.getNodes().get(1);
+		final int axis = axis(first.bbox(), second.bbox());
+		if (center(second.bbox(), axis) < center(first.bbox(), axis)) {
+			final BVHBase tmp = first;
+			first = second;
+			second = tmp;
+		}
+		final int secondIndex = index + 1 + count(first);
+		nodes[2 * index] = secondIndex;
+		nodes[2 * index + 1] = -1 - axis;
+		final int a = flatten(first, index + 1, prims, level + 1);
+		final int b = flatten(second, secondIndex, prims, level + 1);
+		return Math.max(a, b);
+	}
+
+	/**
+	 * Returns the bounding box of the objects of the hierarchy, which unlike
+	 * the bounding box of the root does not include its unbounded objects
+	 */
+	private static BBox boundedBox(final BVHBase bvh) {
+		if (bvh.getUnbounded().isEmpty())
+			return bvh.bbox();
+		BBox res = BBox.EMPTY;
+		for (final Obj object : bvh.getObjects())
+			res = BBox.surround(res, object.bbox());
+		return res;
+	}
+
+	/**
+	 * Returns the dimension in which the centers of the given boxes are
+	 * farthest apart
+	 */
+	private static int axis(final BBox a, final BBox b) {
+		int res = 0;
+		float max = -1;
+		for (int d = 0; d < 3; d++) {
+			final float dist = Math.abs(center(a, d) - center(b, d));
+			if (dist > max) {
+				max = dist;
+				res = d;
+			}
+		}
+		return res;
+	}
+
+	private static float center(final BBox box, final int dim) {
+		return 0.5f * (box.getMin().get(dim) + box.getMax().get(dim));
+	}
+
+	/**
+	 * Returns the bounding box of the compiled hierarchy
+	 */
+	@Override
+	public BBox bbox() {
+		return bbox;
+	}
+
+	/**
+	 * Throws an UnsupportedOperationException since the compiled hierarchy is
+	 * immutable
+	 */
+	@Override
+	public void add(final Obj prim) {
+		throw new UnsupportedOperationException("A compiled BVH is immutable.");
+	}
+
+	/**
+	 * Computes a hit point with the given parameters
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The computed hit
+	 */
+	@Override
+	public Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		return nearestHit(ray, obj, tmin, tmax);
+	}
+
+	/**
+	 * Records the nearest hit within the hierarchy
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far
+	 * @return True if a closer hit has been recorded
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		boolean found = false;
+		for (final Obj p : unbounded)
+			found |= p.intersect(ray, p, tmin, record);
+		if (prims.length == 0)
+			return found;
+
+		final Point base = ray.base();
+		final Vec3 dir = ray.dir(), invDir = ray.invDir();
+		final float ox = base.x(), oy = base.y(), oz = base.z();
+		final float ix = invDir.x(), iy = invDir.y(), iz = invDir.z();
+		final int nx = dir.isNeg(0) * 3, ny = dir.isNeg(1) * 3, nz = dir.isNeg(2) * 3;
+
+		final int[] stack = record.acquireStack(depth);
+		try {
+			int sp = 0;
+			int node = 0;
+			int visits = 0;
+			while (true) {
+				visits++;
+				if (!Float.isNaN(entry(node, ox, oy, oz, ix, iy, iz, nx, ny, nz, tmin, record.t))) {
+					final int ofs = nodes[2 * node];
+					final int n = nodes[2 * node + 1];
+					if (n < 0) {
+						// visit the nearer child first, the other one is rejected
+						// later on if it lies behind the hits found until then
+						if ((n == -1 ? nx : n == -2 ? ny : nz) != 0) {
+							stack[sp++] = node + 1;
+							node = ofs;
+						} else {
+							stack[sp++] = ofs;
+							node++;
+						}
+						continue;
+					}
+					for (int i = ofs; i < ofs + n; i++) {
+						final Obj p = prims[i];
+						found |= p.intersect(ray, p, tmin, record);
+					}
+				}
+				if (sp == 0)
+					break;
+				node = stack[--sp];
+			}
+			if (RenderStats.ENABLED)
+				RenderStats.add(RenderStats.Counter.NODE_VISITS, visits);
+			return found;
+		} finally {
+			record.releaseStack();
+		}
+	}
+
+	/**
+	 * Checks whether any object blocks the given ray, stopping at the first
+	 * blocker found
+	 *
+	 * @param ray
+	 *            The ray to check
+	 * @param maxDist
+	 *            The maximum distance
+	 * @return True if the ray is blocked within the given distance
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		for (final Obj p : unbounded)
+			if (p.occluded(ray, maxDist))
+				return true;
+		if (prims.length == 0)
+			return false;
+
+		final Point base = ray.base();
+		final Vec3 dir = ray.dir(), invDir = ray.invDir();
+		final float ox = base.x(), oy = base.y(), oz = base.z();
+		final float ix = invDir.x(), iy = invDir.y(), iz = invDir.z();
+		final int nx = dir.isNeg(0) * 3, ny = dir.isNeg(1) * 3, nz = dir.isNeg(2) * 3;
+
+		final HitRecord record = HitRecord.acquire(maxDist);
+		int visits = 0;
+		try {
+			final int[] stack = record.acquireStack(depth);
+			int sp = 0;
+			int node = 0;
+			while (true) {
+				visits++;
+				if (!Float.isNaN(entry(node, ox, oy, oz, ix, iy, iz, nx, ny, nz, 0, maxDist))) {
+					final int ofs = nodes[2 * node];
+					final int n = nodes[2 * node + 1];
+					if (n < 0) {
+						if ((n == -1 ? nx : n == -2 ? ny : nz) != 0) {
+							stack[sp++] = node + 1;
+							node = ofs;
+						} else {
+							stack[sp++] = ofs;
+							node++;
+						}
+						continue;
+					}
+					for (int i = ofs; i < ofs + n; i++)
+						if (prims[i].occluded(ray, maxDist))
+							return true;
+				}
+				if (sp == 0)
+					return false;
+				node = stack[--sp];
+			}
+		} finally {
+			if (RenderStats.ENABLED)
+				RenderStats.add(RenderStats.Counter.NODE_VISITS, visits);
+			record.release();
+		}
+	}
+
+	/**
+	 * Performs the slab test of {@link BBox#entry} on the bounds of the given
+	 * node
+	 *
+	 * @return The entry distance or Float.NaN if the node is missed
+	 */
+	private float entry(final int node, final float ox, final float oy, final float oz, final float ix,
+			final float iy, final float iz, final int nx, final int ny, final int nz, float tmin, float tmax) {
+		final int b = 6 * node;
+
+		float t0 = (bounds[b + nx] - ox) * ix;
+		float t1 = (bounds[b + 3 - nx] - ox) * ix;
+		if (t0 > tmin)
+			tmin = t0;
+		if (t1 < tmax)
+			tmax = t1;
+		if (tmin > tmax)
+			return Float.NaN;
+
+		t0 = (bounds[b + 1 + ny] - oy) * iy;
+		t1 = (bounds[b + 4 - ny] - oy) * iy;
+		if (t0 > tmin)
+			tmin = t0;
+		if (t1 < tmax)
+			tmax = t1;
+		if (tmin > tmax)
+			return Float.NaN;
+
+		t0 = (bounds[b + 2 + nz] - oz) * iz;
+		t1 = (bounds[b + 5 - nz] - oz) * iz;
+		if (t0 > tmin)
+			tmin = t0;
+		if (t1 < tmax)
+			tmax = t1;
+		return tmin > tmax ? Float.NaN : tmin;
+	}
+
+}
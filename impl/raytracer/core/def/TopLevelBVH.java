@@ -0,0 +1,154 @@
+package raytracer.core.def;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.geom.BBox;
+import raytracer.math.Ray;
+
+/**
+ * Represents the top level of a two-level acceleration structure: a bounding
+ * volume hierarchy over whole objects, each of which keeps its own bottom-level
+ * structure, like a {@link raytracer.geom.TriangleMesh}, a built {@link BVH} or
+ * an {@link InstancedObj} of one. The top level only depends on the number of
+ * objects, not on the number of their primitives, so it is cheap to rebuild
+ * when objects have been moved. Unbounded objects like a ground plane are
+ * kept out of the hierarchy, see {@link BVH#add}.
+ */
+public class TopLevelBVH extends Accelerator {
+
+	/**
+	 * The estimated cost of intersecting an object of the top level relative
+	 * to traversing a node, so that the top level is split down to about one
+	 * object per leaf
+	 */
+	public static final float OBJECT_COST = 16.0f;
+
+	/**
+	 * The factor by which the cost of a sub-BVH may grow by moving objects
+	 * before {@link #update()} rebuilds it
+	 */
+	public static final float REBUILD_THRESHOLD = 1.25f;
+
+	private final List<Obj> objects = new ArrayList<>();
+	private BVH bvh = new BVH(BinnedSAH.DEFAULT_BINS, OBJECT_COST);
+	private boolean built;
+
+	/**
+	 * Adds an object to the top level. The object must be complete, for
+	 * example a BVH must be built, and the top level must be built again
+	 * afterwards.
+	 *
+	 * @param prim
+	 *            The object to add
+	 */
+	@Override
+	public void add(final Obj prim) {
+		objects.add(prim);
+		bvh.add(prim);
+		built = false;
+	}
+
+	/**
+	 * Returns the objects of the top level
+	 *
+	 * @return The objects of the top level
+	 */
+	public List<Obj> getObjects() {
+		return objects;
+	}
+
+	/**
+	 * Builds the top level over the current bounding boxes of its objects
+	 */
+	public void build() {
+		final BVH res = new BVH(BinnedSAH.DEFAULT_BINS, OBJECT_COST);
+		for (final Obj object : objects)
+			res.add(object);
+		res.buildBVH();
+		bvh = res;
+		built = true;
+	}
+
+	/**
+	 * Updates the top level after objects have been moved, for example by
+	 * {@link InstancedObj#setTransform}, by refitting it and rebuilding the
+	 * parts which degraded too much. The bottom-level structures of the
+	 * objects are left untouched.
+	 *
+	 * @return The number of rebuilt parts of the top level
+	 * @throws IllegalStateException
+	 *             If the top level has not been built
+	 */
+	public int update() {
+		checkBuilt();
+		return bvh.update(REBUILD_THRESHOLD);
+	}
+
+	private void checkBuilt() {
+		if (!built)
+			throw new IllegalStateException("Top-level BVH has not been built.");
+	}
+
+	@Override
+	public BBox bbox() {
+		return bvh.bbox();
+	}
+
+	/**
+	 * Computes a hit point with the given parameters
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The computed hit
+	 * @throws IllegalStateException
+	 *             If the top level has not been built
+	 */
+	@Override
+	public Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		return nearestHit(ray, obj, tmin, tmax);
+	}
+
+	/**
+	 * Records the nearest hit of all objects
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far
+	 * @return True if a closer hit has been recorded
+	 * @throws IllegalStateException
+	 *             If the top level has not been built
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		checkBuilt();
+		return bvh.intersect(ray, obj, tmin, record);
+	}
+
+	/**
+	 * Checks whether any object blocks the given ray
+	 *
+	 * @throws IllegalStateException
+	 *             If the top level has not been built
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		checkBuilt();
+		return bvh.occluded(ray, maxDist);
+	}
+
+}
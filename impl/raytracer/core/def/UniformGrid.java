@@ -0,0 +1,436 @@
+package raytracer.core.def;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.core.RenderStats;
+import raytracer.geom.BBox;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec3;
+
+/**
+ * Represents a uniform grid over the bounding box of its objects. Every cell
+ * lists the objects whose bounding boxes overlap it, and rays walk through the
+ * cells they pierce in front-to-back order by a 3D digital differential
+ * analyzer, stopping at the first cell containing a hit. Objects spanning
+ * several cells are tested only once per ray by stamping them with the number
+ * of the current ray (mailboxing).
+ *
+ * The cells are stored in flat arrays: the indices of the objects of cell i
+ * are cells[refs[i]..refs[i + 1] - 1], where i = (z * ny + y) * nx + x. Building
+ * the grid takes two passes over the objects, one counting and one filling the
+ * cells, so it is linear in the number of cell references and usually much
+ * faster than building a {@link BVH}. Grids trace best for objects of similar
+ * size which are evenly distributed, like particles. Unbounded objects like a
+ * ground plane are kept out of the grid and tested by every ray.
+ */
+public class UniformGrid extends Accelerator {
+
+	/**
+	 * The number of cells per object the resolution is chosen for
+	 */
+	public static final float DENSITY = 4.0f;
+
+	/**
+	 * The maximum number of cells along an axis
+	 */
+	public static final int MAX_RESOLUTION = 256;
+
+	private final List<Obj> objects = new ArrayList<>();
+	private final List<Obj> unbounded = new ArrayList<>();
+	private BBox bbox = BBox.EMPTY;
+
+	private Obj[] prims, unboundedPrims;
+	private int[] refs, cells;
+	private final int[] res = new int[3];
+	private final float[] min = new float[3], cellSize = new float[3], invCellSize = new float[3];
+	private boolean built;
+
+	/**
+	 * The per-thread stamps of the objects, holding the number of the last ray
+	 * which tested them, together with the walk through the cells reused by
+	 * the rays of the thread
+	 */
+	private final class Mailbox {
+		private final int[] stamps;
+		private final Walk walk = new Walk();
+		private int ray;
+
+		Mailbox(final int size) {
+			stamps = new int[size];
+		}
+
+		/**
+		 * Starts a new ray, clearing the stamps when the ray numbers wrap
+		 */
+		int next() {
+			if (++ray == 0) {
+				Arrays.fill(stamps, 0);
+				ray = 1;
+			}
+			return ray;
+		}
+	}
+
+	private ThreadLocal<Mailbox> mailbox;
+
+	/**
+	 * Adds an object to the grid. Objects without a finite bounding box, like
+	 * planes, are kept in a separate list which is tested by every ray. The
+	 * grid must be built again afterwards.
+	 *
+	 * @param prim
+	 *            The object to add
+	 */
+	@Override
+	public void add(final Obj prim) {
+		final BBox box = prim.bbox();
+		if (!box.isFinite()) {
+			unbounded.add(prim);
+		} else {
+			objects.add(prim);
+			bbox = BBox.surround(bbox, box);
+		}
+		built = false;
+	}
+
+	/**
+	 * Returns the objects in the cells of the grid
+	 *
+	 * @return The bounded objects
+	 */
+	public List<Obj> getObjects() {
+		return objects;
+	}
+
+	/**
+	 * Returns the objects kept out of the cells since they are unbounded
+	 *
+	 * @return The unbounded objects
+	 */
+	public List<Obj> getUnbounded() {
+		return unbounded;
+	}
+
+	/**
+	 * Returns the number of cells along the given axis
+	 *
+	 * @param dim
+	 *            The axis
+	 * @return The number of cells
+	 * @throws IllegalStateException
+	 *             If the grid has not been built
+	 */
+	public int getResolution(final int dim) {
+		checkBuilt();
+		return res[dim];
+	}
+
+	/**
+	 * Builds the grid over the current objects. The resolution is chosen so
+	 * that the cells are as cubic as possible and their number is about
+	 * {@link #DENSITY} times the number of objects.
+	 */
+	public void build() {
+		prims = objects.toArray(new Obj[objects.size()]);
+		unboundedPrims = unbounded.toArray(new Obj[unbounded.size()]);
+		chooseResolution();
+
+		final int count = res[0] * res[1] * res[2];
+		final int[] ranges = new int[6 * prims.length];
+		refs = new int[count + 1];
+		for (int i = 0; i < prims.length; i++) {
+			final BBox box = prims[i].bbox();
+			for (int d = 0; d < 3; d++) {
+				ranges[6 * i + d] = cellOf(box.getMin().get(d), d);
+				ranges[6 * i + d + 3] = cellOf(box.getMax().get(d), d);
+			}
+			final int o = 6 * i;
+			for (int z = ranges[o + 2]; z <= ranges[o + 5]; z++)
+				for (int y = ranges[o + 1]; y <= ranges[o + 4]; y++)
+					for (int x = ranges[o]; x <= ranges[o + 3]; x++)
+						refs[(z * res[1] + y) * res[0] + x + 1]++;
+		}
+		for (int i = 0; i < count; i++)
+			refs[i + 1] += refs[i];
+
+		cells = new int[refs[count]];
+		final int[] fill = Arrays.copyOf(refs, count);
+		for (int i = 0; i < prims.length; i++) {
+			final int o = 6 * i;
+			for (int z = ranges[o + 2]; z <= ranges[o + 5]; z++)
+				for (int y = ranges[o + 1]; y <= ranges[o + 4]; y++)
+					for (int x = ranges[o]; x <= ranges[o + 3]; x++)
+						cells[fill[(z * res[1] + y) * res[0] + x]++] = i;
+		}
+
+		final int size = prims.length;
+		mailbox = new ThreadLocal<Mailbox>() {
+			@Override
+			protected Mailbox initialValue() {
+				return new Mailbox(size);
+			}
+		};
+		built = true;
+	}
+
+	/**
+	 * Chooses the number of cells along each axis from the number of objects
+	 * and the extent of their bounding box
+	 */
+	private void chooseResolution() {
+		if (prims.length == 0) {
+			Arrays.fill(res, 1);
+			Arrays.fill(min, 0);
+			Arrays.fill(cellSize, 1);
+			Arrays.fill(invCellSize, 1);
+			return;
+		}
+
+		final float[] extent = new float[3];
+		float maxExtent = 0;
+		for (int d = 0; d < 3; d++) {
+			min[d] = bbox.getMin().get(d);
+			extent[d] = bbox.getMax().get(d) - min[d];
+			maxExtent = Math.max(maxExtent, extent[d]);
+		}
+
+		// flat extents are widened to a thin slab, so the volume of flat
+		// scenes does not vanish
+		final float thin = maxExtent / MAX_RESOLUTION;
+		double volume = 1;
+		for (int d = 0; d < 3; d++)
+			volume *= Math.max(extent[d], thin);
+		final double cellsPerUnit = volume > 0 ? Math.cbrt(DENSITY * prims.length / volume) : 0;
+
+		for (int d = 0; d < 3; d++) {
+			res[d] = (int) Math.max(1, Math.min(MAX_RESOLUTION, Math.round(extent[d] * cellsPerUnit)));
+			cellSize[d] = extent[d] > 0 ? extent[d] / res[d] : 1;
+			invCellSize[d] = 1 / cellSize[d];
+		}
+	}
+
+	/**
+	 * Returns the cell along the given axis containing the given coordinate,
+	 * clamped to the grid
+	 */
+	private int cellOf(final float coord, final int dim) {
+		final int c = (int) ((coord - min[dim]) * invCellSize[dim]);
+		return c < 0 ? 0 : c >= res[dim] ? res[dim] - 1 : c;
+	}
+
+	private void checkBuilt() {
+		if (!built)
+			throw new IllegalStateException("Grid has not been built.");
+	}
+
+	/**
+	 * Returns the bounding box of the grid, which is infinite if it contains
+	 * unbounded objects
+	 */
+	@Override
+	public BBox bbox() {
+		return unbounded.isEmpty() ? bbox : BBox.INF;
+	}
+
+	/**
+	 * Computes a hit point with the given parameters
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The computed hit
+	 * @throws IllegalStateException
+	 *             If the grid has not been built
+	 */
+	@Override
+	public Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		return nearestHit(ray, obj, tmin, tmax);
+	}
+
+	/**
+	 * Records the nearest hit within the grid. The cells are visited front to
+	 * back until the nearest hit so far lies within the current cell, since no
+	 * object of a later cell can be hit before it.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far
+	 * @return True if a closer hit has been recorded
+	 * @throws IllegalStateException
+	 *             If the grid has not been built
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		checkBuilt();
+		boolean found = false;
+		for (final Obj p : unboundedPrims)
+			found |= p.intersect(ray, p, tmin, record);
+		if (prims.length == 0)
+			return found;
+
+		final float t0 = bbox.entry(ray, tmin, record.t);
+		if (Float.isNaN(t0))
+			return found;
+
+		final Mailbox box = mailbox.get();
+		final int[] stamps = box.stamps;
+		final int stamp = box.next();
+		final Walk walk = box.walk.start(ray, t0);
+		int visits = 0;
+		do {
+			visits++;
+			final int cell = walk.cell();
+			for (int i = refs[cell]; i < refs[cell + 1]; i++) {
+				final int id = cells[i];
+				if (stamps[id] != stamp) {
+					stamps[id] = stamp;
+					final Obj p = prims[id];
+					found |= p.intersect(ray, p, tmin, record);
+				}
+			}
+		} while (walk.exit() < record.t && walk.step());
+		if (RenderStats.ENABLED)
+			RenderStats.add(RenderStats.Counter.NODE_VISITS, visits);
+		return found;
+	}
+
+	/**
+	 * Checks whether any object blocks the given ray, stopping at the first
+	 * blocker found
+	 *
+	 * @param ray
+	 *            The ray to check
+	 * @param maxDist
+	 *            The maximum distance
+	 * @return True if the ray is blocked within the given distance
+	 * @throws IllegalStateException
+	 *             If the grid has not been built
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		checkBuilt();
+		for (final Obj p : unboundedPrims)
+			if (p.occluded(ray, maxDist))
+				return true;
+		if (prims.length == 0)
+			return false;
+
+		final float t0 = bbox.entry(ray, 0, maxDist);
+		if (Float.isNaN(t0))
+			return false;
+
+		final Mailbox box = mailbox.get();
+		final int[] stamps = box.stamps;
+		final int stamp = box.next();
+		final Walk walk = box.walk.start(ray, t0);
+		int visits = 0;
+		try {
+			do {
+				visits++;
+				final int cell = walk.cell();
+				for (int i = refs[cell]; i < refs[cell + 1]; i++) {
+					final int id = cells[i];
+					if (stamps[id] != stamp) {
+						stamps[id] = stamp;
+						if (prims[id].occluded(ray, maxDist))
+							return true;
+					}
+				}
+			} while (walk.exit() < maxDist && walk.step());
+			return false;
+		} finally {
+			if (RenderStats.ENABLED)
+				RenderStats.add(RenderStats.Counter.NODE_VISITS, visits);
+		}
+	}
+
+	/**
+	 * Walks a ray through the cells of the grid by a 3D digital differential
+	 * analyzer
+	 */
+	private final class Walk {
+
+		private final int[] pos = new int[3], step = new int[3], out = new int[3];
+		private final float[] next = new float[3], delta = new float[3];
+
+		/**
+		 * Starts the walk in the cell containing the point at which the ray
+		 * enters the grid
+		 *
+		 * @return This walk
+		 */
+		Walk start(final Ray ray, final float t0) {
+			final Point base = ray.base();
+			final Vec3 dir = ray.dir();
+			for (int d = 0; d < 3; d++) {
+				final float o = base.get(d), v = dir.get(d);
+				pos[d] = cellOf(o + v * t0, d);
+				if (v > 0) {
+					step[d] = 1;
+					out[d] = res[d];
+					next[d] = (min[d] + (pos[d] + 1) * cellSize[d] - o) / v;
+					delta[d] = cellSize[d] / v;
+				} else if (v < 0) {
+					step[d] = -1;
+					out[d] = -1;
+					next[d] = (min[d] + pos[d] * cellSize[d] - o) / v;
+					delta[d] = -cellSize[d] / v;
+				} else {
+					step[d] = 0;
+					out[d] = -1;
+					next[d] = Float.POSITIVE_INFINITY;
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Returns the index of the current cell
+		 */
+		int cell() {
+			return (pos[2] * res[1] + pos[1]) * res[0] + pos[0];
+		}
+
+		private int axis() {
+			return next[0] < next[1] ? (next[0] < next[2] ? 0 : 2) : (next[1] < next[2] ? 1 : 2);
+		}
+
+		/**
+		 * Returns the distance at which the ray leaves the current cell
+		 */
+		float exit() {
+			return next[axis()];
+		}
+
+		/**
+		 * Steps into the next cell
+		 *
+		 * @return False if the ray has left the grid
+		 */
+		boolean step() {
+			final int d = axis();
+			pos[d] += step[d];
+			if (pos[d] == out[d])
+				return false;
+			next[d] += delta[d];
+			return true;
+		}
+	}
+
+}
@@ -56,4 +56,16 @@ public final class GeomFactory {
 	public static Triangle createTriangle(final Point a, final Point b, final Point c) {
 		return new Triangle(a, b, c);
 	}
+
+	/**
+	 * Generates a triangle mesh from the given vertex positions and faces. The
+	 * given arrays are used directly and must not be modified afterwards.
+	 *
+	 * @param positions  The vertex positions {x0, y0, z0, x1, ...}
+	 * @param faces      The three vertex indices of each face
+	 * @return           The new triangle mesh
+	 */
+	public static TriangleMesh createTriangleMesh(final float[] positions, final int[] faces) {
+		return new TriangleMesh(positions, faces);
+	}
 }
@@ -1,44 +1,68 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
-import raytracer.core.def.LazyHitTest;
+import raytracer.core.RenderStats;
 import raytracer.math.*;
 
 public class Plane extends BBoxedPrimitive {
 
     private final Point m;
     private final Vec3 n;
+    private final float nx, ny, nz, d;
 
     public Plane(Point a, Point b, Point c) {
-        this.m = a;
-        this.n = c.sub(a).cross(b.sub(a)).normalized();
+        this(c.sub(a).cross(b.sub(a)), a);
     }
 
     public Plane(Vec3 n, Point supp) {
         this.m = supp;
         this.n = n.normalized();
+        this.nx = this.n.x();
+        this.ny = this.n.y();
+        this.nz = this.n.z();
+        this.d = m.dot(this.n);
     }
 
     @Override
     public Hit hitTest(Ray ray, Obj object, float tmin, float tmax) {
-        return new LazyHitTest(object) {
-            private Point point = null;
-            private float r;
+        return recordedHit(ray, object, tmin, tmax);
+    }
 
-            @Override
-            protected boolean calculateHit() {
-                final Vec3 dir = ray.dir();
+    @Override
+    protected boolean intersectTest(Ray ray, Obj object, float tmin, HitRecord record) {
+        if (RenderStats.ENABLED)
+            RenderStats.count(RenderStats.Counter.PRIMITIVE_TESTS);
+        final Vec3 dir = ray.dir();
+        final Point base = ray.base();
+        final float dn = dir.x() * nx + dir.y() * ny + dir.z() * nz;
+
+        if(Constants.isZero(dn))
+            return false;
 
-                if(Constants.isZero(dir.dot(n)))
-                    return false;
+        float r = (d - (base.x() * nx + base.y() * ny + base.z() * nz))/dn;
 
-                float d = m.dot(n),
-                      l = (d - ray.base().dot(n))/dir.dot(n);
+        if(r < Constants.EPS || r < tmin || !(r < record.t))
+            return false;
 
-                r = l;
+        record.set(r, 0, 0, -1, object, this);
+        if (RenderStats.ENABLED)
+            RenderStats.count(RenderStats.Counter.PRIMITIVE_HITS);
+        return true;
+    }
 
-                return r >= Constants.EPS;
+    @Override
+    public Hit toHit(Ray ray, HitRecord record) {
+        final Obj object = record.getObj();
+        final float r = record.t;
+
+        return new Hit() {
+            private Point point = null;
+
+            @Override
+            public boolean hits() {
+                return true;
             }
 
             @Override
@@ -63,6 +87,11 @@ public class Plane extends BBoxedPrimitive {
             public Vec2 getUV() {
                 return Util.computePlaneUV(n, m, getPoint());
             }
+
+            @Override
+            public Obj get() {
+                return object;
+            }
         };
     }
 
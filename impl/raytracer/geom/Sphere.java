@@ -1,41 +1,71 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
-import raytracer.core.def.LazyHitTest;
+import raytracer.core.RenderStats;
 import raytracer.math.*;
 
 public class Sphere extends BBoxedPrimitive {
 
     private final Point m;
     private final float rad;
+    private final float mx, my, mz, radSquared;
 
     public Sphere(Point m, float r) {
         super(BBox.create(m.add(new Vec3(r, r ,r)), m.sub(new Vec3(r, r ,r))));
         this.m = m;
         this.rad = r;
+        this.mx = m.x();
+        this.my = m.y();
+        this.mz = m.z();
+        this.radSquared = r * r;
     }
 
     @Override
     public Hit hitTest(Ray ray, Obj object, float tmin, float tmax) {
-        return new LazyHitTest(object) {
-            private Point point;
-            private float r;
+        return recordedHit(ray, object, tmin, tmax);
+    }
 
-            @Override
-            protected boolean calculateHit() {
-                Vec3 dir = ray.dir(),
-                     mBase = ray.base().sub(m);
+    @Override
+    protected boolean intersectTest(Ray ray, Obj object, float tmin, HitRecord record) {
+        if (RenderStats.ENABLED)
+            RenderStats.count(RenderStats.Counter.PRIMITIVE_TESTS);
+        final Vec3 dir = ray.dir();
+        final Point base = ray.base();
+        final float bx = base.x() - mx,
+                    by = base.y() - my,
+                    bz = base.z() - mz;
+
+        float b = 2 * (dir.x() * bx + dir.y() * by + dir.z() * bz);
+        float c = (bx * bx + by * by + bz * bz) - radSquared;
+        double discriminant = (double) b * b - 4 * c;
+
+        if(discriminant < 0)
+            return false;
 
-                float b = 2 * dir.dot(mBase);
-                float c = mBase.dot(mBase) - (float) Math.pow(rad, 2);
+        float r = (-1 * b - (float) Math.sqrt(discriminant))/2;
 
-                if(Math.pow(b, 2) - 4 * c < 0)
-                    return false;
+        if(r < Constants.EPS || r < tmin || !(r < record.t))
+            return false;
 
-                r = (-1 * b - (float) Math.sqrt(Math.pow(b, 2) - 4 * c))/2;
+        record.set(r, 0, 0, -1, object, this);
+        if (RenderStats.ENABLED)
+            RenderStats.count(RenderStats.Counter.PRIMITIVE_HITS);
+        return true;
+    }
 
-                return r >= Constants.EPS;
+    @Override
+    public Hit toHit(Ray ray, HitRecord record) {
+        final Obj object = record.getObj();
+        final float r = record.t;
+
+        return new Hit() {
+            private Point point;
+
+            @Override
+            public boolean hits() {
+                return true;
             }
 
             @Override
@@ -60,6 +90,11 @@ public class Sphere extends BBoxedPrimitive {
             public Vec2 getUV() {
                 return Util.computeSphereUV(getPoint().sub(m));
             }
+
+            @Override
+            public Obj get() {
+                return object;
+            }
         };
     }
 
@@ -0,0 +1,563 @@
+package raytracer.geom;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.core.RenderStats;
+import raytracer.core.def.BinnedSAH;
+import raytracer.math.Constants;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Vec2;
+import raytracer.math.Vec3;
+
+/**
+ * Represents a mesh of triangles sharing a common vertex buffer. The vertex
+ * positions are stored as {x0, y0, z0, x1, ...} and each face as three vertex
+ * indices. The faces are organized in an internal bounding volume hierarchy
+ * which uses the same flat layout as {@link raytracer.core.def.LinearBVH}.
+ */
+public class TriangleMesh extends BBoxedPrimitive {
+
+	private final float[] positions;
+	private final int[] faces;
+
+	// the internal hierarchy over the faces
+	private final float[] bounds;
+	private final int[] nodes;
+	private final int[] order;
+	private final int depth;
+
+	/**
+	 * Creates a new triangle mesh. The given arrays are used directly and must
+	 * not be modified afterwards.
+	 *
+	 * @param positions
+	 *            The vertex positions
+	 * @param faces
+	 *            The vertex indices of the faces
+	 * @throws IllegalArgumentException
+	 *             If one of the arrays is null, their lengths are not
+	 *             multiples of three or a face references a non-existing
+	 *             vertex
+	 */
+	public TriangleMesh(final float[] positions, final int[] faces) {
+		if (positions == null)
+			throw new IllegalArgumentException("Positions are null.");
+		if (faces == null)
+			throw new IllegalArgumentException("Faces are null.");
+		if (positions.length % 3 != 0)
+			throw new IllegalArgumentException("Positions must consist of three coordinates each.");
+		if (faces.length % 3 != 0)
+			throw new IllegalArgumentException("Faces must consist of three indices each.");
+		final int vertexCount = positions.length / 3;
+		for (final int index : faces)
+			if (index < 0 || index >= vertexCount)
+				throw new IllegalArgumentException("Face index out of range.");
+
+		this.positions = positions;
+		this.faces = faces;
+
+		final int faceCount = faces.length / 3;
+		final float[] faceBounds = new float[6 * faceCount];
+		for (int f = 0; f < faceCount; f++)
+			computeBounds(f, faceBounds, 6 * f);
+
+		this.order = new int[faceCount];
+		for (int f = 0; f < faceCount; f++)
+			order[f] = f;
+
+		final Builder builder = new Builder(faceBounds, faceCount);
+		this.depth = faceCount == 0 ? 0 : builder.build(0, faceCount, 1);
+		this.bounds = Arrays.copyOf(builder.bounds, 6 * builder.count);
+		this.nodes = Arrays.copyOf(builder.nodes, 2 * builder.count);
+		setBBox();
+	}
+
+	/**
+	 * Creates a triangle mesh from an already built hierarchy
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the hierarchy does not fit the faces
+	 */
+	private TriangleMesh(final float[] positions, final int[] faces, final int[] order, final float[] bounds,
+			final int[] nodes) {
+		final int vertexCount = positions.length / 3, faceCount = order.length, nodeCount = nodes.length / 2;
+		if (faces.length != 3 * faceCount || bounds.length != 6 * nodeCount || (nodeCount == 0) != (faceCount == 0))
+			throw new IllegalArgumentException("Inconsistent mesh data.");
+		for (final int index : faces)
+			if (index < 0 || index >= vertexCount)
+				throw new IllegalArgumentException("Face index out of range.");
+		for (final int face : order)
+			if (face < 0 || face >= faceCount)
+				throw new IllegalArgumentException("Face order out of range.");
+
+		// children always follow their parent, so the levels are known once a
+		// node is reached
+		final int[] levels = new int[nodeCount];
+		int depth = 0;
+		for (int i = 0; i < nodeCount; i++) {
+			final int ofs = nodes[2 * i], n = nodes[2 * i + 1];
+			levels[i] = Math.max(levels[i], 1);
+			depth = Math.max(depth, levels[i]);
+			if (n >= 0) {
+				if (ofs < 0 || n > faceCount - ofs)
+					throw new IllegalArgumentException("Leaf out of range.");
+			} else {
+				if (n < -3 || ofs <= i + 1 || ofs >= nodeCount)
+					throw new IllegalArgumentException("Inner node out of range.");
+				levels[i + 1] = levels[ofs] = levels[i] + 1;
+			}
+		}
+
+		this.positions = positions;
+		this.faces = faces;
+		this.order = order;
+		this.bounds = bounds;
+		this.nodes = nodes;
+		this.depth = depth;
+		setBBox();
+	}
+
+	private void setBBox() {
+		if (nodes.length > 0)
+			setBBox(BBox.create(new Point(bounds[0], bounds[1], bounds[2]), new Point(bounds[3], bounds[4], bounds[5])));
+		else
+			setBBox(BBox.EMPTY);
+	}
+
+	/**
+	 * Returns the number of bytes written by {@link #writeTo}
+	 *
+	 * @return The size of the mesh data in bytes
+	 */
+	public long getDataSize() {
+		return 4L * (3 + positions.length + faces.length + order.length + bounds.length + nodes.length);
+	}
+
+	/**
+	 * Writes the vertices, faces and the built hierarchy of the mesh to the
+	 * given buffer using its byte order
+	 *
+	 * @param buf
+	 *            The buffer to write to, which is advanced past the data
+	 */
+	public void writeTo(final ByteBuffer buf) {
+		buf.putInt(positions.length / 3).putInt(order.length).putInt(nodes.length / 2);
+		buf.asFloatBuffer().put(positions);
+		buf.position(buf.position() + 4 * positions.length);
+		buf.asIntBuffer().put(faces).put(order);
+		buf.position(buf.position() + 4 * (faces.length + order.length));
+		buf.asFloatBuffer().put(bounds);
+		buf.position(buf.position() + 4 * bounds.length);
+		buf.asIntBuffer().put(nodes);
+		buf.position(buf.position() + 4 * nodes.length);
+	}
+
+	/**
+	 * Reads a mesh written by {@link #writeTo} without rebuilding its
+	 * hierarchy
+	 *
+	 * @param buf
+	 *            The buffer to read from using its byte order, which is
+	 *            advanced past the data
+	 * @return The read mesh
+	 * @throws IllegalArgumentException
+	 *             If the buffer does not contain a consistent mesh
+	 */
+	public static TriangleMesh readFrom(final ByteBuffer buf) {
+		if (buf.remaining() < 12)
+			throw new IllegalArgumentException("Mesh data is truncated.");
+		final int vertexCount = buf.getInt(), faceCount = buf.getInt(), nodeCount = buf.getInt();
+		if (vertexCount < 0 || faceCount < 0 || nodeCount < 0
+				|| 4L * (3L * vertexCount + 4L * faceCount + 8L * nodeCount) > buf.remaining())
+			throw new IllegalArgumentException("Mesh data is truncated.");
+
+		final float[] positions = new float[3 * vertexCount];
+		final int[] faces = new int[3 * faceCount];
+		final int[] order = new int[faceCount];
+		final float[] bounds = new float[6 * nodeCount];
+		final int[] nodes = new int[2 * nodeCount];
+		buf.asFloatBuffer().get(positions);
+		buf.position(buf.position() + 4 * positions.length);
+		buf.asIntBuffer().get(faces).get(order);
+		buf.position(buf.position() + 4 * (faces.length + order.length));
+		buf.asFloatBuffer().get(bounds);
+		buf.position(buf.position() + 4 * bounds.length);
+		buf.asIntBuffer().get(nodes);
+		buf.position(buf.position() + 4 * nodes.length);
+		return new TriangleMesh(positions, faces, order, bounds, nodes);
+	}
+
+	/**
+	 * Returns the number of faces
+	 *
+	 * @return The number of faces
+	 */
+	public int getFaceCount() {
+		return faces.length / 3;
+	}
+
+	/**
+	 * Returns the number of vertices
+	 *
+	 * @return The number of vertices
+	 */
+	public int getVertexCount() {
+		return positions.length / 3;
+	}
+
+	private void computeBounds(final int face, final float[] res, final int ofs) {
+		final int a = 3 * faces[3 * face], b = 3 * faces[3 * face + 1], c = 3 * faces[3 * face + 2];
+		for (int d = 0; d < 3; d++) {
+			res[ofs + d] = Math.min(positions[a + d], Math.min(positions[b + d], positions[c + d]));
+			res[ofs + d + 3] = Math.max(positions[a + d], Math.max(positions[b + d], positions[c + d]));
+		}
+	}
+
+	/**
+	 * Builds the internal hierarchy using the binned surface area heuristic
+	 */
+	private final class Builder implements BinnedSAH.Boxes {
+		private final BinnedSAH sah = new BinnedSAH(BinnedSAH.DEFAULT_BINS);
+		private final float[] faceBounds;
+		private final float[] bounds;
+		private final int[] nodes;
+		private int count;
+
+		Builder(final float[] faceBounds, final int faceCount) {
+			this.faceBounds = faceBounds;
+			final int maxNodes = Math.max(1, 2 * faceCount - 1);
+			this.bounds = new float[6 * maxNodes];
+			this.nodes = new int[2 * maxNodes];
+		}
+
+		@Override
+		public float min(final int i, final int dim) {
+			return faceBounds[6 * order[i] + dim];
+		}
+
+		@Override
+		public float max(final int i, final int dim) {
+			return faceBounds[6 * order[i] + dim + 3];
+		}
+
+		/**
+		 * Builds the node for the faces order[from..to)
+		 *
+		 * @return The depth of the built subtree
+		 */
+		int build(final int from, final int to, final int level) {
+			final int index = count++;
+			final int b = 6 * index;
+			for (int d = 0; d < 3; d++) {
+				bounds[b + d] = Float.POSITIVE_INFINITY;
+				bounds[b + d + 3] = Float.NEGATIVE_INFINITY;
+			}
+			for (int i = from; i < to; i++) {
+				for (int d = 0; d < 3; d++) {
+					bounds[b + d] = Math.min(bounds[b + d], min(i, d));
+					bounds[b + d + 3] = Math.max(bounds[b + d + 3], max(i, d));
+				}
+			}
+
+			final BinnedSAH.Split split = sah.find(this, from, to);
+			if (split != null) {
+				final int mid = partition(from, to, split.dim, split.pos);
+				if (mid != from && mid != to) {
+					nodes[2 * index + 1] = -1 - split.dim;
+					final int a = build(from, mid, level + 1);
+					nodes[2 * index] = count;
+					final int c = build(mid, to, level + 1);
+					return Math.max(a, c);
+				}
+			}
+
+			nodes[2 * index] = from;
+			nodes[2 * index + 1] = to - from;
+			return level;
+		}
+
+		private int partition(final int from, final int to, final int dim, final float pos) {
+			int i = from, j = to - 1;
+			while (i <= j) {
+				if (BinnedSAH.centroid(this, i, dim) < pos) {
+					i++;
+				} else {
+					final int tmp = order[i];
+					order[i] = order[j];
+					order[j--] = tmp;
+				}
+			}
+			return i;
+		}
+	}
+
+	/**
+	 * Computes the nearest hit of the given ray with a face of the mesh
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The computed hit
+	 */
+	@Override
+	public Hit hitTest(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		return recordedHit(ray, obj, tmin, tmax);
+	}
+
+	/**
+	 * Records the nearest hit of the given ray with a face of the mesh, using
+	 * the index of the face and its barycentric coordinates
+	 */
+	@Override
+	protected boolean intersectTest(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		return traverse(ray, obj, tmin, record, false);
+	}
+
+	@Override
+	public Hit toHit(final Ray ray, final HitRecord record) {
+		return new MeshHit(ray, record.getObj(), record.index, record.t, record.u, record.v);
+	}
+
+	/**
+	 * Checks whether any face of the mesh blocks the given ray, stopping at
+	 * the first blocker found
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.NODE_VISITS);
+		if (Float.isNaN(bbox().entry(ray, 0, maxDist)))
+			return false;
+		final HitRecord record = HitRecord.acquire(maxDist);
+		try {
+			return traverse(ray, null, 0, record, true);
+		} finally {
+			record.release();
+		}
+	}
+
+	/**
+	 * Traverses the internal hierarchy front to back
+	 *
+	 * @param any
+	 *            True if the first hit found suffices
+	 * @return True if a closer hit has been recorded
+	 */
+	private boolean traverse(final Ray ray, final Obj obj, final float tmin, final HitRecord record,
+			final boolean any) {
+		if (depth == 0)
+			return false;
+
+		final Point base = ray.base();
+		final Vec3 dir = ray.dir(), invDir = ray.invDir();
+		final float ox = base.x(), oy = base.y(), oz = base.z();
+		final float dx = dir.x(), dy = dir.y(), dz = dir.z();
+		final float ix = invDir.x(), iy = invDir.y(), iz = invDir.z();
+		final int nx = dir.isNeg(0) * 3, ny = dir.isNeg(1) * 3, nz = dir.isNeg(2) * 3;
+
+		boolean found = false;
+		final int[] stack = record.acquireStack(depth);
+		try {
+			int sp = 0;
+			int node = 0;
+			int visits = 0, tests = 0, hits = 0;
+			while (true) {
+				visits++;
+				if (hitsBox(node, ox, oy, oz, ix, iy, iz, nx, ny, nz, tmin, record.t)) {
+					final int ofs = nodes[2 * node];
+					final int n = nodes[2 * node + 1];
+					if (n < 0) {
+						if ((n == -1 ? nx : n == -2 ? ny : nz) != 0) {
+							stack[sp++] = node + 1;
+							node = ofs;
+						} else {
+							stack[sp++] = ofs;
+							node++;
+						}
+						continue;
+					}
+					for (int i = ofs; i < ofs + n; i++) {
+						tests++;
+						if (intersect(order[i], ox, oy, oz, dx, dy, dz, obj, tmin, record)) {
+							found = true;
+							hits++;
+							if (any)
+								break;
+						}
+					}
+				}
+				if (sp == 0 || (any && found))
+					break;
+				node = stack[--sp];
+			}
+			if (RenderStats.ENABLED)
+				RenderStats.traversal(visits, tests, hits);
+			return found;
+		} finally {
+			record.releaseStack();
+		}
+	}
+
+	/**
+	 * Intersects the ray with the given face using the Möller–Trumbore
+	 * algorithm
+	 *
+	 * @return True if a closer hit has been recorded
+	 */
+	private boolean intersect(final int face, final float ox, final float oy, final float oz, final float dx,
+			final float dy, final float dz, final Obj obj, final float tmin, final HitRecord record) {
+		final int a = 3 * faces[3 * face], b = 3 * faces[3 * face + 1], c = 3 * faces[3 * face + 2];
+		final float ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+		final float ux = positions[b] - ax, uy = positions[b + 1] - ay, uz = positions[b + 2] - az;
+		final float vx = positions[c] - ax, vy = positions[c + 1] - ay, vz = positions[c + 2] - az;
+
+		// pvec = dir x v
+		final float px = dy * vz - dz * vy, py = dz * vx - dx * vz, pz = dx * vy - dy * vx;
+		final float det = px * ux + py * uy + pz * uz;
+		if (Constants.isZero(det))
+			return false;
+
+		final float invDet = 1 / det;
+		final float tx = ox - ax, ty = oy - ay, tz = oz - az;
+		final float s = (tx * px + ty * py + tz * pz) * invDet;
+		if (s < 0 || s > 1)
+			return false;
+
+		// qvec = tvec x u
+		final float qx = ty * uz - tz * uy, qy = tz * ux - tx * uz, qz = tx * uy - ty * ux;
+		final float t = (dx * qx + dy * qy + dz * qz) * invDet;
+		if (t < 0 || s + t > 1)
+			return false;
+
+		final float r = (vx * qx + vy * qy + vz * qz) * invDet;
+		if (r < Constants.EPS || r < tmin || !(r < record.t))
+			return false;
+
+		record.set(r, s, t, face, obj, this);
+		return true;
+	}
+
+	private boolean hitsBox(final int node, final float ox, final float oy, final float oz, final float ix,
+			final float iy, final float iz, final int nx, final int ny, final int nz, float tmin, float tmax) {
+		final int b = 6 * node;
+		for (int d = 0; d < 3; d++) {
+			final float o = d == 0 ? ox : d == 1 ? oy : oz;
+			final float inv = d == 0 ? ix : d == 1 ? iy : iz;
+			final int neg = d == 0 ? nx : d == 1 ? ny : nz;
+			final float t0 = (bounds[b + d + neg] - o) * inv;
+			final float t1 = (bounds[b + d + 3 - neg] - o) * inv;
+			if (t0 > tmin)
+				tmin = t0;
+			if (t1 < tmax)
+				tmax = t1;
+			if (tmin > tmax)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the normal of the given face
+	 *
+	 * @param face
+	 *            The index of the face
+	 * @return The normal of the face
+	 */
+	public Vec3 getNormal(final int face) {
+		final Point a = getVertex(faces[3 * face]);
+		final Vec3 u = getVertex(faces[3 * face + 1]).sub(a);
+		final Vec3 v = getVertex(faces[3 * face + 2]).sub(a);
+		return v.cross(u).normalized();
+	}
+
+	/**
+	 * Returns the position of the given vertex
+	 *
+	 * @param vertex
+	 *            The index of the vertex
+	 * @return The position of the vertex
+	 */
+	public Point getVertex(final int vertex) {
+		return new Point(positions[3 * vertex], positions[3 * vertex + 1], positions[3 * vertex + 2]);
+	}
+
+	/**
+	 * Represents a hit with a single face of the mesh
+	 */
+	private final class MeshHit implements Hit {
+		private final Ray ray;
+		private final Obj obj;
+		private final int face;
+		private final float r, s, t;
+		private Vec3 normal = null;
+		private Point point = null;
+
+		MeshHit(final Ray ray, final Obj obj, final int face, final float r, final float s, final float t) {
+			this.ray = ray;
+			this.obj = obj;
+			this.face = face;
+			this.r = r;
+			this.s = s;
+			this.t = t;
+		}
+
+		@Override
+		public boolean hits() {
+			return true;
+		}
+
+		@Override
+		public float getParameter() {
+			return r;
+		}
+
+		@Override
+		public Point getPoint() {
+			if (point == null)
+				point = ray.eval(r).add(getNormal().scale(0.0001f));
+			return point;
+		}
+
+		@Override
+		public Vec3 getNormal() {
+			if (normal == null)
+				normal = TriangleMesh.this.getNormal(face);
+			return normal;
+		}
+
+		@Override
+		public Vec2 getUV() {
+			return new Vec2(s, t);
+		}
+
+		@Override
+		public Obj get() {
+			return obj;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(positions) ^ Arrays.hashCode(faces);
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (other instanceof TriangleMesh) {
+			final TriangleMesh cobj = (TriangleMesh) other;
+			return Arrays.equals(cobj.positions, positions) && Arrays.equals(cobj.faces, faces);
+		}
+		return false;
+	}
+
+}
@@ -5,7 +5,6 @@ import raytracer.core.LightSource;
 import raytracer.core.Shader;
 import raytracer.core.Trace;
 import raytracer.math.Color;
-import raytracer.math.Constants;
 import raytracer.math.Point;
 import raytracer.math.Vec3;
 
@@ -61,10 +60,10 @@ public class Phong implements Shader {
 
         for(LightSource lightSource : trace.getScene().getLightSources()) {
             Color cL = lightSource.getColor();
-            Vec3 v = lightSource.getLocation().sub(hitPoint).normalized();
-            Hit shadowHit = trace.spawn(hitPoint, v).getHit();
+            Vec3 toLight = lightSource.getLocation().sub(hitPoint),
+                 v = toLight.normalized();
 
-            if(!shadowHit.hits() || shadowHit.getParameter() < -1 * Constants.EPS || shadowHit.getParameter() > lightSource.getLocation().sub(hitPoint).norm()) {
+            if(!trace.occluded(hitPoint, v, toLight.norm())) {
                 dColor = dColor.add(cL.mul(cSub).scale(diffuse * Math.max(0, n.dot(v))));
                 sColor = sColor.add(cL.scale((float) (specular * Math.pow(Math.max(0, r.dot(v)), shininess))));
             }
@@ -0,0 +1,205 @@
+package raytracer.core;
+
+import java.util.Arrays;
+
+import raytracer.math.Color;
+
+/**
+ * Represents the sums of the samples of each pixel of an image. Samples are
+ * added without allocating and without clamping, and the average of a pixel is
+ * only tone mapped to a packed RGB value when it is written out, so the
+ * samples of several passes can be accumulated without losing precision.
+ *
+ * Threads adding samples concurrently must add them to disjoint pixels.
+ */
+public final class AccumulationBuffer {
+
+	private final int width, height;
+
+	// the sums of red, green and blue per pixel, row by row
+	private final float[] sums;
+	private final int[] counts;
+
+	/**
+	 * Creates a new buffer without samples
+	 *
+	 * @param width
+	 *            The width of the image
+	 * @param height
+	 *            The height of the image
+	 * @throws IllegalArgumentException
+	 *             If a dimension is not positive
+	 */
+	public AccumulationBuffer(final int width, final int height) {
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("Dimensions must be positive.");
+		this.width = width;
+		this.height = height;
+		this.sums = new float[3 * width * height];
+		this.counts = new int[width * height];
+	}
+
+	/**
+	 * Returns the width of the image
+	 *
+	 * @return The width of the image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the image
+	 *
+	 * @return The height of the image
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Adds a sample to the given pixel
+	 *
+	 * @param x
+	 *            The x coordinate of the pixel
+	 * @param y
+	 *            The y coordinate of the pixel
+	 * @param c
+	 *            The color of the sample
+	 */
+	public void add(final int x, final int y, final Color c) {
+		add(x, y, c.x(), c.y(), c.z());
+	}
+
+	/**
+	 * Adds a sample to the given pixel
+	 *
+	 * @param x
+	 *            The x coordinate of the pixel
+	 * @param y
+	 *            The y coordinate of the pixel
+	 * @param r
+	 *            The red part of the sample
+	 * @param g
+	 *            The green part of the sample
+	 * @param b
+	 *            The blue part of the sample
+	 */
+	public void add(final int x, final int y, final float r, final float g, final float b) {
+		final int p = index(x, y);
+		sums[3 * p] += r;
+		sums[3 * p + 1] += g;
+		sums[3 * p + 2] += b;
+		counts[p]++;
+	}
+
+	/**
+	 * Returns the number of samples of the given pixel
+	 *
+	 * @param x
+	 *            The x coordinate of the pixel
+	 * @param y
+	 *            The y coordinate of the pixel
+	 * @return The number of samples
+	 */
+	public int getCount(final int x, final int y) {
+		return counts[index(x, y)];
+	}
+
+	/**
+	 * Returns the average of the samples of the given pixel
+	 *
+	 * @param x
+	 *            The x coordinate of the pixel
+	 * @param y
+	 *            The y coordinate of the pixel
+	 * @param channel
+	 *            The channel, 0 for red, 1 for green and 2 for blue
+	 * @return The average of the channel or 0 if the pixel has no samples
+	 * @throws IllegalArgumentException
+	 *             If the channel does not exist
+	 */
+	public float getAverage(final int x, final int y, final int channel) {
+		if (channel < 0 || channel > 2)
+			throw new IllegalArgumentException("Channel " + channel + " does not exist.");
+		final int p = index(x, y);
+		return counts[p] == 0 ? 0 : sums[3 * p + channel] / counts[p];
+	}
+
+	/**
+	 * Returns the tone mapped average of the given pixel
+	 *
+	 * @param x
+	 *            The x coordinate of the pixel
+	 * @param y
+	 *            The y coordinate of the pixel
+	 * @return The packed RGB value or black if the pixel has no samples
+	 */
+	public int toRGB(final int x, final int y) {
+		final int p = index(x, y);
+		final int n = counts[p];
+		if (n == 0)
+			return 0;
+		return pack(sums[3 * p] / n, sums[3 * p + 1] / n, sums[3 * p + 2] / n);
+	}
+
+	/**
+	 * Writes the tone mapped averages of the given part of the image to the
+	 * same pixels of the frame buffer
+	 *
+	 * @param target
+	 *            The frame buffer, which must be at least as large as the part
+	 * @param x
+	 *            The x point to start
+	 * @param y
+	 *            The y point to start
+	 * @param w
+	 *            The width to use
+	 * @param h
+	 *            The height to use
+	 */
+	public void resolve(final FrameBuffer target, final int x, final int y, final int w, final int h) {
+		for (int row = y; row < y + h; row++)
+			for (int col = x; col < x + w; col++)
+				target.set(col, row, toRGB(col, row));
+	}
+
+	/**
+	 * Removes all samples
+	 */
+	public void clear() {
+		Arrays.fill(sums, 0);
+		Arrays.fill(counts, 0);
+	}
+
+	/**
+	 * Tone maps a color to a packed RGB value by clamping each channel to
+	 * [0, 1] and quantizing it like {@link Color#rgb}
+	 *
+	 * @param r
+	 *            The red part
+	 * @param g
+	 *            The green part
+	 * @param b
+	 *            The blue part
+	 * @return The packed RGB value
+	 */
+	public static int pack(final float r, final float g, final float b) {
+		return (quantize(r) << 16) | (quantize(g) << 8) | quantize(b);
+	}
+
+	private static int quantize(final float v) {
+		if (!(v > 0))
+			return 0;
+		if (v >= 1)
+			return 255;
+		return (int) (v * 255.0);
+	}
+
+	private int index(final int x, final int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			throw new IndexOutOfBoundsException("Pixel (" + x + ", " + y + ") lies outside the image.");
+		return y * width + x;
+	}
+
+}
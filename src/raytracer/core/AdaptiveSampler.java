@@ -0,0 +1,158 @@
+package raytracer.core;
+
+import raytracer.math.Color;
+
+/**
+ * Samples pixels adaptively. Every pixel starts with the samples at its four
+ * corners, which are shared with the neighbouring pixels, so smooth regions
+ * cost about one primary ray per pixel. A pixel whose corners hit different
+ * objects or differ by more than the threshold in a color channel is split
+ * into four quarters, which need five new samples, and each quarter is refined
+ * the same way until the maximum depth is reached. The color of a pixel is the
+ * average of its quarters, or of its corners if it is not split.
+ */
+final class AdaptiveSampler {
+
+	private final Scene scene;
+	private final Camera cam;
+	private final float dx, dy, threshold;
+	private final int maxDepth;
+
+	/**
+	 * A single sample with the object it hit
+	 */
+	private static final class Sample {
+		private final Color color;
+		private final Obj obj;
+
+		Sample(final Color color, final Obj obj) {
+			this.color = color;
+			this.obj = obj;
+		}
+	}
+
+	/**
+	 * Creates a new adaptive sampler
+	 *
+	 * @param scene
+	 *            The scene to render
+	 * @param dx
+	 *            The width of a pixel on the image plane
+	 * @param dy
+	 *            The height of a pixel on the image plane
+	 * @param threshold
+	 *            The maximum difference of a color channel between the corners
+	 *            of an area which is not refined
+	 * @param maxDepth
+	 *            The maximum number of refinements of a pixel
+	 */
+	AdaptiveSampler(final Scene scene, final float dx, final float dy, final float threshold, final int maxDepth) {
+		this.scene = scene;
+		this.cam = scene.getCamera();
+		this.dx = dx;
+		this.dy = dy;
+		this.threshold = threshold;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Renders the given part of the image
+	 *
+	 * @param sx
+	 *            The x point to start
+	 * @param sy
+	 *            The y point to start
+	 * @param w
+	 *            The width to use
+	 * @param h
+	 *            The height to use
+	 * @param pixels
+	 *            The array receiving the packed RGB pixels
+	 * @param offset
+	 *            The index of the first pixel of the tile in the array
+	 * @param stride
+	 *            The distance of vertically adjacent pixels in the array
+	 * @return The number of primary rays cast
+	 */
+	long render(final int sx, final int sy, final int w, final int h, final int[] pixels, final int offset,
+			final int stride) {
+		// the pixel (x, y) covers [x - 0.5, x + 0.5] like the super sampling
+		// grid of the renderer
+		final int cw = w + 1;
+		final Sample[] corners = new Sample[cw * (h + 1)];
+		for (int y = 0; y <= h; y++)
+			for (int x = 0; x <= w; x++)
+				corners[y * cw + x] = sample((sx + x - 0.5f) * dx, (sy + y - 0.5f) * dy);
+
+		final long[] rays = { corners.length };
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				final int c = y * cw + x;
+				final Color color = refine((sx + x - 0.5f) * dx, (sy + y - 0.5f) * dy, dx, dy, corners[c],
+						corners[c + 1], corners[c + cw], corners[c + cw + 1], 0, rays);
+				pixels[offset + y * stride + x] = color.rgb();
+			}
+		}
+		return rays[0];
+	}
+
+	/**
+	 * Computes the color of the given area from its corner samples, refining
+	 * it if the corners differ too much
+	 */
+	private Color refine(final float u, final float v, final float su, final float sv, final Sample a,
+			final Sample b, final Sample c, final Sample d, final int depth, final long[] rays) {
+		if (depth >= maxDepth || !contrast(a, b, c, d))
+			return average(a.color, b.color, c.color, d.color);
+
+		final float hu = su / 2, hv = sv / 2;
+		final Sample top = sample(u + hu, v);
+		final Sample left = sample(u, v + hv);
+		final Sample mid = sample(u + hu, v + hv);
+		final Sample right = sample(u + su, v + hv);
+		final Sample bottom = sample(u + hu, v + sv);
+		rays[0] += 5;
+
+		return average(refine(u, v, hu, hv, a, top, left, mid, depth + 1, rays),
+				refine(u + hu, v, hu, hv, top, b, mid, right, depth + 1, rays),
+				refine(u, v + hv, hu, hv, left, mid, c, bottom, depth + 1, rays),
+				refine(u + hu, v + hv, hu, hv, mid, right, bottom, d, depth + 1, rays));
+	}
+
+	/**
+	 * Checks whether the given samples hit different objects or differ by more
+	 * than the threshold
+	 */
+	private boolean contrast(final Sample a, final Sample b, final Sample c, final Sample d) {
+		if (a.obj != b.obj || a.obj != c.obj || a.obj != d.obj)
+			return true;
+		return spread(a.color.x(), b.color.x(), c.color.x(), d.color.x()) > threshold
+				|| spread(a.color.y(), b.color.y(), c.color.y(), d.color.y()) > threshold
+				|| spread(a.color.z(), b.color.z(), c.color.z(), d.color.z()) > threshold;
+	}
+
+	/**
+	 * Computes the difference between the largest and the smallest of the
+	 * given channel values, clamped to the displayable range
+	 */
+	private static float spread(final float a, final float b, final float c, final float d) {
+		final float ca = clamp(a), cb = clamp(b), cc = clamp(c), cd = clamp(d);
+		return Math.max(Math.max(ca, cb), Math.max(cc, cd)) - Math.min(Math.min(ca, cb), Math.min(cc, cd));
+	}
+
+	private static float clamp(final float x) {
+		return x < 0 ? 0 : x > 1 ? 1 : x;
+	}
+
+	private static Color average(final Color a, final Color b, final Color c, final Color d) {
+		return new Color((a.x() + b.x() + c.x() + d.x()) / 4, (a.y() + b.y() + c.y() + d.y()) / 4,
+				(a.z() + b.z() + c.z() + d.z()) / 4);
+	}
+
+	private Sample sample(final float u, final float v) {
+		final Trace trace = Trace.primary(scene, cam.cast(u, v));
+		final Hit hit = trace.getHit();
+		return new Sample(trace.shade(), hit.hits() ? hit.get() : null);
+	}
+
+}
@@ -0,0 +1,197 @@
+package raytracer.core;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Represents an image as packed RGB pixels which render threads write into
+ * directly. The pixels are stored in an int array, which is either the data
+ * buffer of a {@link BufferedImage} or owned by the frame buffer and exposed as
+ * BufferedImage without copying.
+ *
+ * The frame buffer is not synchronized: threads must write disjoint regions,
+ * and readers only see all pixels once the writing threads have been joined,
+ * like after {@link TileScheduler#schedule} returned. Reading while rendering,
+ * for example for a preview, may show partially written tiles.
+ */
+public final class FrameBuffer {
+
+	private static final int[] MASKS = { 0xff0000, 0xff00, 0xff };
+
+	private final int width, height;
+	private final int[] data;
+	private final int offset, stride;
+	private BufferedImage image;
+
+	/**
+	 * Creates a new black frame buffer
+	 *
+	 * @param width
+	 *            The width of the image
+	 * @param height
+	 *            The height of the image
+	 * @throws IllegalArgumentException
+	 *             If a dimension is not positive
+	 */
+	public FrameBuffer(final int width, final int height) {
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("Dimensions must be positive.");
+		this.width = width;
+		this.height = height;
+		this.data = new int[width * height];
+		this.offset = 0;
+		this.stride = width;
+	}
+
+	/**
+	 * Creates a frame buffer writing into the given image
+	 *
+	 * @param image
+	 *            The image, which must store each pixel packed into an int,
+	 *            like images of type {@link BufferedImage#TYPE_INT_RGB}
+	 * @throws IllegalArgumentException
+	 *             If the image is null or does not store packed int pixels
+	 */
+	public FrameBuffer(final BufferedImage image) {
+		if (image == null)
+			throw new IllegalArgumentException("Image is null.");
+		final WritableRaster raster = image.getRaster();
+		if (!(raster.getDataBuffer() instanceof DataBufferInt)
+				|| !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel))
+			throw new IllegalArgumentException("Image does not store packed int pixels.");
+
+		final DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+		final SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.data = buffer.getData();
+		this.stride = model.getScanlineStride();
+		this.offset = buffer.getOffset() - raster.getSampleModelTranslateY() * stride
+				- raster.getSampleModelTranslateX();
+		this.image = image;
+	}
+
+	/**
+	 * Returns the width of the image
+	 *
+	 * @return The width of the image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the image
+	 *
+	 * @return The height of the image
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the packed RGB value of the given pixel
+	 *
+	 * @param x
+	 *            The x coordinate of the pixel
+	 * @param y
+	 *            The y coordinate of the pixel
+	 * @return The packed RGB value
+	 */
+	public int get(final int x, final int y) {
+		return data[index(x, y)] & 0xffffff;
+	}
+
+	/**
+	 * Sets the packed RGB value of the given pixel
+	 *
+	 * @param x
+	 *            The x coordinate of the pixel
+	 * @param y
+	 *            The y coordinate of the pixel
+	 * @param rgb
+	 *            The packed RGB value
+	 */
+	public void set(final int x, final int y, final int rgb) {
+		data[index(x, y)] = rgb;
+	}
+
+	/**
+	 * Sets all pixels of the given rectangle, which is clipped to the image,
+	 * to the same value
+	 *
+	 * @param x
+	 *            The x coordinate of the rectangle
+	 * @param y
+	 *            The y coordinate of the rectangle
+	 * @param w
+	 *            The width of the rectangle
+	 * @param h
+	 *            The height of the rectangle
+	 * @param rgb
+	 *            The packed RGB value
+	 */
+	public void fill(final int x, final int y, final int w, final int h, final int rgb) {
+		final int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+		for (int row = Math.max(y, 0); row < y1; row++) {
+			final int ofs = offset + row * stride;
+			for (int col = Math.max(x, 0); col < x1; col++)
+				data[ofs + col] = rgb;
+		}
+	}
+
+	/**
+	 * Returns the image showing the pixels of this frame buffer, which is
+	 * either the image it has been created with or an image sharing its pixels
+	 *
+	 * @return The image
+	 */
+	public BufferedImage getImage() {
+		if (image == null) {
+			final DirectColorModel model = new DirectColorModel(24, MASKS[0], MASKS[1], MASKS[2]);
+			final WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(data, data.length), width,
+					height, stride, MASKS, null);
+			image = new BufferedImage(model, raster, false, null);
+		}
+		return image;
+	}
+
+	/**
+	 * Returns the pixel array, for renderers writing whole rows. The pixel
+	 * (x, y) is stored at {@link #getOffset} + y * {@link #getStride} + x.
+	 *
+	 * @return The pixel array
+	 */
+	int[] getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the index of the pixel (0, 0) in the pixel array
+	 *
+	 * @return The index of the first pixel
+	 */
+	int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the distance of vertically adjacent pixels in the pixel array
+	 *
+	 * @return The scanline stride
+	 */
+	int getStride() {
+		return stride;
+	}
+
+	private int index(final int x, final int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			throw new IndexOutOfBoundsException("Pixel (" + x + ", " + y + ") lies outside the image.");
+		return offset + y * stride + x;
+	}
+
+}
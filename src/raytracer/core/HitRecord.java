@@ -0,0 +1,231 @@
+package raytracer.core;
+
+import java.util.Arrays;
+
+import raytracer.geom.Primitive;
+import raytracer.math.Ray;
+
+/**
+ * Represents a mutable record of the nearest hit found so far. Intersection
+ * routines write the distance, the primitive specific index and the two
+ * surface coordinates of a closer hit into the record instead of allocating a
+ * {@link Hit}, which is only created once for the final nearest hit.
+ *
+ * Records are taken from a per-thread pool with {@link #acquire} and have to
+ * be returned with {@link #release} in reverse order, so nested traces of the
+ * same thread each get their own record.
+ */
+public final class HitRecord {
+
+	/**
+	 * The distance of the nearest hit so far, which is the maximum distance for
+	 * further hits
+	 */
+	public float t;
+
+	/**
+	 * The surface coordinates of the hit, like barycentric coordinates
+	 */
+	public float u, v;
+
+	/**
+	 * A primitive specific index, like the index of a face of a mesh
+	 */
+	public int index;
+
+	private Obj obj;
+	private Primitive prim;
+	private Hit hit;
+
+	private int[][] stacks = new int[4][];
+	private int stackLevel;
+
+	private final Pool pool;
+
+	private HitRecord(final Pool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Holds the records of a single thread
+	 */
+	private static final class Pool {
+		private HitRecord[] records = new HitRecord[8];
+		private int top;
+	}
+
+	private static final ThreadLocal<Pool> POOL = new ThreadLocal<Pool>() {
+		@Override
+		protected Pool initialValue() {
+			return new Pool();
+		}
+	};
+
+	/**
+	 * Takes a record without hit from the pool of the current thread
+	 *
+	 * @param tmax
+	 *            The maximum distance of hits
+	 * @return The record
+	 */
+	public static HitRecord acquire(final float tmax) {
+		final Pool pool = POOL.get();
+		if (pool.top == pool.records.length)
+			pool.records = Arrays.copyOf(pool.records, 2 * pool.top);
+		HitRecord rec = pool.records[pool.top];
+		if (rec == null)
+			rec = pool.records[pool.top] = new HitRecord(pool);
+		pool.top++;
+		rec.reset(tmax);
+		rec.stackLevel = 0;
+		return rec;
+	}
+
+	/**
+	 * Returns this record to the pool of the current thread. It must be the
+	 * record acquired last and must not be used afterwards.
+	 *
+	 * @throws IllegalStateException
+	 *             If this is not the record acquired last
+	 */
+	public void release() {
+		if (pool.top == 0 || pool.records[pool.top - 1] != this)
+			throw new IllegalStateException("Hit records must be released in reverse order.");
+		obj = null;
+		prim = null;
+		hit = null;
+		pool.top--;
+	}
+
+	/**
+	 * Removes the hit from this record
+	 *
+	 * @param tmax
+	 *            The maximum distance of hits
+	 */
+	public void reset(final float tmax) {
+		t = tmax;
+		u = v = 0;
+		index = -1;
+		obj = null;
+		prim = null;
+		hit = null;
+	}
+
+	/**
+	 * Records a hit whose details are computed by the given primitive through
+	 * {@link Primitive#toHit} when needed
+	 *
+	 * @param t
+	 *            The distance of the hit
+	 * @param u
+	 *            The first surface coordinate
+	 * @param v
+	 *            The second surface coordinate
+	 * @param index
+	 *            The primitive specific index
+	 * @param obj
+	 *            The hit object
+	 * @param prim
+	 *            The hit primitive
+	 */
+	public void set(final float t, final float u, final float v, final int index, final Obj obj,
+			final Primitive prim) {
+		this.t = t;
+		this.u = u;
+		this.v = v;
+		this.index = index;
+		this.obj = obj;
+		this.prim = prim;
+		this.hit = null;
+	}
+
+	/**
+	 * Records an already computed hit
+	 *
+	 * @param hit
+	 *            The hit, which must hit something
+	 * @param obj
+	 *            The hit object
+	 * @param prim
+	 *            The hit primitive
+	 */
+	public void set(final Hit hit, final Obj obj, final Primitive prim) {
+		this.t = hit.getParameter();
+		this.u = this.v = 0;
+		this.index = -1;
+		this.obj = obj;
+		this.prim = prim;
+		this.hit = hit;
+	}
+
+	/**
+	 * Returns true if a hit has been recorded
+	 *
+	 * @return True if a hit has been recorded
+	 */
+	public boolean hits() {
+		return prim != null;
+	}
+
+	/**
+	 * Returns the recorded object
+	 *
+	 * @return The recorded object or null if nothing has been hit
+	 */
+	public Obj getObj() {
+		return obj;
+	}
+
+	/**
+	 * Returns the recorded primitive
+	 *
+	 * @return The recorded primitive or null if nothing has been hit
+	 */
+	public Primitive getPrimitive() {
+		return prim;
+	}
+
+	/**
+	 * Creates the hit for the recorded values, which no longer depends on this
+	 * record
+	 *
+	 * @param ray
+	 *            The ray the hit was found with
+	 * @return The hit or {@link Hit.No} if nothing has been hit
+	 */
+	public Hit toHit(final Ray ray) {
+		if (prim == null)
+			return Hit.No.get();
+		if (hit != null)
+			return hit;
+		return prim.toHit(ray, this);
+	}
+
+	/**
+	 * Provides an array with at least the given size as traversal stack.
+	 * Nested traversals using the same record get distinct arrays and have to
+	 * return them with {@link #releaseStack} in reverse order.
+	 *
+	 * @param size
+	 *            The minimum size of the stack
+	 * @return The stack
+	 */
+	public int[] acquireStack(final int size) {
+		if (stackLevel == stacks.length)
+			stacks = Arrays.copyOf(stacks, 2 * stackLevel);
+		int[] stack = stacks[stackLevel];
+		if (stack == null || stack.length < size)
+			stack = stacks[stackLevel] = new int[Math.max(size, 32)];
+		stackLevel++;
+		return stack;
+	}
+
+	/**
+	 * Returns the traversal stack acquired last
+	 */
+	public void releaseStack() {
+		stackLevel--;
+	}
+
+}
@@ -0,0 +1,239 @@
+package raytracer.core;
+
+import raytracer.math.Color;
+
+/**
+ * Renders an image in passes of increasing quality. The first pass samples
+ * one pixel out of every block of {@link #PREVIEW_STEP} x PREVIEW_STEP pixels
+ * and fills the whole block with it. Every further pixel pass halves the block
+ * size and only samples the pixels not sampled before, until every pixel has
+ * its first sample. The remaining passes add the other samples of the super
+ * sampling grid of {@link Renderer}, one per pixel and pass. All samples are
+ * summed in an {@link AccumulationBuffer}, so no sample is computed twice and the
+ * last pass yields the average over the complete grid of every pixel. The
+ * current image is written directly into a {@link FrameBuffer}.
+ */
+public class ProgressiveRenderer {
+
+	/**
+	 * The block size of the preview pass
+	 */
+	public static final int PREVIEW_STEP = 8;
+
+	/**
+	 * Receives the image after each pass
+	 */
+	public interface PassListener {
+
+		/**
+		 * Called after a pass has been rendered completely
+		 *
+		 * @param pass
+		 *            The number of the finished pass, starting with 0
+		 * @param passes
+		 *            The total number of passes
+		 * @param frame
+		 *            The current image, which is modified by the next pass
+		 */
+		void passDone(int pass, int passes, FrameBuffer frame);
+	}
+
+	private final Renderer renderer;
+	private final int width, height, superSample;
+
+	private final AccumulationBuffer samples;
+	private final FrameBuffer frame;
+
+	/**
+	 * Creates a new progressive renderer
+	 *
+	 * @param scene
+	 *            The scene to render
+	 * @param xRes
+	 *            The X target resolution to render the image with
+	 * @param yRes
+	 *            The Y target resolution to render the image with
+	 * @param superSample
+	 *            The amount of super sampling per dimension of the final
+	 *            image
+	 * @throws IllegalArgumentException
+	 *             If the scene is null or a resolution or the super sampling
+	 *             is not positive
+	 */
+	public ProgressiveRenderer(final Scene scene, final int xRes, final int yRes, final int superSample) {
+		this(scene, new FrameBuffer(xRes, yRes), superSample);
+	}
+
+	/**
+	 * Creates a new progressive renderer writing into the given frame buffer,
+	 * whose dimensions are the target resolution
+	 *
+	 * @param scene
+	 *            The scene to render
+	 * @param frame
+	 *            The frame buffer receiving the image
+	 * @param superSample
+	 *            The amount of super sampling per dimension of the final
+	 *            image
+	 * @throws IllegalArgumentException
+	 *             If the scene or the frame buffer is null or the super
+	 *             sampling is not positive
+	 */
+	public ProgressiveRenderer(final Scene scene, final FrameBuffer frame, final int superSample) {
+		if (scene == null)
+			throw new IllegalArgumentException("Scene is null.");
+		if (frame == null)
+			throw new IllegalArgumentException("Frame buffer is null.");
+		if (superSample < 1)
+			throw new IllegalArgumentException("Super sampling must be positive.");
+		this.width = frame.getWidth();
+		this.height = frame.getHeight();
+		this.renderer = new Renderer(scene, width, height, superSample);
+		this.superSample = superSample;
+		this.samples = new AccumulationBuffer(width, height);
+		this.frame = frame;
+	}
+
+	/**
+	 * Returns the number of pixel passes
+	 *
+	 * @return The number of passes until every pixel has one sample
+	 */
+	public static int getPixelPasses() {
+		return Integer.numberOfTrailingZeros(PREVIEW_STEP) + 1;
+	}
+
+	/**
+	 * Returns the total number of passes
+	 *
+	 * @return The total number of passes
+	 */
+	public int getPasses() {
+		return getPixelPasses() + superSample * superSample - 1;
+	}
+
+	/**
+	 * Renders all passes with the tiles of each pass in scanline order
+	 *
+	 * @param scheduler
+	 *            The scheduler distributing the tiles of each pass
+	 * @param tile
+	 *            The edge length of the tiles
+	 * @param listener
+	 *            The listener receiving the image after each pass or null
+	 * @return The frame buffer holding the final image
+	 */
+	public FrameBuffer render(final TileScheduler scheduler, final int tile, final PassListener listener) {
+		return render(scheduler, tile, TileOrder.SCANLINE, listener);
+	}
+
+	/**
+	 * Renders all passes
+	 *
+	 * @param scheduler
+	 *            The scheduler distributing the tiles of each pass
+	 * @param tile
+	 *            The edge length of the tiles
+	 * @param order
+	 *            The order of the tiles within each pass
+	 * @param listener
+	 *            The listener receiving the image after each pass or null
+	 * @return The frame buffer holding the final image
+	 */
+	public FrameBuffer render(final TileScheduler scheduler, final int tile, final TileOrder order,
+			final PassListener listener) {
+		final int passes = getPasses();
+		for (int pass = 0; pass < passes; pass++) {
+			renderPass(scheduler, tile, order, pass);
+			if (listener != null)
+				listener.passDone(pass, passes, frame);
+		}
+		return frame;
+	}
+
+	/**
+	 * Renders a single pass, all previous passes must have been rendered
+	 * before
+	 *
+	 * @param scheduler
+	 *            The scheduler distributing the tiles of the pass
+	 * @param tile
+	 *            The edge length of the tiles
+	 * @param order
+	 *            The order of the tiles
+	 * @param pass
+	 *            The number of the pass
+	 * @throws IllegalArgumentException
+	 *             If the pass does not exist
+	 */
+	public void renderPass(final TileScheduler scheduler, final int tile, final TileOrder order, final int pass) {
+		if (pass < 0 || pass >= getPasses())
+			throw new IllegalArgumentException("Pass " + pass + " does not exist.");
+
+		final int pixelPasses = getPixelPasses();
+		if (pass < pixelPasses) {
+			final int step = PREVIEW_STEP >> pass;
+			scheduler.schedule(width, height, tile, order, new TileScheduler.TileJob() {
+				@Override
+				public void render(final int x, final int y, final int w, final int h) {
+					renderPixels(x, y, w, h, step);
+				}
+			});
+		} else {
+			final int sample = pass - pixelPasses + 1;
+			scheduler.schedule(width, height, tile, order, new TileScheduler.TileJob() {
+				@Override
+				public void render(final int x, final int y, final int w, final int h) {
+					renderSamples(x, y, w, h, sample % superSample, sample / superSample);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Computes the first sample of each pixel of the tile lying on the grid
+	 * of the given step which has not been sampled by a coarser pass, and
+	 * fills the block of the given step size starting at the pixel with it
+	 */
+	private void renderPixels(final int sx, final int sy, final int w, final int h, final int step) {
+		final int coarse = 2 * step;
+		for (int y = ceil(sy, step); y < sy + h; y += step) {
+			for (int x = ceil(sx, step); x < sx + w; x += step) {
+				if (step < PREVIEW_STEP && x % coarse == 0 && y % coarse == 0)
+					continue;
+
+				frame.fill(x, y, step, step, add(x, y, renderer.sample(x, y, 0, 0)));
+			}
+		}
+	}
+
+	/**
+	 * Adds the given sample of the super sampling grid to each pixel of the
+	 * tile
+	 */
+	private void renderSamples(final int sx, final int sy, final int w, final int h, final int i, final int j) {
+		for (int y = sy; y < sy + h; y++)
+			for (int x = sx; x < sx + w; x++)
+				add(x, y, renderer.sample(x, y, i, j));
+	}
+
+	/**
+	 * Adds the given sample to the accumulation buffer and updates the pixel
+	 *
+	 * @return The new packed RGB value of the pixel
+	 */
+	private int add(final int x, final int y, final Color c) {
+		samples.add(x, y, c);
+		final int rgb = samples.toRGB(x, y);
+		frame.set(x, y, rgb);
+		return rgb;
+	}
+
+	/**
+	 * Returns the smallest multiple of step which is not less than x
+	 */
+	private static int ceil(final int x, final int step) {
+		return (x + step - 1) / step * step;
+	}
+
+}
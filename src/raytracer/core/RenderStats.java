@@ -0,0 +1,426 @@
+package raytracer.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Represents counts of the work done while rendering, like the number of cast
+ * rays or tested primitives.
+ *
+ * The counting is switched on with the system property
+ * {@code -Draytracer.stats=true}. Every counting site is guarded by
+ * {@link #ENABLED}, which is a compile time constant for the JIT compiler, so
+ * the counting code is removed completely if it is switched off. Each thread
+ * counts in its own stripe of counters, so counting needs neither
+ * synchronization nor shared cache lines. The stripes of threads which have
+ * ended are folded into a retired total whenever a thread starts counting or
+ * the total is taken, so short-lived threads do not pile up stripes.
+ */
+public final class RenderStats {
+
+	/**
+	 * True if the counters are updated
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("raytracer.stats");
+
+	/**
+	 * The recorded quantities
+	 */
+	public enum Counter {
+		/**
+		 * Rays cast from the camera
+		 */
+		PRIMARY_RAYS("primary rays"),
+		/**
+		 * Rays spawned by shaders, like reflected rays
+		 */
+		SECONDARY_RAYS("secondary rays"),
+		/**
+		 * Rays cast to check whether a light source is blocked
+		 */
+		SHADOW_RAYS("shadow rays"),
+		/**
+		 * Bounding boxes tested, of hierarchy nodes as well as of bounded
+		 * primitives
+		 */
+		NODE_VISITS("node visits"),
+		/**
+		 * Exact intersection tests with primitives and faces of meshes
+		 */
+		PRIMITIVE_TESTS("primitive tests"),
+		/**
+		 * Intersection tests which found a closer hit or a blocker
+		 */
+		PRIMITIVE_HITS("primitive hits");
+
+		private final String label;
+
+		private Counter(final String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Returns a readable name of the counter
+		 *
+		 * @return The name of the counter
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	private static final Counter[] COUNTERS = Counter.values();
+
+	// the counters of a stripe start at PADDING and are followed by PADDING
+	// unused entries, so stripes of different threads never share a cache line
+	private static final int PADDING = 8;
+
+	// the stripes of the threads which have counted and not been retired yet,
+	// and the sums of the retired ones, both guarded by STRIPES
+	private static final List<Stripe> STRIPES = new ArrayList<>();
+	private static final long[] RETIRED = new long[COUNTERS.length];
+
+	private static final ThreadLocal<long[]> STRIPE = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			final long[] counts = new long[COUNTERS.length + 2 * PADDING];
+			synchronized (STRIPES) {
+				retire();
+				STRIPES.add(new Stripe(Thread.currentThread(), counts));
+			}
+			return counts;
+		}
+	};
+
+	private static final class Stripe {
+		private final Thread owner;
+		private final long[] counts;
+
+		Stripe(final Thread owner, final long[] counts) {
+			this.owner = owner;
+			this.counts = counts;
+		}
+	}
+
+	private final long[] counts;
+
+	private RenderStats(final long[] counts) {
+		this.counts = counts;
+	}
+
+	/**
+	 * Increments the given counter of the current thread. Callers should check
+	 * {@link #ENABLED} first.
+	 *
+	 * @param counter
+	 *            The counter to increment
+	 */
+	public static void count(final Counter counter) {
+		STRIPE.get()[PADDING + counter.ordinal()]++;
+	}
+
+	/**
+	 * Adds the given amount to the given counter of the current thread.
+	 * Callers should check {@link #ENABLED} first.
+	 *
+	 * @param counter
+	 *            The counter to increase
+	 * @param n
+	 *            The amount to add
+	 */
+	public static void add(final Counter counter, final long n) {
+		STRIPE.get()[PADDING + counter.ordinal()] += n;
+	}
+
+	/**
+	 * Adds the given amounts to the node, test and hit counters of the current
+	 * thread at once, for traversals counting locally. Callers should check
+	 * {@link #ENABLED} first.
+	 *
+	 * @param visits
+	 *            The number of visited nodes
+	 * @param tests
+	 *            The number of primitive tests
+	 * @param hits
+	 *            The number of primitive hits
+	 */
+	public static void traversal(final long visits, final long tests, final long hits) {
+		final long[] stripe = STRIPE.get();
+		stripe[PADDING + Counter.NODE_VISITS.ordinal()] += visits;
+		stripe[PADDING + Counter.PRIMITIVE_TESTS.ordinal()] += tests;
+		stripe[PADDING + Counter.PRIMITIVE_HITS.ordinal()] += hits;
+	}
+
+	/**
+	 * Returns the counts of the current thread since it started
+	 *
+	 * @return The counts of the current thread
+	 */
+	public static RenderStats current() {
+		final long[] counts = new long[COUNTERS.length];
+		System.arraycopy(STRIPE.get(), PADDING, counts, 0, counts.length);
+		return new RenderStats(counts);
+	}
+
+	/**
+	 * Returns the counts of all threads since they started, including the
+	 * threads which have ended. The counts of threads which are still
+	 * rendering may be incomplete.
+	 *
+	 * @return The counts of all threads
+	 */
+	public static RenderStats total() {
+		final long[] counts;
+		synchronized (STRIPES) {
+			retire();
+			counts = RETIRED.clone();
+			for (final Stripe stripe : STRIPES)
+				for (int i = 0; i < counts.length; i++)
+					counts[i] += stripe.counts[PADDING + i];
+		}
+		return new RenderStats(counts);
+	}
+
+	/**
+	 * Adds the stripes of the threads which have ended to the retired counts
+	 * and drops them, must be called holding the lock of STRIPES
+	 */
+	private static void retire() {
+		for (final Iterator<Stripe> it = STRIPES.iterator(); it.hasNext();) {
+			final Stripe stripe = it.next();
+			// seeing the thread dead makes all of its counts visible
+			if (stripe.owner.isAlive())
+				continue;
+			for (int i = 0; i < RETIRED.length; i++)
+				RETIRED[i] += stripe.counts[PADDING + i];
+			it.remove();
+		}
+	}
+
+	/**
+	 * Returns the sum of the given counts
+	 *
+	 * @param stats
+	 *            The counts to sum
+	 * @return The sum of the counts
+	 */
+	public static RenderStats sum(final Collection<? extends RenderStats> stats) {
+		final long[] counts = new long[COUNTERS.length];
+		for (final RenderStats s : stats)
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += s.counts[i];
+		return new RenderStats(counts);
+	}
+
+	/**
+	 * Returns the value of the given counter
+	 *
+	 * @param counter
+	 *            The counter
+	 * @return The value of the counter
+	 */
+	public long get(final Counter counter) {
+		return counts[counter.ordinal()];
+	}
+
+	/**
+	 * Returns the counts that were added after the given earlier counts of
+	 * the same thread
+	 *
+	 * @param earlier
+	 *            The earlier counts
+	 * @return The difference of the counts
+	 */
+	public RenderStats since(final RenderStats earlier) {
+		final long[] res = new long[COUNTERS.length];
+		for (int i = 0; i < res.length; i++)
+			res[i] = counts[i] - earlier.counts[i];
+		return new RenderStats(res);
+	}
+
+	/**
+	 * Returns the work needed to trace the rays, which is the sum of node
+	 * visits and primitive tests
+	 *
+	 * @return The traversal work
+	 */
+	public long getWork() {
+		return get(Counter.NODE_VISITS) + get(Counter.PRIMITIVE_TESTS);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		final long primary = get(Counter.PRIMARY_RAYS);
+		for (final Counter c : COUNTERS) {
+			sb.append(String.format(Locale.ENGLISH, "  %-16s %14d", c.getLabel(), get(c)));
+			if (primary > 0 && c != Counter.PRIMARY_RAYS)
+				sb.append(String.format(Locale.ENGLISH, " %10.2f per primary ray", (double) get(c) / primary));
+			sb.append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Represents the counts of a single rendered tile
+	 */
+	public static final class Tile {
+		private final int x, y, w, h;
+		private final RenderStats stats;
+
+		/**
+		 * Creates new tile statistics
+		 *
+		 * @param x
+		 *            The x coordinate of the tile
+		 * @param y
+		 *            The y coordinate of the tile
+		 * @param w
+		 *            The width of the tile
+		 * @param h
+		 *            The height of the tile
+		 * @param stats
+		 *            The counts of the tile
+		 */
+		public Tile(final int x, final int y, final int w, final int h, final RenderStats stats) {
+			this.x = x;
+			this.y = y;
+			this.w = w;
+			this.h = h;
+			this.stats = stats;
+		}
+
+		/**
+		 * Returns the x coordinate of the tile
+		 *
+		 * @return The x coordinate of the tile
+		 */
+		public int getX() {
+			return x;
+		}
+
+		/**
+		 * Returns the y coordinate of the tile
+		 *
+		 * @return The y coordinate of the tile
+		 */
+		public int getY() {
+			return y;
+		}
+
+		/**
+		 * Returns the width of the tile
+		 *
+		 * @return The width of the tile
+		 */
+		public int getWidth() {
+			return w;
+		}
+
+		/**
+		 * Returns the height of the tile
+		 *
+		 * @return The height of the tile
+		 */
+		public int getHeight() {
+			return h;
+		}
+
+		/**
+		 * Returns the counts of the tile
+		 *
+		 * @return The counts of the tile
+		 */
+		public RenderStats getStats() {
+			return stats;
+		}
+	}
+
+	/**
+	 * Represents the counts of a whole frame and of each of its tiles
+	 */
+	public static final class Report {
+
+		/**
+		 * The number of tiles listed by {@link #toString}
+		 */
+		private static final int LISTED_TILES = 5;
+
+		private final RenderStats frame;
+		private final List<Tile> tiles;
+
+		/**
+		 * Creates a new report of the given tiles
+		 *
+		 * @param tiles
+		 *            The statistics of all tiles of the frame
+		 */
+		public Report(final Collection<Tile> tiles) {
+			this.tiles = new ArrayList<>(tiles);
+			Collections.sort(this.tiles, new Comparator<Tile>() {
+				@Override
+				public int compare(final Tile a, final Tile b) {
+					return a.y != b.y ? Integer.compare(a.y, b.y) : Integer.compare(a.x, b.x);
+				}
+			});
+			final List<RenderStats> stats = new ArrayList<>(this.tiles.size());
+			for (final Tile t : this.tiles)
+				stats.add(t.stats);
+			this.frame = sum(stats);
+		}
+
+		/**
+		 * Returns the counts of the whole frame
+		 *
+		 * @return The sum of the counts of all tiles
+		 */
+		public RenderStats getFrame() {
+			return frame;
+		}
+
+		/**
+		 * Returns the statistics of all tiles
+		 *
+		 * @return The tiles sorted row by row
+		 */
+		public List<Tile> getTiles() {
+			return Collections.unmodifiableList(tiles);
+		}
+
+		/**
+		 * Returns the tiles which needed the most traversal work
+		 *
+		 * @param n
+		 *            The maximum number of tiles
+		 * @return The tiles sorted by descending {@link RenderStats#getWork}
+		 */
+		public List<Tile> getMostExpensive(final int n) {
+			final List<Tile> res = new ArrayList<>(tiles);
+			Collections.sort(res, new Comparator<Tile>() {
+				@Override
+				public int compare(final Tile a, final Tile b) {
+					return Long.compare(b.stats.getWork(), a.stats.getWork());
+				}
+			});
+			return res.subList(0, Math.min(n, res.size()));
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder();
+			sb.append(String.format(Locale.ENGLISH, "frame, %d tiles%n", tiles.size()));
+			sb.append(frame);
+			final long work = Math.max(1, frame.getWork());
+			for (final Tile t : getMostExpensive(LISTED_TILES))
+				sb.append(String.format(Locale.ENGLISH, "  tile %4d,%-4d %3dx%-3d %14d work %5.1f%% of frame%n", t.x,
+						t.y, t.w, t.h, t.stats.getWork(), 100.0 * t.stats.getWork() / work));
+			return sb.toString();
+		}
+	}
+
+}
@@ -1,6 +1,10 @@
 package raytracer.core;
 
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 import raytracer.math.Color;
 import raytracer.math.Ray;
@@ -14,6 +18,12 @@ public class Renderer {
 	private final Camera cam;
 	private final int superSample;
 	private final float dx, dy, sdx, sdy;
+	private final AdaptiveSampler adaptive;
+	private final LongAdder rays = new LongAdder();
+	private final Queue<RenderStats.Tile> tileStats = new ConcurrentLinkedQueue<>();
+	private volatile TileOrder pixelOrder = TileOrder.SCANLINE;
+	// the pixel orders per tile size, keyed by width << 32 | height
+	private final ConcurrentHashMap<Long, int[]> pixelOrders = new ConcurrentHashMap<>();
 
 	/**
 	 * Creates a new renderer
@@ -35,6 +45,110 @@ public class Renderer {
 		this.dy = 1.0f / yRes;
 		this.sdx = dx / superSample;
 		this.sdy = dy / superSample;
+		this.adaptive = null;
+	}
+
+	/**
+	 * Creates a new renderer which samples adaptively: each pixel starts with
+	 * the samples at its corners and areas whose samples hit different objects
+	 * or differ in color by more than the threshold are refined
+	 *
+	 * @param scene
+	 *            The scene to render
+	 * @param xRes
+	 *            The X target resolution to render the image with
+	 * @param yRes
+	 *            The Y target resolution to render the image with
+	 * @param threshold
+	 *            The maximum difference of a color channel (between 0 and 1)
+	 *            between the corners of an area which is not refined
+	 * @param maxDepth
+	 *            The maximum number of refinements of a pixel, where each
+	 *            refinement halves the sample spacing
+	 * @throws IllegalArgumentException
+	 *             If the threshold is negative or the maximum depth is
+	 *             negative
+	 */
+	public Renderer(final Scene scene, final int xRes, final int yRes, final float threshold, final int maxDepth) {
+		if (!(threshold >= 0))
+			throw new IllegalArgumentException("Threshold must not be negative.");
+		if (maxDepth < 0)
+			throw new IllegalArgumentException("Maximum depth must not be negative.");
+		this.scene = scene;
+		this.cam = scene.getCamera();
+		this.superSample = 1;
+		this.dx = 1.0f / xRes;
+		this.dy = 1.0f / yRes;
+		this.sdx = dx;
+		this.sdy = dy;
+		this.adaptive = new AdaptiveSampler(scene, dx, dy, threshold, maxDepth);
+	}
+
+	/**
+	 * Returns the amount of super sampling per dimension
+	 *
+	 * @return The amount of super sampling per dimension
+	 */
+	public int getSuperSample() {
+		return superSample;
+	}
+
+	/**
+	 * Sets the order in which the pixels of each tile are rendered. Orders
+	 * following a space filling curve render neighbouring pixels after each
+	 * other, whose rays are likely to visit the same nodes of the acceleration
+	 * structures. Adaptive sampling always renders row by row, because it
+	 * shares samples between neighbouring pixels. The order must not be
+	 * changed while rendering.
+	 *
+	 * @param order
+	 *            The order of the pixels within a tile
+	 * @throws IllegalArgumentException
+	 *             If the order is null
+	 */
+	public void setPixelOrder(final TileOrder order) {
+		if (order == null)
+			throw new IllegalArgumentException("Order is null.");
+		pixelOrder = order;
+		pixelOrders.clear();
+	}
+
+	/**
+	 * Returns the number of primary rays cast by {@link #renderTile} so far
+	 *
+	 * @return The number of primary rays
+	 */
+	public long getPrimaryRays() {
+		return rays.sum();
+	}
+
+	/**
+	 * Returns the statistics of all tiles rendered by {@link #renderTile} so
+	 * far, which are only recorded if {@link RenderStats#ENABLED} is set
+	 *
+	 * @return The statistics of the rendered tiles and their sum
+	 */
+	public RenderStats.Report getStats() {
+		return new RenderStats.Report(tileStats);
+	}
+
+	/**
+	 * Computes a single sample of the super sampling grid of a pixel
+	 *
+	 * @param x
+	 *            The x coordinate of the pixel
+	 * @param y
+	 *            The y coordinate of the pixel
+	 * @param i
+	 *            The column of the sample within the grid
+	 * @param j
+	 *            The row of the sample within the grid
+	 * @return The color of the sample
+	 */
+	public Color sample(final int x, final int y, final int i, final int j) {
+		final float sux = x * dx + (i - superSample / 2.0f) * sdx;
+		final float suy = y * dy + (j - superSample / 2.0f) * sdy;
+		return Trace.primary(scene, cam.cast(sux, suy)).shade();
 	}
 
 	/**
@@ -75,37 +189,156 @@ public class Renderer {
 		return new Callable<Work>() {
 			@Override
 			public Work call() throws Exception {
-				final Work work = new Work(sx, sy, w, h);
-				int ofs = 0;
-				float bx = sx * dx;
-				float by = sy * dy;
-				for (int y = 0; y < h; y++) {
-					bx = sx * dx;
-					for (int x = 0; x < w; x++) {
-
-						Color res = Color.BLACK;
-						int n = 0;
-						float suy = by - superSample / 2.0f * sdy;
-						for (int j = 0; j < superSample; j++) {
-							float sux = bx - superSample / 2.0f * sdx;
-							for (int i = 0; i < superSample; i++) {
-								final Ray r = cam.cast(sux, suy);
-								final Trace trace = Trace.primary(scene, r);
-								final Color c = trace.shade();
-								res = res.avg(c, n);
-								sux += sdx;
-								n++;
-							}
-							suy += sdy;
-						}
-						work.pixels[ofs++] = res.rgb();
-						bx += dx;
-					}
-					by += dy;
-				}
-				return work;
+				return renderTile(sx, sy, w, h);
 			}
 		};
 	}
 
+	/**
+	 * Renders the given part of the image in the calling thread
+	 *
+	 * @param sx
+	 *            The x point to start
+	 * @param sy
+	 *            The y point to start
+	 * @param w
+	 *            The width to use
+	 * @param h
+	 *            The height to use
+	 * @return The rendered work
+	 */
+	public Work renderTile(final int sx, final int sy, final int w, final int h) {
+		final Work work = new Work(sx, sy, w, h);
+		renderPixels(sx, sy, w, h, work.pixels, 0, w);
+		return work;
+	}
+
+	/**
+	 * Renders the given part of the image in the calling thread directly into
+	 * the frame buffer. Threads rendering concurrently into the same frame
+	 * buffer must render disjoint parts.
+	 *
+	 * @param sx
+	 *            The x point to start
+	 * @param sy
+	 *            The y point to start
+	 * @param w
+	 *            The width to use
+	 * @param h
+	 *            The height to use
+	 * @param target
+	 *            The frame buffer receiving the pixels at their position in
+	 *            the image
+	 * @throws IllegalArgumentException
+	 *             If the frame buffer is null or the part does not lie within
+	 *             it
+	 */
+	public void renderTile(final int sx, final int sy, final int w, final int h, final FrameBuffer target) {
+		if (target == null)
+			throw new IllegalArgumentException("Frame buffer is null.");
+		if (sx < 0 || sy < 0 || w < 0 || h < 0 || sx + w > target.getWidth() || sy + h > target.getHeight())
+			throw new IllegalArgumentException("Tile does not lie within the frame buffer.");
+		renderPixels(sx, sy, w, h, target.getData(), target.getOffset() + sy * target.getStride() + sx,
+				target.getStride());
+	}
+
+	/**
+	 * Renders the given part of the image into the given array and records
+	 * its statistics
+	 */
+	private void renderPixels(final int sx, final int sy, final int w, final int h, final int[] pixels,
+			final int offset, final int stride) {
+		if (RenderStats.ENABLED) {
+			final RenderStats before = RenderStats.current();
+			samplePixels(sx, sy, w, h, pixels, offset, stride);
+			tileStats.add(new RenderStats.Tile(sx, sy, w, h, RenderStats.current().since(before)));
+		} else {
+			samplePixels(sx, sy, w, h, pixels, offset, stride);
+		}
+	}
+
+	/**
+	 * Samples the pixels of the given part of the image, the pixel (x, y) of
+	 * the part is stored at offset + y * stride + x
+	 */
+	private void samplePixels(final int sx, final int sy, final int w, final int h, final int[] pixels,
+			final int offset, final int stride) {
+		if (adaptive != null) {
+			rays.add(adaptive.render(sx, sy, w, h, pixels, offset, stride));
+			return;
+		}
+
+		final TileOrder order = pixelOrder;
+		if (order == TileOrder.SCANLINE) {
+			int ofs = offset;
+			float bx = sx * dx;
+			float by = sy * dy;
+			for (int y = 0; y < h; y++) {
+				ofs = offset + y * stride;
+				bx = sx * dx;
+				for (int x = 0; x < w; x++) {
+					pixels[ofs++] = samplePixel(bx, by);
+					bx += dx;
+				}
+				by += dy;
+			}
+		} else if (w > 0 && h > 0) {
+			// the same pixel positions as in scanline order, so the order
+			// does not change the image
+			final float[] xs = new float[w], ys = new float[h];
+			float bx = sx * dx;
+			for (int x = 0; x < w; x++, bx += dx)
+				xs[x] = bx;
+			float by = sy * dy;
+			for (int y = 0; y < h; y++, by += dy)
+				ys[y] = by;
+
+			for (final int cell : pixelOrder(order, w, h)) {
+				final int x = cell % w, y = cell / w;
+				pixels[offset + y * stride + x] = samplePixel(xs[x], ys[y]);
+			}
+		}
+		rays.add((long) w * h * superSample * superSample);
+	}
+
+	/**
+	 * Samples the super sampling grid of the pixel at the given position
+	 *
+	 * @return The packed RGB value of the pixel
+	 */
+	private int samplePixel(final float bx, final float by) {
+		// the samples of a pixel are consecutive, so they are summed without
+		// clamping in locals and tone mapped once
+		float red = 0, green = 0, blue = 0;
+		float suy = by - superSample / 2.0f * sdy;
+		for (int j = 0; j < superSample; j++) {
+			float sux = bx - superSample / 2.0f * sdx;
+			for (int i = 0; i < superSample; i++) {
+				final Ray r = cam.cast(sux, suy);
+				final Trace trace = Trace.primary(scene, r);
+				final Color c = trace.shade();
+				red += c.x();
+				green += c.y();
+				blue += c.z();
+				sux += sdx;
+			}
+			suy += sdy;
+		}
+		final int n = superSample * superSample;
+		return AccumulationBuffer.pack(red / n, green / n, blue / n);
+	}
+
+	/**
+	 * Returns the cached order of the pixels of a tile with the given size
+	 */
+	private int[] pixelOrder(final TileOrder order, final int w, final int h) {
+		final Long key = (long) w << 32 | h;
+		int[] cells = pixelOrders.get(key);
+		if (cells == null) {
+			cells = order.order(w, h);
+			pixelOrders.putIfAbsent(key, cells);
+		}
+		return cells;
+	}
+
 }
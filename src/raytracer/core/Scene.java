@@ -40,4 +40,16 @@ public interface Scene {
 	 */
 	Hit hit(Ray ray);
 
+	/**
+	 * Checks whether the given ray is blocked by any object of the scene
+	 * before it reaches the given distance
+	 *
+	 * @param ray
+	 *            The ray to check
+	 * @param maxDist
+	 *            The maximum distance
+	 * @return True if the ray is blocked within the given distance
+	 */
+	boolean occluded(Ray ray, float maxDist);
+
 }
@@ -0,0 +1,65 @@
+package raytracer.core;
+
+/**
+ * Represents the order in which the cells of a grid are visited, like the
+ * tiles of an image or the pixels of a tile. Orders following a space filling
+ * curve keep consecutive cells close together, so consecutive rays tend to
+ * visit the same nodes of the acceleration structures.
+ */
+public interface TileOrder {
+
+	/**
+	 * Visits the cells row by row
+	 */
+	TileOrder SCANLINE = new TileOrders.Scanline();
+
+	/**
+	 * Visits the cells along the Morton (Z-order) curve
+	 */
+	TileOrder MORTON = new TileOrders.Morton();
+
+	/**
+	 * Visits the cells along the Hilbert curve of the enclosing square grid
+	 * whose size is a power of two. In contrast to the Morton curve it only
+	 * moves between adjacent cells on such square grids; on other grids it
+	 * skips the cells outside the grid and may jump between cells which are
+	 * not adjacent.
+	 */
+	TileOrder HILBERT = new TileOrders.Hilbert();
+
+	/**
+	 * Visits the cells in rings around the centre of the grid, starting in the
+	 * centre, so the usually most interesting part of an image is shown first
+	 */
+	TileOrder SPIRAL = new TileOrders.Spiral();
+
+	/**
+	 * Computes the order of the cells of a grid
+	 *
+	 * @param cols
+	 *            The number of columns of the grid
+	 * @param rows
+	 *            The number of rows of the grid
+	 * @return The row-major indices (row * cols + col) of all cells in the
+	 *         order in which they are visited
+	 */
+	int[] order(int cols, int rows);
+
+	/**
+	 * Returns the predefined order with the given name
+	 *
+	 * @param name
+	 *            The name of the order, one of scanline, morton, hilbert or
+	 *            spiral, ignoring case
+	 * @return The order
+	 * @throws IllegalArgumentException
+	 *             If there is no order with the given name
+	 */
+	static TileOrder forName(final String name) {
+		for (final TileOrder order : new TileOrder[] { SCANLINE, MORTON, HILBERT, SPIRAL })
+			if (order.toString().equalsIgnoreCase(name))
+				return order;
+		throw new IllegalArgumentException("Unknown order " + name + ".");
+	}
+
+}
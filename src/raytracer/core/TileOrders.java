@@ -0,0 +1,163 @@
+package raytracer.core;
+
+import java.util.Arrays;
+
+/**
+ * Implements the predefined {@link TileOrder}s. Apart from the scanline order,
+ * each order assigns a key to every cell and visits the cells by ascending key,
+ * ties broken by the row-major index.
+ */
+final class TileOrders {
+
+	private TileOrders() {
+	}
+
+	/**
+	 * Computes the key of a cell of the grid
+	 */
+	private interface Key {
+		long key(int col, int row);
+	}
+
+	/**
+	 * Sorts the cells of the grid by the given key, which must be less than
+	 * 2^63 / (cols * rows)
+	 */
+	private static int[] sortBy(final int cols, final int rows, final Key key) {
+		final long n = (long) cols * rows;
+		final long[] keyed = new long[cols * rows];
+		for (int row = 0, i = 0; row < rows; row++)
+			for (int col = 0; col < cols; col++, i++)
+				keyed[i] = key.key(col, row) * n + i;
+		Arrays.sort(keyed);
+
+		final int[] order = new int[keyed.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = (int) (keyed[i] % n);
+		return order;
+	}
+
+	private static void checkGrid(final int cols, final int rows) {
+		if (cols < 1 || rows < 1)
+			throw new IllegalArgumentException("Grid dimensions must be positive.");
+	}
+
+	static final class Scanline implements TileOrder {
+		@Override
+		public int[] order(final int cols, final int rows) {
+			checkGrid(cols, rows);
+			final int[] order = new int[cols * rows];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+			return order;
+		}
+
+		@Override
+		public String toString() {
+			return "scanline";
+		}
+	}
+
+	static final class Morton implements TileOrder {
+		@Override
+		public int[] order(final int cols, final int rows) {
+			checkGrid(cols, rows);
+			return sortBy(cols, rows, new Key() {
+				@Override
+				public long key(final int col, final int row) {
+					return spread(col) | spread(row) << 1;
+				}
+			});
+		}
+
+		/**
+		 * Inserts a zero bit between each two bits of the lower 16 bits of x
+		 */
+		private static long spread(final int x) {
+			long v = x & 0xffff;
+			v = (v | v << 8) & 0x00ff00ff;
+			v = (v | v << 4) & 0x0f0f0f0f;
+			v = (v | v << 2) & 0x33333333;
+			v = (v | v << 1) & 0x55555555;
+			return v;
+		}
+
+		@Override
+		public String toString() {
+			return "morton";
+		}
+	}
+
+	static final class Hilbert implements TileOrder {
+		@Override
+		public int[] order(final int cols, final int rows) {
+			checkGrid(cols, rows);
+			final int size = Integer.highestOneBit(Math.max(cols, rows) - 1) << 1;
+			return sortBy(cols, rows, new Key() {
+				@Override
+				public long key(final int col, final int row) {
+					return distance(Math.max(size, 1), col, row);
+				}
+			});
+		}
+
+		/**
+		 * Computes the distance of the cell (x, y) along the Hilbert curve
+		 * through a square of the given size, which is a power of two
+		 */
+		private static long distance(final int size, int x, int y) {
+			long d = 0;
+			for (int s = size / 2; s > 0; s /= 2) {
+				final int rx = (x & s) > 0 ? 1 : 0;
+				final int ry = (y & s) > 0 ? 1 : 0;
+				d += (long) s * s * ((3 * rx) ^ ry);
+				// rotate the quadrant so that the curve continues in it
+				if (ry == 0) {
+					if (rx == 1) {
+						x = s - 1 - x;
+						y = s - 1 - y;
+					}
+					final int t = x;
+					x = y;
+					y = t;
+				}
+			}
+			return d;
+		}
+
+		@Override
+		public String toString() {
+			return "hilbert";
+		}
+	}
+
+	static final class Spiral implements TileOrder {
+
+		/**
+		 * The number of distinct angles within a ring
+		 */
+		private static final int ANGLES = 1 << 16;
+
+		@Override
+		public int[] order(final int cols, final int rows) {
+			checkGrid(cols, rows);
+			// the centre in doubled coordinates, so it may lie between cells
+			final int cx = cols - 1, cy = rows - 1;
+			return sortBy(cols, rows, new Key() {
+				@Override
+				public long key(final int col, final int row) {
+					final int dx = 2 * col - cx, dy = 2 * row - cy;
+					final long ring = Math.max(Math.abs(dx), Math.abs(dy));
+					final double angle = (Math.atan2(dy, dx) + Math.PI) / (2 * Math.PI);
+					return ring * ANGLES + Math.min(ANGLES - 1, (long) (angle * ANGLES));
+				}
+			});
+		}
+
+		@Override
+		public String toString() {
+			return "spiral";
+		}
+	}
+
+}
@@ -0,0 +1,334 @@
+package raytracer.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the tiles of an image on a work-stealing {@link ForkJoinPool}.
+ * The tiles are numbered in the {@link TileOrder} of the job and the range of
+ * all tile numbers is split recursively in halves, so idle threads steal large
+ * ranges of neighbouring tiles instead of taking single tiles from a shared
+ * queue. Tiles at the right and bottom border are clipped to the image.
+ */
+public class TileScheduler {
+
+	/**
+	 * Renders a single tile
+	 */
+	public interface TileJob {
+
+		/**
+		 * Renders the given tile, which lies completely inside the image
+		 *
+		 * @param x
+		 *            The x coordinate of the tile
+		 * @param y
+		 *            The y coordinate of the tile
+		 * @param w
+		 *            The width of the tile
+		 * @param h
+		 *            The height of the tile
+		 */
+		void render(int x, int y, int w, int h);
+	}
+
+	private final ForkJoinPool pool;
+	private final boolean ownsPool;
+
+	/**
+	 * Creates a new scheduler with one thread per available processor
+	 */
+	public TileScheduler() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new scheduler with its own pool
+	 *
+	 * @param threads
+	 *            The number of render threads
+	 * @throws IllegalArgumentException
+	 *             If the number of threads is not positive
+	 */
+	public TileScheduler(final int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one thread is required.");
+		this.pool = new ForkJoinPool(threads);
+		this.ownsPool = true;
+	}
+
+	/**
+	 * Creates a new scheduler using the given pool, which is not shut down by
+	 * {@link #shutdown}
+	 *
+	 * @param pool
+	 *            The pool to render on
+	 * @throws IllegalArgumentException
+	 *             If the pool is null
+	 */
+	public TileScheduler(final ForkJoinPool pool) {
+		if (pool == null)
+			throw new IllegalArgumentException("Pool is null.");
+		this.pool = pool;
+		this.ownsPool = false;
+	}
+
+	/**
+	 * Returns the number of render threads
+	 *
+	 * @return The number of render threads
+	 */
+	public int getThreads() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Renders all tiles of an image row by row and waits until they are
+	 * finished
+	 *
+	 * @param width
+	 *            The width of the image
+	 * @param height
+	 *            The height of the image
+	 * @param tile
+	 *            The edge length of the tiles
+	 * @param job
+	 *            The job rendering each tile
+	 * @return The utilisation of the render threads
+	 * @throws IllegalArgumentException
+	 *             If a dimension is not positive or the job is null
+	 */
+	public Report schedule(final int width, final int height, final int tile, final TileJob job) {
+		return schedule(width, height, tile, TileOrder.SCANLINE, job);
+	}
+
+	/**
+	 * Renders all tiles of an image in the given order and waits until they
+	 * are finished. With a single thread the tiles are rendered exactly in
+	 * this order, with more threads each thread renders its ranges of tiles
+	 * in this order.
+	 *
+	 * @param width
+	 *            The width of the image
+	 * @param height
+	 *            The height of the image
+	 * @param tile
+	 *            The edge length of the tiles
+	 * @param order
+	 *            The order of the tiles
+	 * @param job
+	 *            The job rendering each tile
+	 * @return The utilisation of the render threads
+	 * @throws IllegalArgumentException
+	 *             If a dimension is not positive or the order or the job is
+	 *             null
+	 */
+	public Report schedule(final int width, final int height, final int tile, final TileOrder order,
+			final TileJob job) {
+		if (width < 1 || height < 1 || tile < 1)
+			throw new IllegalArgumentException("Image and tile dimensions must be positive.");
+		if (order == null)
+			throw new IllegalArgumentException("Order is null.");
+		if (job == null)
+			throw new IllegalArgumentException("Job is null.");
+
+		final Frame frame = new Frame(width, height, tile, order, job);
+		final long steals = pool.getStealCount();
+		final long start = System.nanoTime();
+		pool.invoke(new TileRange(frame, 0, frame.cols * frame.rows));
+		final long wall = System.nanoTime() - start;
+		return new Report(wall, pool.getStealCount() - steals, frame.stats);
+	}
+
+	/**
+	 * Shuts down the pool of this scheduler if it has been created by it
+	 */
+	public void shutdown() {
+		if (ownsPool)
+			pool.shutdown();
+	}
+
+	/**
+	 * Holds the parameters and the per-thread statistics of a single image
+	 */
+	private static final class Frame {
+		private final int width, height, tile, cols, rows;
+		private final int[] order;
+		private final TileJob job;
+		private final ConcurrentHashMap<Thread, ThreadStats> stats = new ConcurrentHashMap<>();
+
+		Frame(final int width, final int height, final int tile, final TileOrder order, final TileJob job) {
+			this.width = width;
+			this.height = height;
+			this.tile = tile;
+			this.cols = (width + tile - 1) / tile;
+			this.rows = (height + tile - 1) / tile;
+			this.order = order.order(cols, rows);
+			this.job = job;
+		}
+
+		void render(final int index) {
+			final int cell = order[index];
+			final int x = (cell % cols) * tile;
+			final int y = (cell / cols) * tile;
+			final long start = System.nanoTime();
+			job.render(x, y, Math.min(tile, width - x), Math.min(tile, height - y));
+			final long busy = System.nanoTime() - start;
+
+			final Thread thread = Thread.currentThread();
+			ThreadStats s = stats.get(thread);
+			if (s == null) {
+				s = new ThreadStats(thread.getName());
+				final ThreadStats prev = stats.putIfAbsent(thread, s);
+				if (prev != null)
+					s = prev;
+			}
+			s.tiles.incrementAndGet();
+			s.busy.addAndGet(busy);
+		}
+	}
+
+	/**
+	 * Renders the tiles from (inclusive) to to (exclusive) by splitting the
+	 * range in halves until single tiles remain
+	 */
+	@SuppressWarnings("serial")
+	private static final class TileRange extends RecursiveAction {
+		private final Frame frame;
+		private final int from, to;
+
+		TileRange(final Frame frame, final int from, final int to) {
+			this.frame = frame;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				frame.render(from);
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new TileRange(frame, from, mid), new TileRange(frame, mid, to));
+		}
+	}
+
+	/**
+	 * Holds the statistics of a single render thread
+	 */
+	public static final class ThreadStats {
+		private final String name;
+		private final AtomicLong tiles = new AtomicLong();
+		private final AtomicLong busy = new AtomicLong();
+
+		private ThreadStats(final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns the name of the thread
+		 *
+		 * @return The name of the thread
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the number of tiles rendered by the thread
+		 *
+		 * @return The number of rendered tiles
+		 */
+		public long getTiles() {
+			return tiles.get();
+		}
+
+		/**
+		 * Returns the time the thread spent rendering tiles
+		 *
+		 * @return The busy time in nanoseconds
+		 */
+		public long getBusyNanos() {
+			return busy.get();
+		}
+	}
+
+	/**
+	 * Represents the utilisation of the render threads while rendering an
+	 * image
+	 */
+	public static final class Report {
+		private final long wallNanos, steals;
+		private final List<ThreadStats> threads;
+
+		private Report(final long wallNanos, final long steals, final ConcurrentHashMap<Thread, ThreadStats> stats) {
+			this.wallNanos = wallNanos;
+			this.steals = steals;
+			this.threads = new ArrayList<>(stats.values());
+			Collections.sort(this.threads, new Comparator<ThreadStats>() {
+				@Override
+				public int compare(final ThreadStats a, final ThreadStats b) {
+					return a.name.compareTo(b.name);
+				}
+			});
+		}
+
+		/**
+		 * Returns the time needed to render the whole image
+		 *
+		 * @return The wall clock time in nanoseconds
+		 */
+		public long getWallNanos() {
+			return wallNanos;
+		}
+
+		/**
+		 * Returns the number of tasks stolen between the threads
+		 *
+		 * @return The number of steals
+		 */
+		public long getSteals() {
+			return steals;
+		}
+
+		/**
+		 * Returns the statistics of all threads that rendered at least one tile
+		 *
+		 * @return The statistics sorted by thread name
+		 */
+		public List<ThreadStats> getThreads() {
+			return Collections.unmodifiableList(threads);
+		}
+
+		/**
+		 * Returns the utilisation of the given thread, which is the fraction
+		 * of the wall clock time spent rendering tiles
+		 *
+		 * @param stats
+		 *            The statistics of the thread
+		 * @return The utilisation between 0 and 1
+		 */
+		public double getUtilisation(final ThreadStats stats) {
+			return wallNanos == 0 ? 0 : Math.min(1, (double) stats.getBusyNanos() / wallNanos);
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder();
+			sb.append(String.format(Locale.ENGLISH, "%.1f ms, %d steals%n", wallNanos / 1e6, steals));
+			for (final ThreadStats s : threads)
+				sb.append(String.format(Locale.ENGLISH, "  %-32s %6d tiles %5.1f%% busy%n", s.name, s.getTiles(),
+						100 * getUtilisation(s)));
+			return sb.toString();
+		}
+	}
+
+}
@@ -109,9 +109,33 @@ public abstract class Trace {
 	 * @return A new spawned trace
 	 */
 	public Trace spawn(final Point p, final Vec3 /* normalized */dir) {
+		if (RenderStats.ENABLED && gen + 1 <= DEPTH)
+			RenderStats.count(RenderStats.Counter.SECONDARY_RAYS);
 		return create(gen + 1, new Ray(p, dir), scene);
 	}
 
+	/**
+	 * Checks whether a ray spawned from the given point p with the given
+	 * direction dir is blocked before it reaches the given distance. Like
+	 * spawned traces, the check never reports a blocker once the maximum depth
+	 * is exceeded.
+	 *
+	 * @param p
+	 *            The origin of the ray
+	 * @param dir
+	 *            The direction of the ray (normalized)
+	 * @param maxDist
+	 *            The maximum distance
+	 * @return True if the ray is blocked within the given distance
+	 */
+	public boolean occluded(final Point p, final Vec3 /* normalized */dir, final float maxDist) {
+		if (gen + 1 > DEPTH)
+			return false;
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.SHADOW_RAYS);
+		return scene.occluded(new Ray(p, dir), maxDist);
+	}
+
 	/**
 	 * Returns a primary trace (with generation 0)
 	 *
@@ -122,6 +146,8 @@ public abstract class Trace {
 	 * @return A primary trace (with generation 0)
 	 */
 	public static Trace primary(final Scene scene, final Ray ray) {
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.PRIMARY_RAYS);
 		return new NormalTrace(0, ray, scene);
 	}
 
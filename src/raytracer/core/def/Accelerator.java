@@ -1,9 +1,11 @@
 package raytracer.core.def;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
 import raytracer.core.Trace;
 import raytracer.math.Color;
+import raytracer.math.Ray;
 
 /**
  * A base class for all intersection acceleration structures
@@ -26,4 +28,28 @@ public abstract class Accelerator implements Obj {
 	 */
 	public abstract void add(Obj prim);
 
+	/**
+	 * Computes the nearest hit through {@link #intersect}, so that only the
+	 * final nearest hit is created
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The computed hit
+	 */
+	protected final Hit nearestHit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		final HitRecord record = HitRecord.acquire(tmax);
+		try {
+			intersect(ray, obj, tmin, record);
+			return record.toHit(ray);
+		} finally {
+			record.release();
+		}
+	}
+
 }
@@ -1,5 +1,6 @@
 package raytracer.core.def;
 
+import java.util.Collections;
 import java.util.List;
 
 import raytracer.core.Obj;
@@ -11,11 +12,6 @@ import raytracer.math.Vec3;
  * Represents a base class for bounding volume hierarchies
  */
 public abstract class BVHBase extends Accelerator {
-	/**
-	 * Distribute the objects in sub-BHVs if the current BVH contains more
-	 * elements than this number describes
-	 */
-	public static final int THRESHOLD = 4;
 
 	/**
 	 * Returns the inner objects
@@ -24,6 +20,32 @@ public abstract class BVHBase extends Accelerator {
 	 */
 	public abstract List<Obj> getObjects();
 
+	/**
+	 * Returns the objects without a finite bounding box, like planes, which
+	 * are kept out of the hierarchy and are tested by every ray. The default
+	 * implementation keeps no such objects.
+	 *
+	 * @return The unbounded objects
+	 */
+	public List<Obj> getUnbounded() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Returns the nodes of the built hierarchy. These are the sub-BVHs for an
+	 * inner node and the contained objects for a leaf.
+	 *
+	 * @return The nodes of the built hierarchy
+	 */
+	public abstract List<Obj> getNodes();
+
+	/**
+	 * Returns true if this BVH is a leaf of the built hierarchy
+	 *
+	 * @return True if this BVH is a leaf of the built hierarchy
+	 */
+	public abstract boolean isLeaf();
+
 	/**
 	 * Builds the actual bounding volume hierarchy
 	 */
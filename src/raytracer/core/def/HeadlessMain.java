@@ -0,0 +1,311 @@
+package raytracer.core.def;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+import raytracer.core.FrameBuffer;
+import raytracer.core.RenderStats;
+import raytracer.core.Renderer;
+import raytracer.core.Scene;
+import raytracer.core.TileOrder;
+import raytracer.core.TileScheduler;
+
+/**
+ * Renders the demo scene of {@link Main} without a window and writes the image
+ * to a file. The image format is chosen by the file name extension: ".ppm"
+ * writes a binary PPM (P6), every other extension is passed to ImageIO, for
+ * example ".png".
+ *
+ * With --adaptive the fixed super sampling grid is replaced by adaptive
+ * sampling with the given color threshold, refining each pixel at most
+ * --max-depth times. --order and --pixel-order choose the order of the tiles
+ * and of the pixels within each tile: scanline, morton, hilbert or spiral.
+ *
+ * Run with -Draytracer.stats=true to print the ray and intersection counts of
+ * the frame and its most expensive tiles.
+ *
+ * Usage: HeadlessMain [--width 640] [--height 480] [--samples 2] [--adaptive
+ * 0.1] [--max-depth 2] [--threads #cores] [--tile 16] [--order scanline]
+ * [--pixel-order scanline] [--output out.png]
+ */
+public class HeadlessMain {
+
+	private int width = 640, height = 480, samples = 2, tile = 16, maxDepth = 2;
+	private float threshold = -1;
+	private TileOrder order = TileOrder.SCANLINE, pixelOrder = TileOrder.SCANLINE;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private String output = "out.png";
+
+	/**
+	 * Parses the given command line arguments
+	 *
+	 * @throws IllegalArgumentException
+	 *             If an argument is unknown, lacks its value or is out of
+	 *             range
+	 */
+	private HeadlessMain(final String[] args) {
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value for " + args[i] + ".");
+			final String value = args[i + 1];
+			switch (args[i]) {
+			case "--width":
+				width = positive(args[i], value);
+				break;
+			case "--height":
+				height = positive(args[i], value);
+				break;
+			case "--samples":
+				samples = positive(args[i], value);
+				break;
+			case "--adaptive":
+				threshold = threshold(args[i], value);
+				break;
+			case "--max-depth":
+				maxDepth = nonNegative(args[i], value);
+				break;
+			case "--threads":
+				threads = positive(args[i], value);
+				break;
+			case "--tile":
+				tile = positive(args[i], value);
+				break;
+			case "--order":
+				order = TileOrder.forName(value);
+				break;
+			case "--pixel-order":
+				pixelOrder = TileOrder.forName(value);
+				break;
+			case "--output":
+				if (value.isEmpty())
+					throw new IllegalArgumentException("Output path is empty.");
+				output = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown argument " + args[i] + ".");
+			}
+		}
+	}
+
+	private static int positive(final String name, final String value) {
+		final int res = nonNegative(name, value);
+		if (res < 1)
+			throw new IllegalArgumentException(name + " must be positive.");
+		return res;
+	}
+
+	private static int nonNegative(final String name, final String value) {
+		final int res;
+		try {
+			res = Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException(name + " expects a number, but got " + value + ".");
+		}
+		if (res < 0)
+			throw new IllegalArgumentException(name + " must not be negative.");
+		return res;
+	}
+
+	private static float threshold(final String name, final String value) {
+		final float res;
+		try {
+			res = Float.parseFloat(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException(name + " expects a number, but got " + value + ".");
+		}
+		if (!(res >= 0 && res <= 1))
+			throw new IllegalArgumentException(name + " must be between 0 and 1.");
+		return res;
+	}
+
+	/**
+	 * Renders the given scene into a frame buffer
+	 *
+	 * @param scene
+	 *            The scene to render
+	 * @param width
+	 *            The X resolution
+	 * @param height
+	 *            The Y resolution
+	 * @param samples
+	 *            The amount of super sampling per dimension
+	 * @param scheduler
+	 *            The scheduler distributing the tiles to the render threads
+	 * @param tile
+	 *            The edge length of the tiles rendered at once
+	 * @return The rendered image
+	 */
+	public static FrameBuffer render(final Scene scene, final int width, final int height, final int samples,
+			final TileScheduler scheduler, final int tile) {
+		return render(new Renderer(scene, width, height, samples), width, height, scheduler, tile,
+				TileOrder.SCANLINE);
+	}
+
+	/**
+	 * Renders an image with the given renderer into a frame buffer, which the
+	 * render threads write into directly
+	 *
+	 * @param r
+	 *            The renderer, created for the given resolution
+	 * @param width
+	 *            The X resolution
+	 * @param height
+	 *            The Y resolution
+	 * @param scheduler
+	 *            The scheduler distributing the tiles to the render threads
+	 * @param tile
+	 *            The edge length of the tiles rendered at once
+	 * @param order
+	 *            The order of the tiles
+	 * @return The rendered image
+	 */
+	public static FrameBuffer render(final Renderer r, final int width, final int height,
+			final TileScheduler scheduler, final int tile, final TileOrder order) {
+		final FrameBuffer frame = new FrameBuffer(width, height);
+		render(r, frame, scheduler, tile, order);
+		return frame;
+	}
+
+	/**
+	 * Renders an image with the given renderer into the given frame buffer,
+	 * which the render threads write into directly
+	 *
+	 * @param r
+	 *            The renderer, created for the resolution of the frame buffer
+	 * @param frame
+	 *            The frame buffer receiving the image
+	 * @param scheduler
+	 *            The scheduler distributing the tiles to the render threads
+	 * @param tile
+	 *            The edge length of the tiles rendered at once
+	 * @param order
+	 *            The order of the tiles
+	 * @return The utilisation of the render threads
+	 */
+	public static TileScheduler.Report render(final Renderer r, final FrameBuffer frame,
+			final TileScheduler scheduler, final int tile, final TileOrder order) {
+		return scheduler.schedule(frame.getWidth(), frame.getHeight(), tile, order, new TileScheduler.TileJob() {
+			@Override
+			public void render(final int x, final int y, final int w, final int h) {
+				r.renderTile(x, y, w, h, frame);
+			}
+		});
+	}
+
+	/**
+	 * Writes the given image to a file whose format is chosen by its
+	 * extension
+	 *
+	 * @param frame
+	 *            The image
+	 * @param filename
+	 *            The file to write
+	 * @throws IOException
+	 *             If the file cannot be written or ImageIO does not support
+	 *             its format
+	 */
+	public static void write(final FrameBuffer frame, final String filename) throws IOException {
+		final int dot = filename.lastIndexOf('.');
+		final String format = dot < 0 ? "" : filename.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+
+		if (format.equals("ppm")) {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename))) {
+				writePPM(frame, out);
+			}
+			return;
+		}
+
+		if (!ImageIO.write(frame.getImage(), format, new File(filename)))
+			throw new IOException("Unsupported image format: " + filename);
+	}
+
+	/**
+	 * Writes the given image as binary PPM (P6)
+	 *
+	 * @param frame
+	 *            The image
+	 * @param out
+	 *            The stream to write to
+	 * @throws IOException
+	 *             If writing fails
+	 */
+	public static void writePPM(final FrameBuffer frame, final OutputStream out) throws IOException {
+		final int width = frame.getWidth(), height = frame.getHeight();
+		out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+		final byte[] row = new byte[3 * width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final int rgb = frame.get(x, y);
+				row[3 * x] = (byte) (rgb >> 16);
+				row[3 * x + 1] = (byte) (rgb >> 8);
+				row[3 * x + 2] = (byte) rgb;
+			}
+			out.write(row);
+		}
+	}
+
+	public static void main(final String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		final HeadlessMain opts;
+		try {
+			opts = new HeadlessMain(args);
+		} catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: HeadlessMain [--width 640] [--height 480] [--samples 2] [--adaptive 0.1]"
+					+ " [--max-depth 2] [--threads #cores] [--tile 16] [--order scanline|morton|hilbert|spiral]"
+					+ " [--pixel-order scanline|morton|hilbert|spiral] [--output out.png|out.ppm]");
+			System.exit(1);
+			return;
+		}
+
+		try {
+			final long loadStart = System.nanoTime();
+			final Scene scene = Main.createScene(opts.width, opts.height);
+			final long renderStart = System.nanoTime();
+			final TileScheduler scheduler = new TileScheduler(opts.threads);
+			final Renderer renderer = opts.threshold < 0
+					? new Renderer(scene, opts.width, opts.height, opts.samples)
+					: new Renderer(scene, opts.width, opts.height, opts.threshold, opts.maxDepth);
+			renderer.setPixelOrder(opts.pixelOrder);
+			final FrameBuffer frame = new FrameBuffer(opts.width, opts.height);
+			final TileScheduler.Report report;
+			try {
+				report = render(renderer, frame, scheduler, opts.tile, opts.order);
+			} finally {
+				scheduler.shutdown();
+			}
+			final long renderEnd = System.nanoTime();
+			write(frame, opts.output);
+
+			final double seconds = (renderEnd - renderStart) / 1e9;
+			final double rays = renderer.getPrimaryRays();
+			final String sampling = opts.threshold < 0 ? (opts.samples * opts.samples) + " samples per pixel"
+					: String.format(Locale.ENGLISH, "adaptive (threshold %.3f, max depth %d, %.2f samples per pixel)",
+							opts.threshold, opts.maxDepth, rays / opts.width / opts.height);
+			System.out.printf(Locale.ENGLISH, "scene loaded in %.1f ms%n", (renderStart - loadStart) / 1e6);
+			System.out.printf(Locale.ENGLISH, "rendered %dx%d, %s, %d threads, %dpx tiles in %.1f ms%n", opts.width,
+					opts.height, sampling, opts.threads, opts.tile, seconds * 1e3);
+			System.out.printf(Locale.ENGLISH, "%.2f Mrays/s (primary rays)%n", rays / seconds / 1e6);
+			System.out.print(report);
+			if (RenderStats.ENABLED)
+				System.out.print(renderer.getStats());
+			System.out.println("written to " + opts.output);
+		} catch (final FileNotFoundException e) {
+			System.err.println(e);
+			System.exit(1);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+}
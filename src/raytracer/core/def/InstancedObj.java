@@ -0,0 +1,243 @@
+package raytracer.core.def;
+
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
+import raytracer.core.Obj;
+import raytracer.core.Trace;
+import raytracer.geom.BBox;
+import raytracer.math.Color;
+import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Transform;
+import raytracer.math.Vec2;
+import raytracer.math.Vec3;
+
+/**
+ * Represents an instance of a shared object, for example a built
+ * {@link BVH} of a mesh, placed in the scene by an affine transformation. Rays
+ * are transformed into the space of the shared object and its hits are
+ * transformed back, so any number of instances share one copy of the
+ * geometry and its acceleration structure.
+ *
+ * The hits of an instance are the hits of the shared object, so they are
+ * shaded by the shaders of the shared object.
+ */
+public class InstancedObj implements Obj {
+
+	private final Obj object;
+	private Transform transform;
+	private BBox bbox;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param object
+	 *            The shared object
+	 * @param transform
+	 *            The transformation from the space of the shared object into
+	 *            the scene
+	 * @throws IllegalArgumentException
+	 *             If the object or the transformation is null
+	 */
+	public InstancedObj(final Obj object, final Transform transform) {
+		if (object == null)
+			throw new IllegalArgumentException("Object is null.");
+		this.object = object;
+		setTransform(transform);
+	}
+
+	/**
+	 * Returns the shared object
+	 *
+	 * @return The shared object
+	 */
+	public Obj getObject() {
+		return object;
+	}
+
+	/**
+	 * Returns the transformation from the space of the shared object into the
+	 * scene
+	 *
+	 * @return The transformation
+	 */
+	public Transform getTransform() {
+		return transform;
+	}
+
+	/**
+	 * Moves the instance. Accelerators containing the instance have to be
+	 * refitted or rebuilt afterwards, and the instance must not be moved while
+	 * it is intersected.
+	 *
+	 * @param transform
+	 *            The new transformation from the space of the shared object
+	 *            into the scene
+	 * @throws IllegalArgumentException
+	 *             If the transformation is null
+	 */
+	public void setTransform(final Transform transform) {
+		if (transform == null)
+			throw new IllegalArgumentException("Transform is null.");
+		this.transform = transform;
+		this.bbox = transform(object.bbox(), transform);
+	}
+
+	/**
+	 * Computes the bounding box of the transformed corners of the given box
+	 */
+	private static BBox transform(final BBox box, final Transform transform) {
+		if (box.getMin().isInfinity() || box.getMax().isInfinity())
+			return box.equals(BBox.EMPTY) ? BBox.EMPTY : BBox.INF;
+
+		BBox res = BBox.EMPTY;
+		for (int i = 0; i < 8; i++) {
+			final Point corner = new Point(
+					((i & 1) == 0 ? box.getMin() : box.getMax()).x(),
+					((i & 2) == 0 ? box.getMin() : box.getMax()).y(),
+					((i & 4) == 0 ? box.getMin() : box.getMax()).z());
+			final Point p = transform.apply(corner);
+			res = BBox.surround(res, BBox.create(p, p));
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the bounding box of the transformed shared object
+	 */
+	@Override
+	public BBox bbox() {
+		return bbox;
+	}
+
+	/**
+	 * Computes a hit point with the given parameters
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The computed hit
+	 */
+	@Override
+	public Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		final Vec3 dir = transform.applyInverse(ray.dir());
+		final float scale = dir.norm();
+		final Ray local = new Ray(transform.applyInverse(ray.base()), dir.scale(1 / scale));
+		final Hit hit = object.hit(local, object, tmin * scale, tmax * scale);
+		return hit.hits() ? new InstanceHit(hit, ray, hit.getParameter() / scale, transform) : hit;
+	}
+
+	/**
+	 * Records the nearest hit of the shared object along the ray transformed
+	 * into its space. The direction of the transformed ray is normalized
+	 * again, so distances along it are scaled by the length of the
+	 * transformed direction.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far
+	 * @return True if a closer hit has been recorded
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		final Vec3 dir = transform.applyInverse(ray.dir());
+		final float scale = dir.norm();
+		final Ray local = new Ray(transform.applyInverse(ray.base()), dir.scale(1 / scale));
+		final HitRecord inner = HitRecord.acquire(record.t * scale);
+		try {
+			if (!object.intersect(local, object, tmin * scale, inner))
+				return false;
+			final float t = inner.t / scale;
+			if (!(t < record.t))
+				return false;
+			record.set(new InstanceHit(inner.toHit(local), ray, t, transform), inner.getObj(), this);
+			return true;
+		} finally {
+			inner.release();
+		}
+	}
+
+	/**
+	 * Checks whether the shared object blocks the transformed ray
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		final Vec3 dir = transform.applyInverse(ray.dir());
+		final float scale = dir.norm();
+		final Ray local = new Ray(transform.applyInverse(ray.base()), dir.scale(1 / scale));
+		return object.occluded(local, maxDist * scale);
+	}
+
+	/**
+	 * Shades the given hit by the shared object
+	 */
+	@Override
+	public Color shade(final Hit hit, final Trace trace) {
+		return object.shade(hit, trace);
+	}
+
+	/**
+	 * A hit of the shared object transformed into the scene
+	 */
+	private static final class InstanceHit implements Hit {
+
+		private final Hit local;
+		private final Ray ray;
+		private final float t;
+		private final Transform transform;
+		private Point point;
+		private Vec3 normal;
+
+		InstanceHit(final Hit local, final Ray ray, final float t, final Transform transform) {
+			this.local = local;
+			this.ray = ray;
+			this.t = t;
+			this.transform = transform;
+		}
+
+		@Override
+		public boolean hits() {
+			return true;
+		}
+
+		@Override
+		public float getParameter() {
+			return t;
+		}
+
+		@Override
+		public Point getPoint() {
+			if (point == null)
+				point = ray.eval(t);
+			return point;
+		}
+
+		@Override
+		public Vec3 getNormal() {
+			if (normal == null)
+				normal = transform.applyNormal(local.getNormal());
+			return normal;
+		}
+
+		@Override
+		public Vec2 getUV() {
+			return local.getUV();
+		}
+
+		@Override
+		public Obj get() {
+			return local.get();
+		}
+	}
+
+}
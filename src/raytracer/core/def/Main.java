@@ -2,19 +2,17 @@ package raytracer.core.def;
 
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import raytracer.core.*;
 import raytracer.geom.GeomFactory;
@@ -26,15 +24,29 @@ import raytracer.math.Vec3;
 import raytracer.shade.ShaderFactory;
 import raytracer.shade.SingleColor;
 
+/**
+ * Renders the demo scene into a window. By default the image is refined
+ * progressively, with --mode tiles each tile is rendered completely at once.
+ *
+ * Usage: Main [--mode progressive|tiles]
+ */
 public class Main {
 
+	/**
+	 * The interval in milliseconds in which the panel shows the progress of
+	 * the render threads
+	 */
+	private static final int REFRESH_INTERVAL = 100;
+
 	@SuppressWarnings("serial")
 	private static class MyPanel extends JPanel {
 
 		private final BufferedImage img;
+		private final FrameBuffer frame;
 
 		public MyPanel(final int w, final int h) {
 			img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+			frame = new FrameBuffer(img);
 		}
 
 		@Override
@@ -42,8 +54,14 @@ public class Main {
 			return new Dimension(img.getWidth(), img.getHeight());
 		}
 
-		public void drawPacket(final int x, final int y, final int w, final int h, final int[] data) {
-			img.setRGB(x, y, w, h, data, 0, w);
+		/**
+		 * Returns the frame buffer the render threads write the shown image
+		 * into
+		 *
+		 * @return The frame buffer of the panel
+		 */
+		public FrameBuffer getFrame() {
+			return frame;
 		}
 
 		@Override
@@ -53,20 +71,19 @@ public class Main {
 		}
 	}
 
-	public static void main(final String[] args) {
-		final int xRes = 640, yRes = 480, packet = 16;
-		final MyPanel panel = new MyPanel(xRes, yRes);
-
-		SwingUtilities.invokeLater(new Runnable() {
-			@Override
-			public void run() {
-				final JFrame f = new JFrame("Prog2 Raytracer");
-				f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-				f.add(panel);
-				f.pack();
-				f.setVisible(true);
-			}
-		});
+	/**
+	 * Creates the demo scene
+	 *
+	 * @param xRes
+	 *            The X resolution the scene is rendered with
+	 * @param yRes
+	 *            The Y resolution the scene is rendered with, which together
+	 *            with xRes determines the aspect ratio of the camera
+	 * @return The created scene
+	 * @throws FileNotFoundException
+	 *             If a model file of the scene cannot be found
+	 */
+	public static Scene createScene(final int xRes, final int yRes) throws FileNotFoundException {
 		final boolean implementedPlane        = true; // TODO implement Plane
 		final boolean implementedCheckerBoard = true; // TODO implement CheckerBoard
 		final boolean implementedSphere       = true; // TODO implement Sphere
@@ -75,10 +92,8 @@ public class Main {
 		final boolean implementedBVH          = true; // TODO implement BVH
 		final LightSource ls      = new PointLightSource(new Point(-10, 10, -10), Color.WHITE);
 		final Color       ambient = Color.WHITE.scale(0.05f);
-		final Camera      cam     = new PerspectiveCamera(new Point(0, 4, -10), Point.ORIGIN, new Vec3(0, 5, 0), 3, 4, 3);
-		final Accelerator accel   = new SimpleAccelerator();
-
-		Long currentTimeMillis = System.currentTimeMillis();
+		final Camera      cam     = new PerspectiveCamera(new Point(0, 4, -10), Point.ORIGIN, new Vec3(0, 5, 0), 3, 3f * xRes / yRes, 3);
+		final TopLevelBVH accel   = new TopLevelBVH();
 
 		{
 			final Primitive tri      = GeomFactory.createTriangle(new Point(-3, .5f, -1.5f), new Point(-1, 2.5f, -1.5f), new Point(1, .5f, -1.5f));
@@ -115,62 +130,130 @@ public class Main {
 		}
 
 		if (implementedOBJReader) {
-			final BVH bvh = implementedBVH ? new BVH() : null;
-			try {
-				final String filename;
-				final float  scale;
-				if (implementedBVH) {
-					filename = "obj/bunny.obj";
-					scale    = 25;
-				} else {
-					filename = "obj/pyramid.obj";
-					scale    = 1;
-				}
-
-				final Shader green  = new SingleColor(Color.GREEN);
-				final Shader shader = implementedPhong ? ShaderFactory.createPhong(green, ambient, 1.f, .5f, 50) : green;
-				OBJReader.read(filename, bvh != null ? bvh : accel, shader, scale, new Vec3(-3, 0, 0));
-			} catch (final FileNotFoundException e) {
-				System.err.println(e);
-				return;
+			final String filename;
+			final float  scale;
+			if (implementedBVH) {
+				filename = "obj/bunny.obj";
+				scale    = 25;
+			} else {
+				filename = "obj/pyramid.obj";
+				scale    = 1;
 			}
 
-			if (bvh != null) {
-				bvh.buildBVH();
-				accel.add(bvh);
-			}
+			final Shader green  = new SingleColor(Color.GREEN);
+			final Shader shader = implementedPhong ? ShaderFactory.createPhong(green, ambient, 1.f, .5f, 50) : green;
+			if (implementedBVH)
+				accel.add(OBJCache.readMesh(filename, shader, scale, new Vec3(-3, 0, 0)));
+			else
+				OBJReader.read(filename, accel, shader, scale, new Vec3(-3, 0, 0));
 		}
 
 		final List<LightSource> lights = new ArrayList<LightSource>();
 		lights.add(ls);
 
-		final Scene    scene = new StandardScene(cam, lights, accel);
-		final Renderer r     = new Renderer(scene, xRes, yRes, 2);
-
+		accel.build();
+		return new StandardScene(cam, lights, accel);
+	}
 
-		final Executor exe = Executors.newFixedThreadPool(2);
-		final CompletionService<Renderer.Work> ecs = new ExecutorCompletionService<Renderer.Work>(exe);
-		int num = 0;
-		for (int x = 0; x < xRes; x += packet) {
-			for (int y = 0; y < yRes; y += packet) {
-				ecs.submit(r.render(x, y, packet, packet));
-				num = num + 1;
+	/**
+	 * Parses the given command line arguments
+	 *
+	 * @return True if the image is refined progressively
+	 * @throws IllegalArgumentException
+	 *             If an argument is unknown, lacks its value or is out of
+	 *             range
+	 */
+	private static boolean parseProgressive(final String[] args) {
+		boolean progressive = true;
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value for " + args[i] + ".");
+			final String value = args[i + 1];
+			switch (args[i]) {
+			case "--mode":
+				if (value.equals("progressive"))
+					progressive = true;
+				else if (value.equals("tiles"))
+					progressive = false;
+				else
+					throw new IllegalArgumentException("--mode must be progressive or tiles, but got " + value + ".");
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown argument " + args[i] + ".");
 			}
 		}
+		return progressive;
+	}
 
-		for (int i = 0; i < num; i++) {
-			try {
-				final Renderer.Work w = ecs.take().get();
-				panel.drawPacket(w.x, w.y, packet, packet, w.pixels);
-				if (i % 100 == 0)
-					panel.repaint();
-			} catch (final InterruptedException e) {
-				e.printStackTrace();
-			} catch (final ExecutionException e) {
-				e.printStackTrace();
+	public static void main(final String[] args) {
+		final boolean progressive;
+		try {
+			progressive = parseProgressive(args);
+		} catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: Main [--mode progressive|tiles]");
+			System.exit(1);
+			return;
+		}
+
+		final int xRes = 640, yRes = 480, packet = 16;
+		final MyPanel panel = new MyPanel(xRes, yRes);
+
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				final JFrame f = new JFrame("Prog2 Raytracer");
+				f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+				f.add(panel);
+				f.pack();
+				f.setVisible(true);
+			}
+		});
+		final long currentTimeMillis = System.currentTimeMillis();
+
+		// the render threads write into the image of the panel, which is
+		// repainted at a fixed rate independent of their progress
+		final Timer refresh = new Timer(REFRESH_INTERVAL, new ActionListener() {
+			@Override
+			public void actionPerformed(final ActionEvent e) {
+				panel.repaint();
 			}
+		});
+		refresh.start();
+
+		final Scene scene;
+		try {
+			scene = createScene(xRes, yRes);
+		} catch (final FileNotFoundException e) {
+			System.err.println(e);
+			return;
+		}
+
+		final TileScheduler scheduler = new TileScheduler();
+		if (progressive) {
+			final ProgressiveRenderer r = new ProgressiveRenderer(scene, panel.getFrame(), 2);
+			r.render(scheduler, packet, TileOrder.SPIRAL, new ProgressiveRenderer.PassListener() {
+				@Override
+				public void passDone(final int pass, final int passes, final FrameBuffer frame) {
+					System.out.println("pass " + (pass + 1) + "/" + passes + " --> after "
+							+ (System.currentTimeMillis() - currentTimeMillis));
+				}
+			});
+		} else {
+			final Renderer r = new Renderer(scene, xRes, yRes, 2);
+			r.setPixelOrder(TileOrder.HILBERT);
+			final TileScheduler.Report report = scheduler.schedule(xRes, yRes, packet, TileOrder.SPIRAL,
+					new TileScheduler.TileJob() {
+						@Override
+						public void render(final int x, final int y, final int w, final int h) {
+							r.renderTile(x, y, w, h, panel.getFrame());
+						}
+					});
+			System.out.print(report);
 		}
+		scheduler.shutdown();
 
+		refresh.stop();
 		panel.repaint();
 		System.out.println("done --> after " + (System.currentTimeMillis() - currentTimeMillis));
 	}
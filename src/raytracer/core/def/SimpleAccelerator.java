@@ -4,6 +4,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
 import raytracer.geom.BBox;
 import raytracer.math.Ray;
@@ -48,20 +49,42 @@ public class SimpleAccelerator extends Accelerator {
 	 *            The maximum distance
 	 * @return The computed hit
 	 */
-	public Hit hit(final Ray ray, final Obj obj, final float tmin, float tmax) {
-		Hit nearest = Hit.No.get();
-		for (final Obj p : prims) {
-			final Hit hit = p.hit(ray, p, tmin, tmax);
-			if (hit.hits()) {
-				final float t = hit.getParameter();
-				if (t < tmax) {
-					nearest = hit;
-					tmax = t;
-				}
-			}
-		}
+	@Override
+	public Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		return nearestHit(ray, obj, tmin, tmax);
+	}
 
-		return nearest;
+	/**
+	 * Records the nearest hit of all objects
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far
+	 * @return True if a closer hit has been recorded
+	 */
+	@Override
+	public boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		boolean found = false;
+		for (final Obj p : prims)
+			found |= p.intersect(ray, p, tmin, record);
+		return found;
+	}
+
+	/**
+	 * Checks whether any object blocks the given ray, stopping at the first
+	 * blocker found
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		for (final Obj p : prims)
+			if (p.occluded(ray, maxDist))
+				return true;
+		return false;
 	}
 
 }
@@ -64,6 +64,14 @@ public class StandardObj implements Obj {
 		return primitive.hit(ray, this, tmin, tmax);
 	}
 
+	/**
+	 * Checks whether the encapsulated primitive blocks the given ray
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		return primitive.occluded(ray, maxDist);
+	}
+
 	@Override
 	public int hashCode() {
 		return primitive.hashCode();
@@ -79,4 +79,19 @@ public class StandardScene implements Scene {
 		return accel.hit(ray, null, 0, Float.POSITIVE_INFINITY);
 	}
 
+	/**
+	 * Checks whether the given ray is blocked by any object of the scene
+	 * before it reaches the given distance
+	 *
+	 * @param ray
+	 *            The ray to check
+	 * @param maxDist
+	 *            The maximum distance
+	 * @return True if the ray is blocked within the given distance
+	 */
+	@Override
+	public boolean occluded(final Ray ray, final float maxDist) {
+		return accel.occluded(ray, maxDist);
+	}
+
 }
@@ -0,0 +1,124 @@
+package raytracer.core.dist;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The messages exchanged between the coordinator and its workers. Every
+ * message starts with its type byte, all numbers are big endian as written by
+ * {@link DataOutputStream}.
+ *
+ * <pre>
+ * worker      HELLO  magic:int version:int threads:int
+ * coordinator JOB    job:int scene:UTF width:int height:int tile:int
+ *                    superSample:int threshold:float maxDepth:int
+ * worker      READY  job:int                    (or ERROR message:UTF)
+ * coordinator TILE   job:int tile:int x:int y:int w:int h:int
+ * worker      RESULT job:int tile:int length:int deflated RGB bytes
+ * coordinator BYE
+ * </pre>
+ *
+ * A worker may receive several tiles before it answers and may answer them in
+ * any order.
+ */
+final class Protocol {
+
+	static final int MAGIC = 0x52545752; // "RTWR"
+	static final int VERSION = 1;
+
+	static final byte HELLO = 1, JOB = 2, READY = 3, ERROR = 4, TILE = 5, RESULT = 6, BYE = 7;
+
+	private Protocol() {
+	}
+
+	static void writeJob(final DataOutputStream out, final int id, final RenderJob job) throws IOException {
+		out.writeByte(JOB);
+		out.writeInt(id);
+		out.writeUTF(job.getScene());
+		out.writeInt(job.getWidth());
+		out.writeInt(job.getHeight());
+		out.writeInt(job.getTile());
+		out.writeInt(job.getSuperSample());
+		out.writeFloat(job.isAdaptive() ? job.getThreshold() : -1);
+		out.writeInt(job.getMaxDepth());
+	}
+
+	/**
+	 * Reads the body of a JOB message, whose type has already been read
+	 */
+	static RenderJob readJob(final DataInputStream in) throws IOException {
+		final String scene = in.readUTF();
+		final int width = in.readInt(), height = in.readInt(), tile = in.readInt(), superSample = in.readInt();
+		final float threshold = in.readFloat();
+		final int maxDepth = in.readInt();
+		try {
+			return threshold < 0 ? new RenderJob(scene, width, height, tile, superSample)
+					: new RenderJob(scene, width, height, tile, threshold, maxDepth);
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("Invalid job: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Compresses packed RGB pixels into deflated RGB bytes
+	 */
+	static byte[] compress(final int[] pixels) {
+		final byte[] raw = new byte[3 * pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			raw[3 * i] = (byte) (pixels[i] >> 16);
+			raw[3 * i + 1] = (byte) (pixels[i] >> 8);
+			raw[3 * i + 2] = (byte) pixels[i];
+		}
+
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			byte[] res = new byte[raw.length / 2 + 64];
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == res.length)
+					res = Arrays.copyOf(res, 2 * res.length);
+				length += deflater.deflate(res, length, res.length - length);
+			}
+			return Arrays.copyOf(res, length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompresses the given number of pixels compressed by {@link #compress}
+	 */
+	static int[] decompress(final byte[] data, final int count) throws IOException {
+		final byte[] raw = new byte[3 * count];
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			int length = 0;
+			while (length < raw.length) {
+				final int n = inflater.inflate(raw, length, raw.length - length);
+				if (n == 0 && (inflater.finished() || inflater.needsInput()))
+					break;
+				length += n;
+			}
+			if (length != raw.length)
+				throw new IOException("Truncated tile data.");
+		} catch (final DataFormatException e) {
+			throw new IOException("Corrupt tile data.", e);
+		} finally {
+			inflater.end();
+		}
+
+		final int[] pixels = new int[count];
+		for (int i = 0; i < count; i++)
+			pixels[i] = (raw[3 * i] & 0xff) << 16 | (raw[3 * i + 1] & 0xff) << 8 | raw[3 * i + 2] & 0xff;
+		return pixels;
+	}
+
+}
@@ -0,0 +1,643 @@
+package raytracer.core.dist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import raytracer.core.FrameBuffer;
+import raytracer.core.def.HeadlessMain;
+
+/**
+ * Renders images on {@link RenderWorker}s connected over TCP. The coordinator
+ * splits each image into tiles and keeps one more tile than it has threads in
+ * flight on every worker, so the workers never wait for the network.
+ *
+ * The tiles of a worker whose connection breaks are handed to the others.
+ * When no tiles are left to hand out, tiles that take much longer than the
+ * average tile are handed out a second time, so a slow worker does not hold up
+ * the frame; the first result of a tile wins.
+ *
+ * Usage: RenderCoordinator [--port 7077] [--spawn 0] [--workers 1] [--width
+ * 640] [--height 480] [--samples 2] [--adaptive 0.1] [--max-depth 2] [--tile
+ * 32] [--frames 1] [--output out.png]
+ */
+public class RenderCoordinator implements Closeable {
+
+	/**
+	 * The interval in milliseconds in which a frame looks for slow tiles
+	 */
+	private static final long POLL = 50;
+
+	/**
+	 * A tile is handed out again when it takes this many times as long as the
+	 * average tile
+	 */
+	private static final int SLOW_FACTOR = 4;
+
+	/**
+	 * The maximum length of a compressed tile in bytes
+	 */
+	private static final int MAX_RESULT = 1 << 26;
+
+	private final ServerSocket server;
+	private final long slowTimeout, workerTimeout;
+
+	// guarded by this
+	private final List<Connection> workers = new ArrayList<>();
+	private Frame frame;
+	private int nextJob;
+	private boolean closed;
+	private long reassigned, duplicated;
+
+	/**
+	 * Creates a new coordinator listening for workers
+	 *
+	 * @param port
+	 *            The port to listen on, 0 for any free port
+	 * @param slowTimeout
+	 *            The minimum time in milliseconds before a tile is handed out a
+	 *            second time
+	 * @param workerTimeout
+	 *            The time in milliseconds a frame waits for a worker to
+	 *            connect when none is left
+	 * @throws IOException
+	 *             If the port cannot be opened
+	 * @throws IllegalArgumentException
+	 *             If the port is out of range or a timeout is negative
+	 */
+	public RenderCoordinator(final int port, final long slowTimeout, final long workerTimeout) throws IOException {
+		if (port < 0 || port > 0xffff)
+			throw new IllegalArgumentException("Port " + port + " is out of range.");
+		if (slowTimeout < 0 || workerTimeout < 0)
+			throw new IllegalArgumentException("Timeouts must not be negative.");
+		this.slowTimeout = slowTimeout;
+		this.workerTimeout = workerTimeout;
+		server = new ServerSocket(port);
+
+		final Thread acceptor = new Thread("render-coordinator") {
+			@Override
+			public void run() {
+				while (true) {
+					final Socket socket;
+					try {
+						socket = server.accept();
+					} catch (final IOException e) {
+						return; // closed
+					}
+					try {
+						new Connection(socket).start();
+					} catch (final IOException e) {
+						try {
+							socket.close();
+						} catch (final IOException ignored) {
+						}
+					}
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Returns the port the coordinator listens on
+	 *
+	 * @return The port
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Returns the number of connected workers
+	 *
+	 * @return The number of workers
+	 */
+	public synchronized int getWorkers() {
+		return workers.size();
+	}
+
+	/**
+	 * Returns the number of tiles handed to other workers because the
+	 * connection to their worker broke
+	 *
+	 * @return The number of reassigned tiles
+	 */
+	public synchronized long getReassigned() {
+		return reassigned;
+	}
+
+	/**
+	 * Returns the number of tiles handed out a second time because their
+	 * worker was slow
+	 *
+	 * @return The number of duplicated tiles
+	 */
+	public synchronized long getDuplicated() {
+		return duplicated;
+	}
+
+	/**
+	 * Waits until the given number of workers is connected
+	 *
+	 * @param count
+	 *            The number of workers
+	 * @param timeout
+	 *            The maximum time to wait in milliseconds
+	 * @return True if the workers are connected, false if the time ran out
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting
+	 */
+	public synchronized boolean awaitWorkers(final int count, final long timeout) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (workers.size() < count) {
+			final long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (left <= 0)
+				return false;
+			wait(left);
+		}
+		return true;
+	}
+
+	/**
+	 * Renders an image on the connected workers
+	 *
+	 * @param job
+	 *            The image to render
+	 * @return The frame buffer containing the image
+	 * @throws IOException
+	 *             If no worker is connected for longer than the worker timeout
+	 *             or the thread is interrupted
+	 * @throws IllegalStateException
+	 *             If the coordinator is closed or already rendering
+	 */
+	public synchronized FrameBuffer render(final RenderJob job) throws IOException {
+		if (closed)
+			throw new IllegalStateException("Coordinator is closed.");
+		if (frame != null)
+			throw new IllegalStateException("Coordinator is already rendering.");
+
+		final Frame f = new Frame(nextJob++, job);
+		frame = f;
+		notifyAll();
+		try {
+			long idleSince = System.nanoTime();
+			while (f.remaining > 0) {
+				wait(POLL);
+				if (closed)
+					throw new IOException("Coordinator was closed.");
+				final long now = System.nanoTime();
+				if (!workers.isEmpty())
+					idleSince = now;
+				else if (now - idleSince > TimeUnit.MILLISECONDS.toNanos(workerTimeout))
+					throw new IOException("No worker connected for " + workerTimeout + " ms.");
+				if (f.duplicateSlowTiles(now))
+					notifyAll();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while rendering.");
+		} finally {
+			frame = null;
+			notifyAll();
+		}
+		return f.target;
+	}
+
+	/**
+	 * Stops listening and tells all workers to quit
+	 */
+	@Override
+	public void close() throws IOException {
+		final List<Connection> connections;
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+			connections = new ArrayList<>(workers);
+		}
+		server.close();
+		for (final Connection c : connections)
+			c.bye();
+	}
+
+	/**
+	 * The tiles of the image being rendered. All methods must be called while
+	 * holding the lock of the coordinator.
+	 */
+	private final class Frame {
+
+		final int id;
+		final RenderJob job;
+		final FrameBuffer target;
+		final int[] xs, ys, ws, hs;
+
+		final ArrayDeque<Integer> pending = new ArrayDeque<>();
+		final boolean[] done, duplicate;
+		// the time each tile was last handed out
+		final long[] started;
+		int remaining;
+		long rendered, renderTime;
+
+		Frame(final int id, final RenderJob job) {
+			this.id = id;
+			this.job = job;
+			target = new FrameBuffer(job.getWidth(), job.getHeight());
+
+			final int tile = job.getTile();
+			final int cols = (job.getWidth() + tile - 1) / tile, rows = (job.getHeight() + tile - 1) / tile;
+			remaining = cols * rows;
+			xs = new int[remaining];
+			ys = new int[remaining];
+			ws = new int[remaining];
+			hs = new int[remaining];
+			done = new boolean[remaining];
+			duplicate = new boolean[remaining];
+			started = new long[remaining];
+			for (int row = 0, i = 0; row < rows; row++)
+				for (int col = 0; col < cols; col++, i++) {
+					xs[i] = col * tile;
+					ys[i] = row * tile;
+					ws[i] = Math.min(tile, job.getWidth() - xs[i]);
+					hs[i] = Math.min(tile, job.getHeight() - ys[i]);
+					pending.add(i);
+				}
+		}
+
+		boolean hasPending() {
+			while (!pending.isEmpty() && done[pending.peekFirst()])
+				pending.pollFirst();
+			return !pending.isEmpty();
+		}
+
+		/**
+		 * Hands out the next pending tile which is not already assigned to the
+		 * given worker
+		 *
+		 * @return The tile or -1 if no such tile is pending
+		 */
+		int take(final List<Integer> assigned) {
+			for (final Iterator<Integer> it = pending.iterator(); it.hasNext();) {
+				final int t = it.next();
+				if (done[t]) {
+					it.remove();
+				} else if (!assigned.contains(t)) {
+					it.remove();
+					started[t] = System.nanoTime();
+					return t;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Writes the pixels of a tile unless it has already been rendered
+		 */
+		void complete(final int t, final int[] pixels) {
+			if (done[t])
+				return;
+			done[t] = true;
+			remaining--;
+			rendered++;
+			renderTime += System.nanoTime() - started[t];
+			for (int y = 0, i = 0; y < hs[t]; y++)
+				for (int x = 0; x < ws[t]; x++, i++)
+					target.set(xs[t] + x, ys[t] + y, pixels[i]);
+		}
+
+		void requeue(final List<Integer> tiles) {
+			for (final int t : tiles)
+				if (!done[t]) {
+					pending.addFirst(t);
+					reassigned++;
+				}
+		}
+
+		/**
+		 * Hands out the tiles which take too long a second time once no tiles
+		 * are pending
+		 *
+		 * @return True if tiles became pending
+		 */
+		boolean duplicateSlowTiles(final long now) {
+			if (hasPending() || rendered == 0)
+				return false;
+			final long limit = Math.max(TimeUnit.MILLISECONDS.toNanos(slowTimeout),
+					SLOW_FACTOR * renderTime / rendered);
+			boolean any = false;
+			for (int t = 0; t < done.length; t++)
+				if (!done[t] && !duplicate[t] && now - started[t] > limit) {
+					duplicate[t] = true;
+					pending.add(t);
+					duplicated++;
+					any = true;
+				}
+			return any;
+		}
+	}
+
+	/**
+	 * Hands the tiles of the current frame to one worker and collects its
+	 * results
+	 */
+	private final class Connection extends Thread {
+
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		// the tiles of the current frame handed to this worker
+		private final List<Integer> assigned = new ArrayList<>();
+
+		Connection(final Socket socket) throws IOException {
+			super("render-worker-" + socket.getRemoteSocketAddress());
+			this.socket = socket;
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			final RenderCoordinator owner = RenderCoordinator.this;
+			Frame f = null;
+			try {
+				socket.setTcpNoDelay(true);
+				socket.setKeepAlive(true);
+				if (in.readByte() != Protocol.HELLO || in.readInt() != Protocol.MAGIC)
+					throw new IOException("Not a render worker.");
+				if (in.readInt() != Protocol.VERSION)
+					throw new IOException("Unsupported protocol version.");
+				final int capacity = in.readInt() + 1;
+				if (capacity < 2)
+					throw new IOException("Worker has no threads.");
+				synchronized (owner) {
+					if (closed)
+						return;
+					workers.add(this);
+					owner.notifyAll();
+				}
+
+				boolean ready = false;
+				final List<Integer> send = new ArrayList<>();
+				while (true) {
+					synchronized (owner) {
+						while (!closed && assigned.isEmpty() && (frame == null || frame == f && !frame.hasPending()))
+							owner.wait();
+						if (closed)
+							return;
+						if (frame != f) {
+							f = frame;
+							assigned.clear();
+							ready = false;
+						} else {
+							for (int t; assigned.size() < capacity && (t = f.take(assigned)) >= 0;) {
+								assigned.add(t);
+								send.add(t);
+							}
+						}
+					}
+
+					if (f != null && !ready) {
+						synchronized (out) {
+							Protocol.writeJob(out, f.id, f.job);
+							out.flush();
+						}
+						while (!ready)
+							ready = receive(f);
+						continue;
+					}
+
+					if (!send.isEmpty()) {
+						synchronized (out) {
+							for (final int t : send) {
+								out.writeByte(Protocol.TILE);
+								out.writeInt(f.id);
+								out.writeInt(t);
+								out.writeInt(f.xs[t]);
+								out.writeInt(f.ys[t]);
+								out.writeInt(f.ws[t]);
+								out.writeInt(f.hs[t]);
+							}
+							out.flush();
+						}
+						send.clear();
+					}
+					if (!assigned.isEmpty())
+						receive(f);
+				}
+			} catch (final IOException e) {
+				synchronized (owner) {
+					if (!closed)
+						System.err.println(getName() + " failed: " + e);
+				}
+			} catch (final InterruptedException e) {
+				// quit
+			} finally {
+				synchronized (owner) {
+					workers.remove(this);
+					if (f != null && f == frame)
+						f.requeue(assigned);
+					owner.notifyAll();
+				}
+				try {
+					socket.close();
+				} catch (final IOException ignored) {
+				}
+			}
+		}
+
+		/**
+		 * Receives a message from the worker, ignoring results of previous
+		 * frames
+		 *
+		 * @return True if the worker is ready to render the given frame
+		 */
+		private boolean receive(final Frame f) throws IOException {
+			final byte type = in.readByte();
+			switch (type) {
+			case Protocol.READY:
+				return in.readInt() == f.id;
+			case Protocol.ERROR:
+				throw new IOException("Worker failed: " + in.readUTF());
+			case Protocol.RESULT: {
+				final int job = in.readInt(), t = in.readInt(), length = in.readInt();
+				if (job == f.id && (t < 0 || t >= f.done.length))
+					throw new IOException("Result of unknown tile " + t + ".");
+				if (length < 0 || length > MAX_RESULT)
+					throw new IOException("Invalid result length " + length + ".");
+				final byte[] data = new byte[length];
+				in.readFully(data);
+				if (job != f.id)
+					return false;
+
+				final int[] pixels = Protocol.decompress(data, f.ws[t] * f.hs[t]);
+				synchronized (RenderCoordinator.this) {
+					f.complete(t, pixels);
+					assigned.remove(Integer.valueOf(t));
+					RenderCoordinator.this.notifyAll();
+				}
+				return false;
+			}
+			default:
+				throw new IOException("Unexpected message " + type + ".");
+			}
+		}
+
+		void bye() {
+			try {
+				synchronized (out) {
+					out.writeByte(Protocol.BYE);
+					out.flush();
+				}
+			} catch (final IOException ignored) {
+				// the worker is gone anyway
+			}
+			try {
+				socket.close();
+			} catch (final IOException ignored) {
+			}
+		}
+	}
+
+	public static void main(final String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		int port = 7077, spawn = 0, workers = 1, width = 640, height = 480, samples = 2, maxDepth = 2, tile = 32,
+				frames = 1;
+		float threshold = -1;
+		String output = "out.png";
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				if (i + 1 == args.length)
+					throw new IllegalArgumentException("Missing value for " + args[i] + ".");
+				final String value = args[i + 1];
+				switch (args[i]) {
+				case "--port":
+					port = number(args[i], value, 0);
+					break;
+				case "--spawn":
+					spawn = number(args[i], value, 0);
+					break;
+				case "--workers":
+					workers = number(args[i], value, 1);
+					break;
+				case "--width":
+					width = number(args[i], value, 1);
+					break;
+				case "--height":
+					height = number(args[i], value, 1);
+					break;
+				case "--samples":
+					samples = number(args[i], value, 1);
+					break;
+				case "--adaptive":
+					try {
+						threshold = Float.parseFloat(value);
+					} catch (final NumberFormatException e) {
+						throw new IllegalArgumentException(args[i] + " expects a number, but got " + value + ".");
+					}
+					if (!(threshold >= 0 && threshold <= 1))
+						throw new IllegalArgumentException(args[i] + " must be between 0 and 1.");
+					break;
+				case "--max-depth":
+					maxDepth = number(args[i], value, 0);
+					break;
+				case "--tile":
+					tile = number(args[i], value, 1);
+					break;
+				case "--frames":
+					frames = number(args[i], value, 1);
+					break;
+				case "--output":
+					if (value.isEmpty())
+						throw new IllegalArgumentException("Output path is empty.");
+					output = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown argument " + args[i] + ".");
+				}
+			}
+		} catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: RenderCoordinator [--port 7077] [--spawn 0] [--workers 1] [--width 640]"
+					+ " [--height 480] [--samples 2] [--adaptive 0.1] [--max-depth 2] [--tile 32] [--frames 1]"
+					+ " [--output out.png|out.ppm]");
+			System.exit(1);
+			return;
+		}
+
+		final RenderJob job = threshold < 0 ? new RenderJob("demo", width, height, tile, samples)
+				: new RenderJob("demo", width, height, tile, threshold, maxDepth);
+		final List<Process> processes = new ArrayList<>();
+		try (RenderCoordinator coordinator = new RenderCoordinator(port, 1000, 30000)) {
+			final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			for (int i = 0; i < spawn; i++)
+				processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+						RenderWorker.class.getName(), "localhost:" + coordinator.getPort()).inheritIO().start());
+
+			final int expected = Math.max(workers, spawn);
+			if (!coordinator.awaitWorkers(expected, 30000))
+				throw new IOException("Only " + coordinator.getWorkers() + " of " + expected + " workers connected.");
+			System.out.println(coordinator.getWorkers() + " workers connected, rendering " + job);
+
+			for (int i = 0; i < frames; i++) {
+				final long start = System.nanoTime();
+				final FrameBuffer image = coordinator.render(job);
+				final long end = System.nanoTime();
+				final String file = frames == 1 ? output : frameName(output, i);
+				HeadlessMain.write(image, file);
+				System.out.printf(Locale.ENGLISH, "frame %d rendered in %.1f ms on %d workers, written to %s%n", i,
+						(end - start) / 1e6, coordinator.getWorkers(), file);
+			}
+			System.out.printf("%d tiles reassigned, %d tiles duplicated%n", coordinator.getReassigned(),
+					coordinator.getDuplicated());
+		} catch (final IOException e) {
+			System.err.println(e);
+			System.exit(1);
+		} catch (final InterruptedException e) {
+			System.exit(1);
+		} finally {
+			for (final Process p : processes)
+				try {
+					if (!p.waitFor(5, TimeUnit.SECONDS))
+						p.destroy();
+				} catch (final InterruptedException e) {
+					p.destroy();
+				}
+		}
+	}
+
+	private static int number(final String name, final String value, final int min) {
+		final int res;
+		try {
+			res = Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException(name + " expects a number, but got " + value + ".");
+		}
+		if (res < min)
+			throw new IllegalArgumentException(name + " must be at least " + min + ".");
+		return res;
+	}
+
+	/**
+	 * Inserts the frame number before the extension of the file name
+	 */
+	private static String frameName(final String output, final int frame) {
+		final int dot = output.lastIndexOf('.');
+		final String number = String.format(Locale.ENGLISH, "-%04d", frame);
+		return dot < 0 ? output + number : output.substring(0, dot) + number + output.substring(dot);
+	}
+
+}
@@ -0,0 +1,140 @@
+package raytracer.core.dist;
+
+import raytracer.core.Renderer;
+import raytracer.core.Scene;
+
+/**
+ * Describes an image to be rendered by the workers. Scenes are built by code,
+ * so a job names the scene, which each worker creates with its
+ * {@link RenderWorker.SceneFactory}, and carries the parameters of the
+ * {@link Renderer}.
+ */
+public final class RenderJob {
+
+	private final String scene;
+	private final int width, height, tile, superSample, maxDepth;
+	private final float threshold;
+
+	/**
+	 * Creates a new job using a fixed super sampling grid
+	 *
+	 * @param scene
+	 *            The name of the scene
+	 * @param width
+	 *            The X resolution
+	 * @param height
+	 *            The Y resolution
+	 * @param tile
+	 *            The edge length of the tiles distributed to the workers
+	 * @param superSample
+	 *            The amount of super sampling per dimension
+	 * @throws IllegalArgumentException
+	 *             If the scene name is null or empty or a number is not
+	 *             positive
+	 */
+	public RenderJob(final String scene, final int width, final int height, final int tile, final int superSample) {
+		this(scene, width, height, tile, superSample, -1, 0);
+		if (superSample < 1)
+			throw new IllegalArgumentException("Super sampling must be positive.");
+	}
+
+	/**
+	 * Creates a new job using adaptive sampling
+	 *
+	 * @param scene
+	 *            The name of the scene
+	 * @param width
+	 *            The X resolution
+	 * @param height
+	 *            The Y resolution
+	 * @param tile
+	 *            The edge length of the tiles distributed to the workers
+	 * @param threshold
+	 *            The color threshold of the adaptive sampling
+	 * @param maxDepth
+	 *            The maximum number of refinements of a pixel
+	 * @throws IllegalArgumentException
+	 *             If the scene name is null or empty, a dimension is not
+	 *             positive, the threshold is not between 0 and 1 or the
+	 *             maximum depth is negative
+	 */
+	public RenderJob(final String scene, final int width, final int height, final int tile, final float threshold,
+			final int maxDepth) {
+		this(scene, width, height, tile, 1, threshold, maxDepth);
+		if (!(threshold >= 0 && threshold <= 1))
+			throw new IllegalArgumentException("Threshold must be between 0 and 1.");
+		if (maxDepth < 0)
+			throw new IllegalArgumentException("Maximum depth must not be negative.");
+	}
+
+	RenderJob(final String scene, final int width, final int height, final int tile, final int superSample,
+			final float threshold, final int maxDepth) {
+		if (scene == null || scene.isEmpty())
+			throw new IllegalArgumentException("Scene name is null or empty.");
+		if (width < 1 || height < 1 || tile < 1)
+			throw new IllegalArgumentException("Image and tile dimensions must be positive.");
+		this.scene = scene;
+		this.width = width;
+		this.height = height;
+		this.tile = tile;
+		this.superSample = superSample;
+		this.threshold = threshold;
+		this.maxDepth = maxDepth;
+	}
+
+	public String getScene() {
+		return scene;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getTile() {
+		return tile;
+	}
+
+	public int getSuperSample() {
+		return superSample;
+	}
+
+	/**
+	 * Returns true if the job uses adaptive sampling
+	 *
+	 * @return True for adaptive sampling, false for a fixed grid
+	 */
+	public boolean isAdaptive() {
+		return threshold >= 0;
+	}
+
+	public float getThreshold() {
+		return threshold;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Creates the renderer of this job for the given scene
+	 *
+	 * @param s
+	 *            The scene created for this job
+	 * @return The renderer
+	 */
+	public Renderer createRenderer(final Scene s) {
+		return isAdaptive() ? new Renderer(s, width, height, threshold, maxDepth)
+				: new Renderer(s, width, height, superSample);
+	}
+
+	@Override
+	public String toString() {
+		return scene + " " + width + "x" + height + ", " + tile + "px tiles, "
+				+ (isAdaptive() ? "adaptive " + threshold + "/" + maxDepth : superSample + "x" + superSample);
+	}
+
+}
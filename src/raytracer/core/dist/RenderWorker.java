@@ -0,0 +1,291 @@
+package raytracer.core.dist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import raytracer.core.Renderer;
+import raytracer.core.Scene;
+import raytracer.core.def.Main;
+
+/**
+ * Connects to a {@link RenderCoordinator}, creates the scenes of the jobs it
+ * receives and renders their tiles on a pool of threads. The worker serves
+ * jobs until the coordinator says goodbye or closes the connection.
+ *
+ * Usage: RenderWorker host:port [--threads #cores]
+ */
+public class RenderWorker {
+
+	/**
+	 * Creates the scene of a job
+	 */
+	public interface SceneFactory {
+
+		/**
+		 * Creates the scene with the given name
+		 *
+		 * @param name
+		 *            The name of the scene
+		 * @param width
+		 *            The X resolution
+		 * @param height
+		 *            The Y resolution
+		 * @return The scene
+		 * @throws IOException
+		 *             If the scene is unknown or cannot be loaded
+		 */
+		Scene create(String name, int width, int height) throws IOException;
+	}
+
+	/**
+	 * Creates the demo scene of {@link Main}, named "demo"
+	 */
+	public static final SceneFactory DEMO = new SceneFactory() {
+		@Override
+		public Scene create(final String name, final int width, final int height) throws IOException {
+			if (!name.equals("demo"))
+				throw new IOException("Unknown scene " + name + ".");
+			return Main.createScene(width, height);
+		}
+	};
+
+	private final SceneFactory scenes;
+	private final int threads;
+
+	// the last scene, which is reused by jobs with the same scene and resolution
+	private String sceneKey;
+	private Scene scene;
+
+	/**
+	 * Creates a new worker
+	 *
+	 * @param scenes
+	 *            The factory creating the scenes of the jobs
+	 * @param threads
+	 *            The number of render threads
+	 * @throws IllegalArgumentException
+	 *             If the factory is null or the number of threads is not
+	 *             positive
+	 */
+	public RenderWorker(final SceneFactory scenes, final int threads) {
+		if (scenes == null)
+			throw new IllegalArgumentException("Scene factory is null.");
+		if (threads < 1)
+			throw new IllegalArgumentException("Number of threads must be positive.");
+		this.scenes = scenes;
+		this.threads = threads;
+	}
+
+	/**
+	 * Serves the coordinator at the other end of the given socket until it
+	 * says goodbye, then closes the socket
+	 *
+	 * @param socket
+	 *            The connection to the coordinator
+	 * @throws IOException
+	 *             If the connection fails
+	 */
+	public void serve(final Socket socket) throws IOException {
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			socket.setTcpNoDelay(true);
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeByte(Protocol.HELLO);
+			out.writeInt(Protocol.MAGIC);
+			out.writeInt(Protocol.VERSION);
+			out.writeInt(threads);
+			out.flush();
+
+			int jobId = -1;
+			Renderer renderer = null;
+			while (true) {
+				final byte type;
+				try {
+					type = in.readByte();
+				} catch (final EOFException e) {
+					return;
+				}
+				switch (type) {
+				case Protocol.JOB: {
+					jobId = in.readInt();
+					final RenderJob job = Protocol.readJob(in);
+					try {
+						renderer = job.createRenderer(scene(job));
+					} catch (final IOException | RuntimeException e) {
+						synchronized (out) {
+							out.writeByte(Protocol.ERROR);
+							out.writeUTF(String.valueOf(e.getMessage()));
+							out.flush();
+						}
+						return;
+					}
+					synchronized (out) {
+						out.writeByte(Protocol.READY);
+						out.writeInt(jobId);
+						out.flush();
+					}
+					break;
+				}
+				case Protocol.TILE: {
+					final int job = in.readInt(), tile = in.readInt();
+					final int x = in.readInt(), y = in.readInt(), w = in.readInt(), h = in.readInt();
+					if (job != jobId)
+						throw new IOException("Tile of unknown job " + job + ".");
+					pool.execute(new Tile(renderer, out, socket, job, tile, x, y, w, h));
+					break;
+				}
+				case Protocol.BYE:
+					return;
+				default:
+					throw new IOException("Unexpected message " + type + ".");
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+			socket.close();
+		}
+	}
+
+	private Scene scene(final RenderJob job) throws IOException {
+		final String key = job.getScene() + "@" + job.getWidth() + "x" + job.getHeight();
+		if (!key.equals(sceneKey)) {
+			// release the old scene before loading the next one
+			sceneKey = null;
+			scene = null;
+			scene = scenes.create(job.getScene(), job.getWidth(), job.getHeight());
+			sceneKey = key;
+		}
+		return scene;
+	}
+
+	/**
+	 * Renders a tile and sends it back, closing the connection if sending
+	 * fails so the coordinator reassigns the tiles of this worker
+	 */
+	private static final class Tile implements Runnable {
+
+		private final Renderer renderer;
+		private final DataOutputStream out;
+		private final Socket socket;
+		private final int job, tile, x, y, w, h;
+
+		Tile(final Renderer renderer, final DataOutputStream out, final Socket socket, final int job, final int tile,
+				final int x, final int y, final int w, final int h) {
+			this.renderer = renderer;
+			this.out = out;
+			this.socket = socket;
+			this.job = job;
+			this.tile = tile;
+			this.x = x;
+			this.y = y;
+			this.w = w;
+			this.h = h;
+		}
+
+		@Override
+		public void run() {
+			try {
+				final byte[] data = Protocol.compress(renderer.renderTile(x, y, w, h).pixels);
+				synchronized (out) {
+					out.writeByte(Protocol.RESULT);
+					out.writeInt(job);
+					out.writeInt(tile);
+					out.writeInt(data.length);
+					out.write(data);
+					out.flush();
+				}
+			} catch (final IOException | RuntimeException e) {
+				try {
+					socket.close();
+				} catch (final IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Connects to the given coordinator, retrying for a while if it is not
+	 * listening yet
+	 *
+	 * @param host
+	 *            The host of the coordinator
+	 * @param port
+	 *            The port of the coordinator
+	 * @param timeout
+	 *            The time to keep retrying in milliseconds
+	 * @return The connection
+	 * @throws IOException
+	 *             If the coordinator cannot be reached in time
+	 */
+	public static Socket connect(final String host, final int port, final long timeout) throws IOException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (true) {
+			try {
+				return new Socket(host, port);
+			} catch (final ConnectException e) {
+				if (System.nanoTime() > deadline)
+					throw e;
+			}
+			try {
+				Thread.sleep(200);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while connecting.");
+			}
+		}
+	}
+
+	public static void main(final String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		final String host;
+		final int port;
+		int threads = Runtime.getRuntime().availableProcessors();
+		try {
+			if (args.length != 1 && !(args.length == 3 && args[1].equals("--threads")))
+				throw new IllegalArgumentException("Expected the address of the coordinator.");
+			final int colon = args[0].lastIndexOf(':');
+			if (colon < 1)
+				throw new IllegalArgumentException("Address must be host:port, but got " + args[0] + ".");
+			host = args[0].substring(0, colon);
+			port = number("Port", args[0].substring(colon + 1));
+			if (args.length == 3)
+				threads = number(args[1], args[2]);
+		} catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: RenderWorker host:port [--threads #cores]");
+			System.exit(1);
+			return;
+		}
+
+		try {
+			new RenderWorker(DEMO, threads).serve(connect(host, port, 10000));
+		} catch (final IOException e) {
+			System.err.println(e);
+			System.exit(1);
+		}
+	}
+
+	private static int number(final String name, final String value) {
+		final int res;
+		try {
+			res = Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException(name + " expects a number, but got " + value + ".");
+		}
+		if (res < 1)
+			throw new IllegalArgumentException(name + " must be positive.");
+		return res;
+	}
+
+}
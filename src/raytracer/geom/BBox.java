@@ -78,6 +78,16 @@ public class BBox {
 		return true;
 	}
 
+	/**
+	 * Checks whether the box is finite in all dimensions. Unbounded
+	 * primitives like planes and the empty box are not finite.
+	 *
+	 * @return True if the box is finite
+	 */
+	public final boolean isFinite() {
+		return pp[MIN].isFinite() && pp[MAX].isFinite();
+	}
+
 	/**
 	 * Returns the minimum of the box
 	 *
@@ -107,7 +117,23 @@ public class BBox {
 	 *            The maximum distance
 	 * @return The computed hit
 	 */
-	public Hit hit(final Ray ray, float tmin, float tmax) {
+	public Hit hit(final Ray ray, final float tmin, final float tmax) {
+		return Float.isNaN(entry(ray, tmin, tmax)) ? Hit.No.get() : Hit.Yes.get();
+	}
+
+	/**
+	 * Computes the distance at which the given ray enters the box within the
+	 * interval [tmin, tmax]
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The entry distance or Float.NaN if the box is missed
+	 */
+	public float entry(final Ray ray, float tmin, float tmax) {
 		final Vec3 /* normalized */dir = ray.dir();
 		final Vec3 invDir = ray.invDir();
 		final Point base = ray.base();
@@ -122,10 +148,10 @@ public class BBox {
 			if (t1 < tmax)
 				tmax = t1;
 			if (tmin > tmax)
-				return Hit.No.get();
+				return Float.NaN;
 		}
 
-		return Hit.Yes.get();
+		return tmin;
 	}
 
 	@Override
@@ -1,7 +1,9 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
+import raytracer.core.RenderStats;
 import raytracer.math.Ray;
 
 /**
@@ -65,6 +67,8 @@ public abstract class BBoxedPrimitive implements Primitive {
 	 */
 	@Override
 	public final Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.NODE_VISITS);
 		if (bbox.hit(ray, tmin, tmax).hits())
 			return hitTest(ray, obj, tmin, tmax);
 		return Hit.No.get();
@@ -85,4 +89,78 @@ public abstract class BBoxedPrimitive implements Primitive {
 	 */
 	public abstract Hit hitTest(Ray ray, Obj obj, float tmin, float tmax);
 
+	/**
+	 * Intersects the given ray with this primitive. First an intersection with
+	 * the bounding box is tested and if this intersection succeeds the internal
+	 * object is intersected.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far
+	 * @return True if a closer hit has been recorded
+	 */
+	@Override
+	public final boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.NODE_VISITS);
+		if (Float.isNaN(bbox.entry(ray, tmin, record.t)))
+			return false;
+		return intersectTest(ray, obj, tmin, record);
+	}
+
+	/**
+	 * Intersects the given ray with the internal object. The default
+	 * implementation records the hit computed by {@link #hitTest}.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far
+	 * @return True if a closer hit has been recorded
+	 */
+	protected boolean intersectTest(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		final Hit hit = hitTest(ray, obj, tmin, record.t);
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.PRIMITIVE_TESTS);
+		if (hit.hits() && hit.getParameter() < record.t) {
+			record.set(hit, obj, this);
+			if (RenderStats.ENABLED)
+				RenderStats.count(RenderStats.Counter.PRIMITIVE_HITS);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Computes the hit recorded by {@link #intersectTest} into a fresh record,
+	 * for primitives whose intersectTest does not create hits
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param tmax
+	 *            The maximum distance
+	 * @return The computed hit
+	 */
+	protected final Hit recordedHit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+		final HitRecord record = HitRecord.acquire(tmax);
+		try {
+			return intersectTest(ray, obj, tmin, record) ? record.toHit(ray) : Hit.No.get();
+		} finally {
+			record.release();
+		}
+	}
+
 }
@@ -1,6 +1,7 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
 import raytracer.math.Ray;
 
@@ -31,4 +32,63 @@ public interface Primitive {
 	 */
 	Hit hit(Ray ray, Obj obj, float tmin, float tmax);
 
+	/**
+	 * Intersects the given ray with this primitive and records the hit if it
+	 * is closer than the one recorded so far. Primitives overriding this method
+	 * may record their hit without creating it and have to override
+	 * {@link #toHit} as well. The default implementation records the hit
+	 * computed by {@link #hit}.
+	 *
+	 * @param ray
+	 *            The ray to compute the intersection with
+	 * @param obj
+	 *            The object to compute the intersection with
+	 * @param tmin
+	 *            The minimum distance
+	 * @param record
+	 *            The record of the nearest hit so far, whose distance is the
+	 *            maximum distance
+	 * @return True if a closer hit has been recorded
+	 */
+	default boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		final Hit hit = hit(ray, obj, tmin, record.t);
+		if (hit.hits() && hit.getParameter() < record.t) {
+			record.set(hit, obj, this);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the hit for the values this primitive has written into the given
+	 * record
+	 *
+	 * @param ray
+	 *            The ray the hit was found with
+	 * @param record
+	 *            The record holding the hit of this primitive
+	 * @return The created hit
+	 * @throws UnsupportedOperationException
+	 *             If this primitive only records created hits
+	 */
+	default Hit toHit(final Ray ray, final HitRecord record) {
+		throw new UnsupportedOperationException("The primitive records created hits only.");
+	}
+
+	/**
+	 * Checks whether the given ray is blocked by this primitive before it
+	 * reaches the given distance. Implementations may stop at the first
+	 * blocker found instead of searching for the nearest one.
+	 *
+	 * @param ray
+	 *            The ray to check
+	 * @param maxDist
+	 *            The maximum distance
+	 * @return True if the ray is blocked within the given distance
+	 */
+	default boolean occluded(final Ray ray, final float maxDist) {
+		final Hit hit = hit(ray, null, 0, maxDist);
+		return hit.hits() && hit.getParameter() <= maxDist;
+	}
+
 }
@@ -1,8 +1,9 @@
 package raytracer.geom;
 
 import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
-import raytracer.core.def.LazyHitTest;
+import raytracer.core.RenderStats;
 import raytracer.math.Constants;
 import raytracer.math.Point;
 import raytracer.math.Ray;
@@ -14,71 +15,126 @@ class Triangle extends BBoxedPrimitive {
 	private final Point m;
 	private final Vec3 u, v, n;
 
+	// the same vertex and edges as plain floats for the intersection test
+	private final float mx, my, mz, ux, uy, uz, vx, vy, vz;
+
 	public Triangle(final Point a, final Point b, final Point c) {
 		super(BBox.create(a.min(b, c), a.max(b, c)));
 		this.m = a;
 		this.u = b.sub(a);
 		this.v = c.sub(a);
 		this.n = v.cross(u).normalized();
+		this.mx = a.x();
+		this.my = a.y();
+		this.mz = a.z();
+		this.ux = u.x();
+		this.uy = u.y();
+		this.uz = u.z();
+		this.vx = v.x();
+		this.vy = v.y();
+		this.vz = v.z();
 	}
 
 	@Override
 	public Hit hitTest(final Ray ray, final Obj obj, final float tmin, final float tmax) {
-		return new LazyHitTest(obj) {
-			private Point point = null;
-			private float r, s, t;
-
-			@Override
-			public float getParameter() {
-				return r;
-			}
-
-			@Override
-			public Point getPoint() {
-				if (point == null)
-					point = ray.eval(r).add(n.scale(0.0001f));
-				return point;
-			}
-
-			@Override
-			protected boolean calculateHit() {
-				final Vec3 /* normalized */dir = ray.dir();
-				final Vec3 pvec = dir.cross(v);
-				final float det = pvec.dot(u);
-
-				if (Constants.isZero(det))
-					return false;
-
-				final float invDet = 1 / det;
-				final Vec3 tvec = ray.base().sub(m);
-
-				s = tvec.dot(pvec) * invDet;
-				if (s < 0.0 || s > 1.0)
-					return false;
-
-				final Vec3 qvec = tvec.cross(u);
-				t = dir.dot(qvec) * invDet;
-				if (t < 0.0 || (s + t) > 1.0)
-					return false;
-
-				if (t < tmin || t > tmax)
-					return false;
-
-				r = v.dot(qvec) * invDet;
-				return r >= Constants.EPS;
-			}
-
-			@Override
-			public Vec2 getUV() {
-				return new Vec2(s, t);
-			}
-
-			@Override
-			public Vec3 getNormal() {
-				return n;
-			}
-
-		};
+		return recordedHit(ray, obj, tmin, tmax);
+	}
+
+	/**
+	 * Intersects the ray with the triangle using the Möller–Trumbore algorithm
+	 * and records the distance and the barycentric coordinates of the hit
+	 */
+	@Override
+	protected boolean intersectTest(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.PRIMITIVE_TESTS);
+		final Vec3 /* normalized */dir = ray.dir();
+		final Point base = ray.base();
+		final float dx = dir.x(), dy = dir.y(), dz = dir.z();
+
+		// pvec = dir x v
+		final float px = dy * vz - dz * vy, py = dz * vx - dx * vz, pz = dx * vy - dy * vx;
+		final float det = px * ux + py * uy + pz * uz;
+
+		if (Constants.isZero(det))
+			return false;
+
+		final float invDet = 1 / det;
+		final float tx = base.x() - mx, ty = base.y() - my, tz = base.z() - mz;
+
+		final float s = (tx * px + ty * py + tz * pz) * invDet;
+		if (s < 0.0 || s > 1.0)
+			return false;
+
+		// qvec = tvec x u
+		final float qx = ty * uz - tz * uy, qy = tz * ux - tx * uz, qz = tx * uy - ty * ux;
+		final float t = (dx * qx + dy * qy + dz * qz) * invDet;
+		if (t < 0.0 || (s + t) > 1.0)
+			return false;
+
+		final float r = (vx * qx + vy * qy + vz * qz) * invDet;
+		if (r < Constants.EPS || r < tmin || !(r < record.t))
+			return false;
+
+		record.set(r, s, t, -1, obj, this);
+		if (RenderStats.ENABLED)
+			RenderStats.count(RenderStats.Counter.PRIMITIVE_HITS);
+		return true;
+	}
+
+	@Override
+	public Hit toHit(final Ray ray, final HitRecord record) {
+		return new TriangleHit(ray, record.getObj(), record.t, record.u, record.v);
+	}
+
+	/**
+	 * Represents a hit with the triangle
+	 */
+	private final class TriangleHit implements Hit {
+		private final Ray ray;
+		private final Obj obj;
+		private final float r, s, t;
+		private Point point = null;
+
+		TriangleHit(final Ray ray, final Obj obj, final float r, final float s, final float t) {
+			this.ray = ray;
+			this.obj = obj;
+			this.r = r;
+			this.s = s;
+			this.t = t;
+		}
+
+		@Override
+		public boolean hits() {
+			return true;
+		}
+
+		@Override
+		public float getParameter() {
+			return r;
+		}
+
+		@Override
+		public Point getPoint() {
+			if (point == null)
+				point = ray.eval(r).add(n.scale(0.0001f));
+			return point;
+		}
+
+		@Override
+		public Vec2 getUV() {
+			return new Vec2(s, t);
+		}
+
+		@Override
+		public Vec3 getNormal() {
+			return n;
+		}
+
+		@Override
+		public Obj get() {
+			return obj;
+		}
 	}
 
 	@Override
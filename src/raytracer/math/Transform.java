@@ -0,0 +1,219 @@
+package raytracer.math;
+
+/**
+ * Represents an immutable affine transformation, stored as the upper 3x4 part
+ * of a 4x4 matrix together with its inverse
+ */
+public final class Transform {
+
+	public static final Transform IDENTITY = new Transform(
+			new float[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0 },
+			new float[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0 });
+
+	// row-major, m[4 * row + col], the fourth column is the translation
+	private final float[] m, inv;
+
+	private Transform(final float[] m, final float[] inv) {
+		this.m = m;
+		this.inv = inv;
+	}
+
+	/**
+	 * Creates a translation
+	 *
+	 * @param t
+	 *            The translation vector
+	 * @return The translation
+	 */
+	public static Transform translate(final Vec3 t) {
+		return new Transform(
+				new float[] { 1, 0, 0, t.x(), 0, 1, 0, t.y(), 0, 0, 1, t.z() },
+				new float[] { 1, 0, 0, -t.x(), 0, 1, 0, -t.y(), 0, 0, 1, -t.z() });
+	}
+
+	/**
+	 * Creates a uniform scaling
+	 *
+	 * @param s
+	 *            The scale factor
+	 * @return The scaling
+	 * @throws IllegalArgumentException
+	 *             If the factor is zero or not finite
+	 */
+	public static Transform scale(final float s) {
+		return scale(s, s, s);
+	}
+
+	/**
+	 * Creates a scaling along the axes
+	 *
+	 * @param x
+	 *            The scale factor along the x axis
+	 * @param y
+	 *            The scale factor along the y axis
+	 * @param z
+	 *            The scale factor along the z axis
+	 * @return The scaling
+	 * @throws IllegalArgumentException
+	 *             If a factor is zero or not finite
+	 */
+	public static Transform scale(final float x, final float y, final float z) {
+		for (final float f : new float[] { x, y, z })
+			if (f == 0 || Float.isNaN(f) || Float.isInfinite(f))
+				throw new IllegalArgumentException("Scale factors must be finite and non-zero.");
+		return new Transform(
+				new float[] { x, 0, 0, 0, 0, y, 0, 0, 0, 0, z, 0 },
+				new float[] { 1 / x, 0, 0, 0, 0, 1 / y, 0, 0, 0, 0, 1 / z, 0 });
+	}
+
+	/**
+	 * Creates a rotation around an axis through the origin
+	 *
+	 * @param axis
+	 *            The axis to rotate around
+	 * @param angle
+	 *            The angle in radians, counterclockwise when looking against
+	 *            the axis
+	 * @return The rotation
+	 * @throws IllegalArgumentException
+	 *             If the axis has no length
+	 */
+	public static Transform rotate(final Vec3 axis, final float angle) {
+		if (!(axis.norm() > 0))
+			throw new IllegalArgumentException("Rotation axis has no length.");
+		final Vec3 a = axis.normalized();
+		final float x = a.x(), y = a.y(), z = a.z();
+		final float c = (float) Math.cos(angle), s = (float) Math.sin(angle), t = 1 - c;
+		final float[] m = {
+				t * x * x + c,     t * x * y - s * z, t * x * z + s * y, 0,
+				t * x * y + s * z, t * y * y + c,     t * y * z - s * x, 0,
+				t * x * z - s * y, t * y * z + s * x, t * z * z + c,     0 };
+		// the inverse of a rotation is its transpose
+		final float[] inv = {
+				m[0], m[4], m[8], 0,
+				m[1], m[5], m[9], 0,
+				m[2], m[6], m[10], 0 };
+		return new Transform(m, inv);
+	}
+
+	/**
+	 * Returns the transformation applying this transformation first and the
+	 * given one second
+	 *
+	 * @param next
+	 *            The transformation to apply second
+	 * @return The combined transformation
+	 */
+	public Transform then(final Transform next) {
+		return new Transform(mul(next.m, m), mul(inv, next.inv));
+	}
+
+	/**
+	 * Returns the inverse transformation
+	 *
+	 * @return The inverse transformation
+	 */
+	public Transform inverse() {
+		return new Transform(inv, m);
+	}
+
+	/**
+	 * Multiplies two affine matrices
+	 */
+	private static float[] mul(final float[] a, final float[] b) {
+		final float[] res = new float[12];
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 4; col++)
+				res[4 * row + col] = a[4 * row] * b[col] + a[4 * row + 1] * b[4 + col] + a[4 * row + 2] * b[8 + col];
+			res[4 * row + 3] += a[4 * row + 3];
+		}
+		return res;
+	}
+
+	private static Point point(final float[] m, final Point p) {
+		return new Point(
+				m[0] * p.x() + m[1] * p.y() + m[2] * p.z() + m[3],
+				m[4] * p.x() + m[5] * p.y() + m[6] * p.z() + m[7],
+				m[8] * p.x() + m[9] * p.y() + m[10] * p.z() + m[11]);
+	}
+
+	private static Vec3 vector(final float[] m, final Vec3 v) {
+		return new Vec3(
+				m[0] * v.x() + m[1] * v.y() + m[2] * v.z(),
+				m[4] * v.x() + m[5] * v.y() + m[6] * v.z(),
+				m[8] * v.x() + m[9] * v.y() + m[10] * v.z());
+	}
+
+	/**
+	 * Transforms a point
+	 *
+	 * @param p
+	 *            The point
+	 * @return The transformed point
+	 */
+	public Point apply(final Point p) {
+		return point(m, p);
+	}
+
+	/**
+	 * Transforms a vector, ignoring the translation
+	 *
+	 * @param v
+	 *            The vector
+	 * @return The transformed vector
+	 */
+	public Vec3 apply(final Vec3 v) {
+		return vector(m, v);
+	}
+
+	/**
+	 * Transforms a point by the inverse transformation
+	 *
+	 * @param p
+	 *            The point
+	 * @return The transformed point
+	 */
+	public Point applyInverse(final Point p) {
+		return point(inv, p);
+	}
+
+	/**
+	 * Transforms a vector by the inverse transformation, ignoring the
+	 * translation
+	 *
+	 * @param v
+	 *            The vector
+	 * @return The transformed vector
+	 */
+	public Vec3 applyInverse(final Vec3 v) {
+		return vector(inv, v);
+	}
+
+	/**
+	 * Transforms a surface normal, which is multiplied by the transposed
+	 * inverse so that it stays perpendicular to the transformed surface
+	 *
+	 * @param n
+	 *            The normal
+	 * @return The transformed normal
+	 */
+	public Vec3 /* normalized */applyNormal(final Vec3 n) {
+		return new Vec3(
+				inv[0] * n.x() + inv[4] * n.y() + inv[8] * n.z(),
+				inv[1] * n.x() + inv[5] * n.y() + inv[9] * n.z(),
+				inv[2] * n.x() + inv[6] * n.y() + inv[10] * n.z()).normalized();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder res = new StringBuilder("[");
+		for (int row = 0; row < 3; row++) {
+			if (row > 0)
+				res.append("; ");
+			for (int col = 0; col < 4; col++)
+				res.append(col > 0 ? " " : "").append(m[4 * row + col]);
+		}
+		return res.append(']').toString();
+	}
+
+}
@@ -0,0 +1,9 @@
+package prog2.tests;
+
+public interface RenderExercise {
+	
+	public static String getExercise() {
+		return "render";
+	}
+
+}
@@ -1,20 +1,41 @@
 package prog2.tests.pub;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static prog2.tests.TestUtil.DEFAULT_TIMEOUT;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import prog2.tests.BVHExercise;
 import prog2.tests.PublicTest;
 import prog2.tests.RayTracerTestBase;
+import raytracer.core.Hit;
+import raytracer.core.HitRecord;
 import raytracer.core.Obj;
+import raytracer.core.Trace;
+import raytracer.core.def.Accelerator;
+import raytracer.core.def.BVH;
 import raytracer.core.def.BVHBase;
+import raytracer.core.def.InstancedObj;
+import raytracer.core.def.KdTree;
+import raytracer.core.def.LinearBVH;
+import raytracer.core.def.SimpleAccelerator;
+import raytracer.core.def.TopLevelBVH;
+import raytracer.core.def.UniformGrid;
 import raytracer.geom.BBox;
+import raytracer.geom.Primitive;
+import raytracer.math.Color;
+import raytracer.math.Constants;
 import raytracer.math.Pair;
 import raytracer.math.Point;
+import raytracer.math.Ray;
+import raytracer.math.Transform;
 import raytracer.math.Vec3;
 
 public class RaytracerPublicBVHTest extends RayTracerTestBase implements PublicTest, BVHExercise {
@@ -62,4 +83,272 @@ public class RaytracerPublicBVHTest extends RayTracerTestBase implements PublicT
 		assertTrue("BVH MinMax not equal", box.getMin().equals(minMax.a));
 		assertTrue("BVH MinMax not equal", box.getMin().equals(minMax.b));
 	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testBVH_HitsLikeSimple() {
+		printCurrentMethodName();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		addRandomSpheres(ref, studentBvh, 200);
+		studentBvh.buildBVH();
+		checkSameHits(ref, studentBvh, 1000);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testLinearBVH_HitsLikeSimple() {
+		printCurrentMethodName();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		addRandomSpheres(ref, studentBvh, 200);
+		studentBvh.buildBVH();
+		checkSameHits(ref, new LinearBVH(studentBvh), 1000);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testBVH_UnboundedKeptOutOfHierarchy() {
+		printCurrentMethodName();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		final Obj plane = createSomeObject(createPlane(new Vec3(0, 1, 0), new Point(0, 50, 0)));
+		ref.add(plane);
+		studentBvh.add(plane);
+		addRandomSpheres(ref, studentBvh, 200);
+		studentBvh.buildBVH();
+		assertFalse("Plane should not be part of the hierarchy", studentBvh.getObjects().contains(plane));
+		assertTrue("Plane should be kept as unbounded object", studentBvh.getUnbounded().contains(plane));
+		assertFalse("BVH with a plane should have an infinite box", studentBvh.bbox().isFinite());
+		checkSameHits(ref, studentBvh, 1000);
+		checkSameHits(ref, new LinearBVH(studentBvh), 1000);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testBVH_ParallelLikeSequential() {
+		printCurrentMethodName();
+		final BVH parallel = new BVH();
+		addRandomSpheres(studentBvh, parallel, 40000);
+		studentBvh.buildBVH();
+		parallel.buildBVH(ForkJoinPool.commonPool());
+		checkSameTree(studentBvh, parallel);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testBVH_RefitHitsLikeSimple() {
+		printCurrentMethodName();
+		final BVH bvh = new BVH();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		final List<MovingSphere> spheres = addMovingSpheres(ref, bvh, 200);
+		bvh.buildBVH();
+		for (final MovingSphere sphere : spheres)
+			sphere.move(sphere.center.add(new Vec3(RandomGenerator.nextFloat(2.0f) - 1,
+					RandomGenerator.nextFloat(2.0f) - 1, RandomGenerator.nextFloat(2.0f) - 1)));
+		bvh.refit();
+		checkSameHits(ref, bvh, 1000);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testBVH_UpdateRebuildsDegraded() {
+		printCurrentMethodName();
+		final BVH bvh = new BVH();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		final List<MovingSphere> spheres = addMovingSpheres(ref, bvh, 200);
+		bvh.buildBVH();
+		assertEquals("Fresh BVH is degraded", 1.0f, bvh.getDegradation(), 1e-6f);
+		for (final MovingSphere sphere : spheres)
+			sphere.move(createRandomPoint());
+		assertTrue("Scattering all objects should degrade the BVH", bvh.refit() > 1.5f);
+		assertTrue("Degraded BVH has not been rebuilt", bvh.update(1.5f) > 0);
+		assertTrue("BVH is still degraded after update", bvh.getDegradation() <= 1.5f);
+		checkSameHits(ref, bvh, 1000);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testTopLevelBVH_UpdateAfterMovingInstances() {
+		printCurrentMethodName();
+		final Obj shared = createSomeObject(createSphere(Point.ORIGIN, 1));
+		final TopLevelBVH top = new TopLevelBVH();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		final List<InstancedObj> instances = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			final InstancedObj instance = new InstancedObj(shared, placement());
+			top.add(instance);
+			ref.add(instance);
+			instances.add(instance);
+		}
+		top.build();
+		checkSameHits(ref, top, 500);
+
+		for (final InstancedObj instance : instances)
+			instance.setTransform(placement());
+		top.update();
+		checkSameHits(ref, top, 500);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testUniformGrid_HitsLikeSimple() {
+		printCurrentMethodName();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		final UniformGrid grid = new UniformGrid();
+		final Obj plane = createSomeObject(createPlane(new Vec3(0, 1, 0), new Point(0, 50, 0)));
+		ref.add(plane);
+		grid.add(plane);
+		addRandomSpheres(ref, grid, 200);
+		grid.build();
+		assertTrue("Plane should be kept out of the cells", grid.getUnbounded().contains(plane));
+		for (int d = 0; d < 3; d++)
+			assertTrue("Grid should have several cells along each axis", grid.getResolution(d) > 1);
+		checkSameHits(ref, grid, 1000);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testUniformGrid_TestsObjectsOnce() {
+		printCurrentMethodName();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		final UniformGrid grid = new UniformGrid();
+		final MovingSphere large = new MovingSphere(Point.ORIGIN, 1000);
+		ref.add(large);
+		grid.add(large);
+		addRandomSpheres(ref, grid, 200);
+		grid.build();
+		for (int i = 0; i < 100; i++) {
+			final Vec3 dir = new Vec3(RandomGenerator.nextFloat(2.0f) - 1, RandomGenerator.nextFloat(2.0f) - 1,
+					RandomGenerator.nextFloat(2.0f) - 1).normalized();
+			final Ray ray = new Ray(createRandomPoint(), dir);
+			large.tests = 0;
+			grid.hit(ray, null, 0, Float.POSITIVE_INFINITY);
+			assertEquals("Object spanning all cells should be tested once per ray", 1, large.tests);
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testKdTree_HitsLikeSimple() {
+		printCurrentMethodName();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		final KdTree tree = new KdTree();
+		final Obj plane = createSomeObject(createPlane(new Vec3(0, 1, 0), new Point(0, 50, 0)));
+		ref.add(plane);
+		tree.add(plane);
+		addRandomSpheres(ref, tree, 200);
+		tree.build();
+		assertTrue("Plane should be kept out of the tree", tree.getUnbounded().contains(plane));
+		assertTrue("Kd-tree should have been split", tree.getNodeCount() > 1);
+		checkSameHits(ref, tree, 1000);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testKdTree_AxisAlignedTrianglesHitLikeSimple() {
+		printCurrentMethodName();
+		final SimpleAccelerator ref = new SimpleAccelerator();
+		final KdTree tree = new KdTree();
+		for (int i = 0; i < 300; i++) {
+			// triangles lying in planes parallel to the axes have flat boxes
+			final int axis = i % 3;
+			final Point a = createRandomPoint();
+			final float u = 1 + RandomGenerator.nextFloat(10.0f), v = 1 + RandomGenerator.nextFloat(10.0f);
+			final Vec3 du = axis == 0 ? new Vec3(0, u, 0) : new Vec3(u, 0, 0);
+			final Vec3 dv = axis == 2 ? new Vec3(0, v, 0) : new Vec3(0, 0, v);
+			final Obj triangle = createSomeObject(createTriangle(a, a.add(du), a.add(dv)));
+			ref.add(triangle);
+			tree.add(triangle);
+		}
+		tree.build();
+		checkSameHits(ref, tree, 1000);
+	}
+
+	private Transform placement() {
+		return Transform.scale(0.1f + RandomGenerator.nextFloat(4.0f))
+				.then(Transform.translate(createRandomPoint().sub(Point.ORIGIN)));
+	}
+
+	/**
+	 * A sphere which can be moved after it has been added to an accelerator
+	 */
+	private final class MovingSphere implements Obj {
+		private final float radius;
+		private Point center;
+		private Primitive sphere;
+		private int tests;
+
+		MovingSphere(final Point center, final float radius) {
+			this.radius = radius;
+			move(center);
+		}
+
+		void move(final Point center) {
+			this.center = center;
+			sphere = createSphere(center, radius);
+		}
+
+		@Override
+		public BBox bbox() {
+			return sphere.bbox();
+		}
+
+		@Override
+		public Hit hit(final Ray ray, final Obj obj, final float tmin, final float tmax) {
+			return sphere.hit(ray, this, tmin, tmax);
+		}
+
+		@Override
+		public boolean intersect(final Ray ray, final Obj obj, final float tmin, final HitRecord record) {
+			tests++;
+			return sphere.intersect(ray, this, tmin, record);
+		}
+
+		@Override
+		public boolean occluded(final Ray ray, final float maxDist) {
+			return sphere.occluded(ray, maxDist);
+		}
+
+		@Override
+		public Color shade(final Hit hit, final Trace trace) {
+			return Color.WHITE;
+		}
+	}
+
+	private List<MovingSphere> addMovingSpheres(final Accelerator a, final Accelerator b, final int n) {
+		final List<MovingSphere> res = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			final MovingSphere sphere = new MovingSphere(createRandomPoint(), 0.1f + RandomGenerator.nextFloat(4.0f));
+			a.add(sphere);
+			b.add(sphere);
+			res.add(sphere);
+		}
+		return res;
+	}
+
+	private void checkSameTree(final BVHBase expected, final BVHBase actual) {
+		assertEquals("Parallel build differs from sequential build", expected.isLeaf(), actual.isLeaf());
+		assertEquals("Parallel build differs from sequential build", expected.bbox(), actual.bbox());
+		assertEquals("Parallel build differs from sequential build", expected.getNodes().size(), actual.getNodes().size());
+		for (int i = 0; i < expected.getNodes().size(); i++) {
+			if (expected.isLeaf())
+				assertTrue("Parallel build differs from sequential build",
+						expected.getNodes().get(i) == actual.getNodes().get(i));
+			else
+				checkSameTree((BVHBase) expected.getNodes().get(i), (BVHBase) actual.getNodes().get(i));
+		}
+	}
+
+	private void addRandomSpheres(final Accelerator a, final Accelerator b, final int n) {
+		for (int i = 0; i < n; i++) {
+			final Obj object = createSomeObject(createSphere(createRandomPoint(), 0.1f + RandomGenerator.nextFloat(4.0f)));
+			a.add(object);
+			b.add(object);
+		}
+	}
+
+	private void checkSameHits(final Accelerator expectedAccel, final Accelerator actualAccel, final int n) {
+		for (int i = 0; i < n; i++) {
+			final Vec3 dir = new Vec3(RandomGenerator.nextFloat(2.0f) - 1, RandomGenerator.nextFloat(2.0f) - 1,
+					RandomGenerator.nextFloat(2.0f) - 1).normalized();
+			final Ray ray = new Ray(createRandomPoint(), dir);
+			final Hit expected = expectedAccel.hit(ray, null, 0, Float.POSITIVE_INFINITY);
+			final Hit actual = actualAccel.hit(ray, null, 0, Float.POSITIVE_INFINITY);
+			assertEquals("BVH hit differs from linear search", expected.hits(), actual.hits());
+			if (expected.hits())
+				assertTrue("BVH hit distance differs from linear search",
+						Constants.isEqual(expected.getParameter(), actual.getParameter()));
+
+			final float maxDist = RandomGenerator.nextFloat(100.0f);
+			final boolean blocked = expected.hits() && expected.getParameter() <= maxDist;
+			assertEquals("BVH occlusion differs from linear search", blocked, actualAccel.occluded(ray, maxDist));
+		}
+	}
 }
@@ -0,0 +1,199 @@
+package prog2.tests.pub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import prog2.tests.PublicTest;
+import prog2.tests.RayTracerTestBase;
+import prog2.tests.RenderExercise;
+import raytracer.core.Camera;
+import raytracer.core.FrameBuffer;
+import raytracer.core.Hit;
+import raytracer.core.LightSource;
+import raytracer.core.Renderer;
+import raytracer.core.Scene;
+import raytracer.core.def.Main;
+import raytracer.core.dist.RenderCoordinator;
+import raytracer.core.dist.RenderJob;
+import raytracer.core.dist.RenderWorker;
+import raytracer.math.Color;
+import raytracer.math.Ray;
+
+public class RaytracerPublicDistributedTest extends RayTracerTestBase implements PublicTest, RenderExercise {
+
+	/**
+	 * Loading the demo scene in every worker takes a while
+	 */
+	private static final long TIMEOUT = 60 * 1000;
+
+	private static final int WIDTH = 80, HEIGHT = 60, TILE = 16;
+
+	private RenderCoordinator coordinator;
+	private ExecutorService threads;
+	private final List<Socket> sockets = new ArrayList<>();
+
+	@Before
+	public void setUp() throws IOException {
+		// slow tiles are not duplicated, so only reassignment can finish a
+		// frame whose worker died
+		coordinator = new RenderCoordinator(0, TIMEOUT, TIMEOUT);
+		threads = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		coordinator.close();
+		for (final Socket socket : sockets)
+			socket.close();
+		threads.shutdownNow();
+	}
+
+	@Test(timeout = TIMEOUT)
+	public void testDistributedRenderLikeLocal() throws Exception {
+		printCurrentMethodName();
+		startWorker(RenderWorker.DEMO);
+		startWorker(RenderWorker.DEMO);
+		assertTrue("Workers should connect", coordinator.awaitWorkers(2, TIMEOUT));
+
+		final RenderJob job = new RenderJob("demo", WIDTH, HEIGHT, TILE, 2);
+		final FrameBuffer expected = renderLocally(job);
+		checkSameImage(expected, coordinator.render(job));
+		checkSameImage(expected, coordinator.render(job));
+	}
+
+	@Test(timeout = TIMEOUT)
+	public void testDistributedRenderReassignsTilesOfDeadWorker() throws Exception {
+		printCurrentMethodName();
+		startWorker(RenderWorker.DEMO);
+		startWorker(RenderWorker.DEMO);
+		final CountDownLatch rendering = new CountDownLatch(1), release = new CountDownLatch(1);
+		final Socket stuck = startWorker(new RenderWorker.SceneFactory() {
+			@Override
+			public Scene create(final String name, final int width, final int height) throws IOException {
+				return new BlockingScene(RenderWorker.DEMO.create(name, width, height), rendering, release);
+			}
+		});
+		assertTrue("Workers should connect", coordinator.awaitWorkers(3, TIMEOUT));
+
+		final RenderJob job = new RenderJob("demo", WIDTH, HEIGHT, TILE, 1);
+		final FrameBuffer expected = renderLocally(job);
+		final Future<FrameBuffer> frame = threads.submit(new Callable<FrameBuffer>() {
+			@Override
+			public FrameBuffer call() throws IOException {
+				return coordinator.render(job);
+			}
+		});
+		assertTrue("Stuck worker should get a tile", rendering.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		stuck.close();
+		checkSameImage(expected, frame.get());
+		release.countDown();
+		assertTrue("Tiles of the closed worker should be reassigned", coordinator.getReassigned() > 0);
+
+		checkSameImage(expected, coordinator.render(job));
+	}
+
+	/**
+	 * Connects a worker with two threads to the coordinator
+	 *
+	 * @return The socket of the worker
+	 */
+	private Socket startWorker(final RenderWorker.SceneFactory scenes) throws IOException {
+		final Socket socket = new Socket("localhost", coordinator.getPort());
+		sockets.add(socket);
+		threads.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new RenderWorker(scenes, 2).serve(socket);
+				} catch (final IOException e) {
+					// closed by the test
+				}
+			}
+		});
+		return socket;
+	}
+
+	private static FrameBuffer renderLocally(final RenderJob job) throws IOException {
+		final Renderer renderer = job.createRenderer(Main.createScene(job.getWidth(), job.getHeight()));
+		final FrameBuffer res = new FrameBuffer(job.getWidth(), job.getHeight());
+		for (int y = 0; y < job.getHeight(); y += job.getTile())
+			for (int x = 0; x < job.getWidth(); x += job.getTile())
+				renderer.renderTile(x, y, Math.min(job.getTile(), job.getWidth() - x),
+						Math.min(job.getTile(), job.getHeight() - y), res);
+		return res;
+	}
+
+	private static void checkSameImage(final FrameBuffer expected, final FrameBuffer actual) {
+		assertEquals("Width differs", expected.getWidth(), actual.getWidth());
+		assertEquals("Height differs", expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++)
+			for (int x = 0; x < expected.getWidth(); x++)
+				assertEquals("Pixel (" + x + ", " + y + ") differs from local rendering", expected.get(x, y),
+						actual.get(x, y));
+	}
+
+	/**
+	 * A scene whose rays wait until they are released, so its worker can be
+	 * closed while it holds tiles
+	 */
+	private static final class BlockingScene implements Scene {
+
+		private final Scene scene;
+		private final CountDownLatch rendering, release;
+
+		BlockingScene(final Scene scene, final CountDownLatch rendering, final CountDownLatch release) {
+			this.scene = scene;
+			this.rendering = rendering;
+			this.release = release;
+		}
+
+		@Override
+		public Color getBackground() {
+			return scene.getBackground();
+		}
+
+		@Override
+		public Camera getCamera() {
+			return scene.getCamera();
+		}
+
+		@Override
+		public Collection<LightSource> getLightSources() {
+			return scene.getLightSources();
+		}
+
+		@Override
+		public Hit hit(final Ray ray) {
+			rendering.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while blocked.");
+			}
+			return scene.hit(ray);
+		}
+
+		@Override
+		public boolean occluded(final Ray ray, final float maxDist) {
+			return scene.occluded(ray, maxDist);
+		}
+	}
+
+}
@@ -11,12 +11,15 @@ import prog2.tests.HitsExercise;
 import prog2.tests.PublicTest;
 import prog2.tests.RayTracerTestBase;
 import raytracer.core.Hit;
+import raytracer.core.Obj;
+import raytracer.core.def.InstancedObj;
 import raytracer.core.def.StandardObj;
 import raytracer.geom.Primitive;
 import raytracer.math.Color;
 import raytracer.math.Constants;
 import raytracer.math.Point;
 import raytracer.math.Ray;
+import raytracer.math.Transform;
 import raytracer.math.Vec3;
 import raytracer.shade.SingleColor;
 
@@ -61,4 +64,50 @@ public class RaytracerPublicHitsTest extends RayTracerTestBase implements Public
 		assertTrue("Hit normal should be (0,0,-1), but got " + hit.getNormal().toString(), hit.getNormal().equals(new Vec3(0, 0, -1)));
 		assertTrue("Hit distance should be 32.0, but got " + hit.getParameter(), Constants.isEqual(hit.getParameter(), 32));
 	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testSphereOccluded() {
+		printCurrentMethodName();
+		final Primitive sphere = createSphere(new Point(0, 0, 42), 10);
+		final Ray ray = new Ray(new Point(0, 0, 0), new Vec3(0, 0, 1));
+		assertTrue("Sphere should block the ray before distance 40", sphere.occluded(ray, 40));
+		assertFalse("Sphere should not block the ray before distance 30", sphere.occluded(ray, 30));
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testTriangleMaxDistance() {
+		printCurrentMethodName();
+		final Primitive triangle = createTriangle(new Point(-0.3f, -0.7f, 0.5f), new Point(0.7f, -0.7f, 0.5f),
+				new Point(-0.3f, 0.3f, 0.5f));
+		final Obj obj = new StandardObj(triangle, new SingleColor(Color.GRAY));
+		final Ray ray = new Ray(new Point(0, 0, 0), new Vec3(0, 0, 1));
+		final Hit hit = triangle.hit(ray, obj, 0, 0.6f);
+		assertTrue("Ray should hit the triangle before distance 0.6", hit.hits());
+		assertTrue("Hit distance should be 0.5, but got " + hit.getParameter(),
+				Constants.isEqual(hit.getParameter(), 0.5f));
+		assertFalse("Ray should not hit the triangle before distance 0.4", triangle.hit(ray, obj, 0, 0.4f).hits());
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testInstanceHitsLikeTransformedSphere() {
+		printCurrentMethodName();
+		final Obj shared = new StandardObj(createSphere(new Point(1, 0, 0), 2), new SingleColor(Color.GRAY));
+		final Transform transform = Transform.rotate(new Vec3(0, 1, 0), (float) (Math.PI / 2))
+				.then(Transform.scale(3)).then(Transform.translate(new Vec3(0, 0, 40)));
+		final Obj instance = new InstancedObj(shared, transform);
+		final Primitive expected = createSphere(transform.apply(new Point(1, 0, 0)), 6);
+
+		final Ray ray = new Ray(new Point(0, 0, 0), new Vec3(0, 0, 1));
+		final Hit hit = instance.hit(ray, instance, 0, Float.MAX_VALUE);
+		final Hit ref = expected.hit(ray, shared, 0, Float.MAX_VALUE);
+		assertTrue("Ray should hit the instance", hit.hits());
+		assertTrue("Hit distance should be " + ref.getParameter() + ", but got " + hit.getParameter(),
+				Constants.isEqual(hit.getParameter(), ref.getParameter()));
+		assertTrue("Hit normal should be " + ref.getNormal() + ", but got " + hit.getNormal(),
+				hit.getNormal().sub(ref.getNormal()).norm() < 1e-4f);
+		assertTrue("Instance hit should be shaded by the shared object", hit.get() == shared);
+		assertTrue("Instance should block the ray behind the hit", instance.occluded(ray, ref.getParameter() + 1));
+		assertFalse("Instance should not block the ray before the hit",
+				instance.occluded(ray, ref.getParameter() - 1));
+	}
 }
@@ -1,9 +1,14 @@
 package prog2.tests.pub;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static prog2.tests.TestUtil.DEFAULT_TIMEOUT;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -11,10 +16,17 @@ import org.junit.Test;
 import prog2.tests.PublicTest;
 import prog2.tests.RayTracerTestBase;
 import prog2.tests.ReadObjExercise;
+import raytracer.core.Hit;
+import raytracer.core.OBJCache;
+import raytracer.core.OBJReader;
+import raytracer.core.Obj;
+import raytracer.core.def.SimpleAccelerator;
 import raytracer.core.def.StandardObj;
 import raytracer.geom.Primitive;
 import raytracer.math.Color;
+import raytracer.math.Constants;
 import raytracer.math.Point;
+import raytracer.math.Ray;
 import raytracer.math.Vec3;
 import raytracer.shade.SingleColor;
 
@@ -36,6 +48,78 @@ public class RaytracerPublicReadObjTest extends RayTracerTestBase implements Pub
 				student.equals(ref));
 	}
 
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testReadMeshLikeTriangles() throws FileNotFoundException {
+		printCurrentMethodName();
+		final SimpleAccelerator triangles = new SimpleAccelerator();
+		final SingleColor shader = new SingleColor(Color.GRAY);
+		readOBJ("obj/pyramid.obj", triangles, shader, 2.0f, new Vec3(1, 2, 3));
+		final Obj mesh = OBJReader.readMesh("obj/pyramid.obj", shader, 2.0f, new Vec3(1, 2, 3));
+
+		for (int i = 0; i < 1000; i++) {
+			final Point target = new Point(-1 + RandomGenerator.nextFloat(4.0f), 2 + RandomGenerator.nextFloat(2.0f),
+					1 + RandomGenerator.nextFloat(4.0f));
+			final Point origin = new Point(RandomGenerator.nextFloat(20.0f) - 10, RandomGenerator.nextFloat(20.0f) - 10,
+					RandomGenerator.nextFloat(20.0f) - 10);
+			final Ray ray = new Ray(origin, target.sub(origin).normalized());
+			final Hit expected = triangles.hit(ray, null, 0, Float.POSITIVE_INFINITY);
+			final Hit actual = mesh.hit(ray, null, 0, Float.POSITIVE_INFINITY);
+			assertEquals("Mesh hit differs from triangles", expected.hits(), actual.hits());
+			if (expected.hits()) {
+				assertTrue("Mesh hit distance differs from triangles",
+						Constants.isEqual(expected.getParameter(), actual.getParameter()));
+				assertTrue("Mesh hit normal differs from triangles", expected.getNormal().equals(actual.getNormal()));
+			}
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testReadFaceFormats() {
+		printCurrentMethodName();
+		final String data = "# comment\r\nv -1.0 0 -1e0\r\nv\t1.0e+0  0.0 -1\r\nv -100e-2 0 +1.00\r\n"
+				+ "vn 0.0 1.0 0.0\r\nf 1/1/1 2//1 -1/3/1\r\nf 1 2 3 1\r\n";
+		final ComparableAccelarator student = new ComparableAccelarator();
+		final ComparableAccelarator ref = new ComparableAccelarator();
+		getSimple(ref);
+		OBJReader.read(new ByteArrayInputStream(data.getBytes(StandardCharsets.US_ASCII)), student,
+				new SingleColor(Color.GRAY), 1.0f, new Vec3(0, 0, 0));
+		assertTrue("Faces with texture indices or relative indices were not read succesfully",
+				student.equals(ref));
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testReadMeshCached() throws IOException {
+		printCurrentMethodName();
+		final SingleColor shader = new SingleColor(Color.GRAY);
+		final File cache = File.createTempFile("pyramid", OBJCache.EXTENSION);
+		try {
+			final Obj fresh = OBJReader.readMesh("obj/pyramid.obj", shader, 2.0f, new Vec3(1, 2, 3));
+			final Obj stored = OBJCache.readMesh("obj/pyramid.obj", cache.getPath(), shader, 2.0f, new Vec3(1, 2, 3));
+			assertTrue("Cache file was not written", cache.length() > 0);
+			final Obj loaded = OBJCache.readMesh("obj/pyramid.obj", cache.getPath(), shader, 2.0f, new Vec3(1, 2, 3));
+			assertEquals("Stored mesh differs from the read one", fresh.bbox(), stored.bbox());
+			assertEquals("Cached mesh differs from the read one", fresh.bbox(), loaded.bbox());
+
+			for (int i = 0; i < 1000; i++) {
+				final Point origin = new Point(RandomGenerator.nextFloat(20.0f) - 10, RandomGenerator.nextFloat(20.0f) - 10,
+						RandomGenerator.nextFloat(20.0f) - 10);
+				final Ray ray = new Ray(origin, new Point(1, 3, 3).sub(origin).normalized());
+				final Hit expected = fresh.hit(ray, null, 0, Float.POSITIVE_INFINITY);
+				final Hit actual = loaded.hit(ray, null, 0, Float.POSITIVE_INFINITY);
+				assertEquals("Cached mesh hit differs", expected.hits(), actual.hits());
+				if (expected.hits())
+					assertTrue("Cached mesh hit distance differs",
+							Constants.isEqual(expected.getParameter(), actual.getParameter()));
+			}
+
+			final Obj rescaled = OBJCache.readMesh("obj/pyramid.obj", cache.getPath(), shader, 1.0f, new Vec3(1, 2, 3));
+			assertEquals("Stale cache was used", OBJReader.readMesh("obj/pyramid.obj", shader, 1.0f, new Vec3(1, 2, 3))
+					.bbox(), rescaled.bbox());
+		} finally {
+			cache.delete();
+		}
+	}
+
 	private void getSimple(final ComparableAccelarator ref) {
 		Primitive t;
 
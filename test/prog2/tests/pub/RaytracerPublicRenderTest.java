@@ -0,0 +1,469 @@
+package prog2.tests.pub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static prog2.tests.TestUtil.DEFAULT_TIMEOUT;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import prog2.tests.PublicTest;
+import prog2.tests.RayTracerTestBase;
+import prog2.tests.RenderExercise;
+import raytracer.core.AccumulationBuffer;
+import raytracer.core.FrameBuffer;
+import raytracer.core.ProgressiveRenderer;
+import raytracer.core.RenderStats;
+import raytracer.core.RenderStats.Counter;
+import raytracer.core.Renderer;
+import raytracer.core.Scene;
+import raytracer.core.TileOrder;
+import raytracer.core.TileScheduler;
+import raytracer.core.def.HeadlessMain;
+import raytracer.core.def.PointLightSource;
+import raytracer.core.def.StandardObj;
+import raytracer.math.Color;
+import raytracer.math.Point;
+import raytracer.math.Vec3;
+import raytracer.shade.SingleColor;
+
+public class RaytracerPublicRenderTest extends RayTracerTestBase implements PublicTest, RenderExercise {
+
+	private static final int WIDTH = 13, HEIGHT = 11;
+
+	private Scene scene;
+	private TileScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		final StandardObj board = new StandardObj(createPlane(new Vec3(0f, 0f, -1f), Point.ORIGIN),
+				createCheckerBoard(new SingleColor(Color.RED), new SingleColor(Color.BLUE), 1f));
+		scene = getScene(board, new PointLightSource(new Point(1, 2, -10), Color.WHITE));
+		scheduler = new TileScheduler(2);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdown();
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testTileOrdersArePermutations() {
+		printCurrentMethodName();
+		for (final String name : new String[] { "scanline", "morton", "hilbert", "spiral" }) {
+			final TileOrder order = TileOrder.forName(name);
+			for (int cols = 1; cols <= 40; cols++)
+				for (int rows = 1; rows <= 40; rows++) {
+					final int[] cells = order.order(cols, rows);
+					final String grid = name + " order of " + cols + "x" + rows + " grid";
+					assertEquals(grid + " should visit every cell", cols * rows, cells.length);
+					final boolean[] seen = new boolean[cols * rows];
+					for (final int cell : cells) {
+						assertTrue(grid + " visits cell " + cell + " outside the grid",
+								cell >= 0 && cell < cols * rows);
+						assertTrue(grid + " visits cell " + cell + " twice", !seen[cell]);
+						seen[cell] = true;
+					}
+				}
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testHilbertOrderAdjacentOnPowerOfTwoSquares() {
+		printCurrentMethodName();
+		for (int size = 1; size <= 32; size *= 2) {
+			final int[] cells = TileOrder.HILBERT.order(size, size);
+			for (int i = 1; i < cells.length; i++) {
+				final int dx = Math.abs(cells[i] % size - cells[i - 1] % size);
+				final int dy = Math.abs(cells[i] / size - cells[i - 1] / size);
+				assertEquals("Hilbert order of " + size + "x" + size + " grid jumps at step " + i, 1, dx + dy);
+			}
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testProgressiveRenderAveragesSamples() {
+		printCurrentMethodName();
+		for (int superSample = 1; superSample <= 3; superSample++) {
+			final ProgressiveRenderer progressive = new ProgressiveRenderer(scene, WIDTH, HEIGHT, superSample);
+			final FrameBuffer frame = progressive.render(scheduler, 4, null);
+			final Renderer renderer = new Renderer(scene, WIDTH, HEIGHT, superSample);
+			final int n = superSample * superSample;
+			for (int y = 0; y < HEIGHT; y++)
+				for (int x = 0; x < WIDTH; x++) {
+					float r = 0, g = 0, b = 0;
+					for (int j = 0; j < superSample; j++)
+						for (int i = 0; i < superSample; i++) {
+							final Color c = renderer.sample(x, y, i, j);
+							r += c.x();
+							g += c.y();
+							b += c.z();
+						}
+					assertEquals("Pixel (" + x + ", " + y + ") with " + n + " samples should be their mean",
+							AccumulationBuffer.pack(r / n, g / n, b / n), frame.get(x, y));
+				}
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testProgressiveRenderPassOutOfRange() {
+		printCurrentMethodName();
+		final ProgressiveRenderer progressive = new ProgressiveRenderer(scene, WIDTH, HEIGHT, 2);
+		for (final int pass : new int[] { -1, progressive.getPasses() }) {
+			try {
+				progressive.renderPass(scheduler, 4, TileOrder.SCANLINE, pass);
+				fail("Pass " + pass + " should not exist.");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testAdaptiveSamplingSkipsUniformScene() {
+		printCurrentMethodName();
+		final StandardObj wall = new StandardObj(createPlane(new Vec3(0f, 0f, -1f), Point.ORIGIN),
+				new SingleColor(Color.RED));
+		final Renderer renderer = new Renderer(getScene(wall), WIDTH, HEIGHT, 0f, 4);
+		final FrameBuffer frame = new FrameBuffer(WIDTH, HEIGHT);
+		long corners = 0;
+		for (int y = 0; y < HEIGHT; y += 4)
+			for (int x = 0; x < WIDTH; x += 4) {
+				final int w = Math.min(4, WIDTH - x), h = Math.min(4, HEIGHT - y);
+				renderer.renderTile(x, y, w, h, frame);
+				corners += (w + 1) * (h + 1);
+			}
+		assertEquals("A single-colour scene should only be sampled at the pixel corners", corners,
+				renderer.getPrimaryRays());
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++)
+				assertEquals("Pixel (" + x + ", " + y + ") should have the colour of the wall", Color.RED.rgb(),
+						frame.get(x, y));
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testAdaptiveSamplingRefinesEdgesToMaxDepth() {
+		printCurrentMethodName();
+		final Scene ball = getScene(createSomeObject(createSphere(Point.ORIGIN, 5)));
+		for (int maxDepth = 0; maxDepth <= 3; maxDepth++) {
+			// a pixel whose corners differ is split down to the maximum depth
+			// along the edge at least, and at most into a full quad tree
+			final long least = 4 + 5 * maxDepth;
+			final long most = 4 + 5 * (((1L << 2 * maxDepth) - 1) / 3);
+			int edges = 0, flat = 0;
+			for (int y = 0; y < HEIGHT; y++)
+				for (int x = 0; x < WIDTH; x++) {
+					final Renderer renderer = new Renderer(ball, WIDTH, HEIGHT, 0f, maxDepth);
+					renderer.renderTile(x, y, 1, 1);
+					final long rays = renderer.getPrimaryRays();
+					if (rays == 4) {
+						flat++;
+					} else {
+						assertTrue("Pixel (" + x + ", " + y + ") cast " + rays + " rays at maximum depth " + maxDepth
+								+ ", expected between " + least + " and " + most, rays >= least && rays <= most);
+						edges++;
+					}
+				}
+			assertTrue("The silhouette of the sphere should be refined at maximum depth " + maxDepth,
+					maxDepth == 0 ? edges == 0 : edges > 0);
+			assertTrue("Pixels inside and outside the sphere should not be refined", flat > 0);
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testPackMatchesColorRGB() {
+		printCurrentMethodName();
+		final float[] edges = { 0f, 1f / 255, 0.5f, 254f / 255, 1f };
+		for (final float r : edges)
+			for (final float g : edges)
+				for (final float b : edges)
+					assertEquals("pack(" + r + ", " + g + ", " + b + ") should match Color.rgb()",
+							new Color(r, g, b).rgb(), AccumulationBuffer.pack(r, g, b));
+		for (int i = 0; i < 1000; i++) {
+			final float r = RandomGenerator.nextFloat(1f);
+			final float g = RandomGenerator.nextFloat(1f);
+			final float b = RandomGenerator.nextFloat(1f);
+			assertEquals("pack(" + r + ", " + g + ", " + b + ") should match Color.rgb()",
+					new Color(r, g, b).rgb(), AccumulationBuffer.pack(r, g, b));
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testPackClamps() {
+		printCurrentMethodName();
+		assertEquals("Negative channels should be black", 0, AccumulationBuffer.pack(-0.5f, -1f, -1e-6f));
+		assertEquals("Channels above 1 should be saturated", 0xffffff, AccumulationBuffer.pack(1.5f, 2f, 1e6f));
+		assertEquals("Infinite channels should be clamped", 0xff0000,
+				AccumulationBuffer.pack(Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 0f));
+		assertEquals("NaN channels should be black", 0x00ff00, AccumulationBuffer.pack(Float.NaN, 3f, Float.NaN));
+		assertEquals("Each channel should be clamped on its own", 0xff007f, AccumulationBuffer.pack(7f, -7f, 0.5f));
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testFrameBufferSharesImagePixels() {
+		printCurrentMethodName();
+		final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		final FrameBuffer frame = new FrameBuffer(image);
+		assertEquals("Frame buffer should be as wide as the image", WIDTH, frame.getWidth());
+		assertEquals("Frame buffer should be as high as the image", HEIGHT, frame.getHeight());
+		assertSame("Frame buffer should hand out the image it wraps", image, frame.getImage());
+
+		frame.set(3, 5, 0x123456);
+		assertEquals("Pixels set in the frame buffer should show in the image", 0x123456,
+				image.getRGB(3, 5) & 0xffffff);
+		image.setRGB(7, 2, 0x654321);
+		assertEquals("Pixels set in the image should show in the frame buffer", 0x654321, frame.get(7, 2));
+
+		for (final BufferedImage unpacked : new BufferedImage[] { null,
+				new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR) }) {
+			try {
+				new FrameBuffer(unpacked);
+				fail("Frame buffer should only wrap images of packed int pixels.");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testFrameBufferOfSubimage() {
+		printCurrentMethodName();
+		// the subimage starts at an offset into the pixels of the parent and
+		// its rows are as far apart as those of the parent
+		final BufferedImage parent = new BufferedImage(20, 16, BufferedImage.TYPE_INT_RGB);
+		final FrameBuffer frame = new FrameBuffer(parent.getSubimage(4, 3, WIDTH, HEIGHT));
+		assertEquals("Frame buffer should be as wide as the subimage", WIDTH, frame.getWidth());
+		assertEquals("Frame buffer should be as high as the subimage", HEIGHT, frame.getHeight());
+
+		frame.fill(0, 0, WIDTH, HEIGHT, 0x00ff00);
+		frame.set(2, 1, 0x0000ff);
+		for (int y = 0; y < parent.getHeight(); y++)
+			for (int x = 0; x < parent.getWidth(); x++) {
+				final boolean inside = x >= 4 && x < 4 + WIDTH && y >= 3 && y < 3 + HEIGHT;
+				final int expected = x == 6 && y == 4 ? 0x0000ff : inside ? 0x00ff00 : 0;
+				assertEquals("Pixel (" + x + ", " + y + ") of the parent image", expected,
+						parent.getRGB(x, y) & 0xffffff);
+			}
+
+		try {
+			frame.get(WIDTH, 0);
+			fail("Pixels right of the subimage should not be accessible.");
+		} catch (final IndexOutOfBoundsException e) {
+			// expected
+		}
+		try {
+			frame.set(0, -1, 0);
+			fail("Pixels above the subimage should not be accessible.");
+		} catch (final IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testRenderTileIntoFrameBufferChecksBounds() {
+		printCurrentMethodName();
+		final Renderer renderer = new Renderer(scene, WIDTH, HEIGHT, 1);
+		final FrameBuffer frame = new FrameBuffer(WIDTH, HEIGHT);
+		final int[][] tiles = { { -1, 0, 4, 4 }, { 0, -1, 4, 4 }, { 0, 0, -1, 4 }, { 0, 0, 4, -1 },
+				{ WIDTH - 3, 0, 4, 4 }, { 0, HEIGHT - 3, 4, 4 }, { 0, 0, WIDTH + 1, HEIGHT } };
+		for (final int[] t : tiles) {
+			try {
+				renderer.renderTile(t[0], t[1], t[2], t[3], frame);
+				fail("Tile at (" + t[0] + ", " + t[1] + ") of size " + t[2] + "x" + t[3]
+						+ " does not lie within the frame buffer.");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			renderer.renderTile(0, 0, 4, 4, null);
+			fail("Rendering into no frame buffer should be rejected.");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testRenderTileIntoFrameBufferWritesOnlyTile() {
+		printCurrentMethodName();
+		final int sx = 3, sy = 2, w = 5, h = 4, blank = 0x123456;
+		final BufferedImage parent = new BufferedImage(20, 16, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < parent.getHeight(); y++)
+			for (int x = 0; x < parent.getWidth(); x++)
+				parent.setRGB(x, y, blank);
+		final FrameBuffer frame = new FrameBuffer(parent.getSubimage(4, 3, WIDTH, HEIGHT));
+
+		final Renderer renderer = new Renderer(scene, WIDTH, HEIGHT, 1);
+		renderer.renderTile(sx, sy, w, h, frame);
+		final int[] pixels = renderer.renderTile(sx, sy, w, h).pixels;
+		for (int y = 0; y < parent.getHeight(); y++)
+			for (int x = 0; x < parent.getWidth(); x++) {
+				final int fx = x - 4, fy = y - 3;
+				final boolean tile = fx >= sx && fx < sx + w && fy >= sy && fy < sy + h;
+				final int expected = tile ? pixels[(fy - sy) * w + fx - sx] & 0xffffff : blank;
+				assertEquals("Pixel (" + x + ", " + y + ") of the parent image", expected,
+						parent.getRGB(x, y) & 0xffffff);
+			}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testScheduleCoversEveryPixelOnce() {
+		printCurrentMethodName();
+		final int width = 37, height = 23;
+		for (final String name : new String[] { "scanline", "morton", "hilbert", "spiral" })
+			for (final int tile : new int[] { 1, 3, 5, 7, 9, 40 }) {
+				final TileOrder order = TileOrder.forName(name);
+				final int cols = (width + tile - 1) / tile, rows = (height + tile - 1) / tile;
+				final AtomicIntegerArray calls = new AtomicIntegerArray(cols * rows);
+				final AtomicIntegerArray covered = new AtomicIntegerArray(width * height);
+				final TileScheduler.Report report = scheduler.schedule(width, height, tile, order,
+						new TileScheduler.TileJob() {
+							@Override
+							public void render(final int x, final int y, final int w, final int h) {
+								assertEquals("Tiles should start on the tile grid", 0, x % tile + y % tile);
+								assertEquals("Tile at (" + x + ", " + y + ") should be clipped to the image",
+										Math.min(tile, width - x) * Math.min(tile, height - y), w * h);
+								calls.incrementAndGet(y / tile * cols + x / tile);
+								for (int row = y; row < y + h; row++)
+									for (int col = x; col < x + w; col++)
+										covered.incrementAndGet(row * width + col);
+							}
+						});
+				final String grid = name + " order with tile size " + tile;
+				for (int i = 0; i < calls.length(); i++)
+					assertEquals(grid + " should render tile " + i + " once", 1, calls.get(i));
+				for (int i = 0; i < covered.length(); i++)
+					assertEquals(grid + " should render pixel (" + i % width + ", " + i / width + ") once", 1,
+							covered.get(i));
+
+				long tiles = 0;
+				for (final TileScheduler.ThreadStats stats : report.getThreads())
+					tiles += stats.getTiles();
+				assertEquals(grid + " should report every tile", cols * rows, tiles);
+				assertTrue(grid + " should not report more threads than the pool has",
+						report.getThreads().size() <= scheduler.getThreads());
+			}
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testHeadlessRenderReportsTiles() {
+		printCurrentMethodName();
+		final Renderer renderer = new Renderer(scene, WIDTH, HEIGHT, 1);
+		final FrameBuffer frame = new FrameBuffer(WIDTH, HEIGHT);
+		final TileScheduler.Report report = HeadlessMain.render(renderer, frame, scheduler, 4, TileOrder.HILBERT);
+		long tiles = 0;
+		for (final TileScheduler.ThreadStats stats : report.getThreads())
+			tiles += stats.getTiles();
+		assertEquals("Report should count every tile", 4 * 3, tiles);
+
+		final int[] pixels = new Renderer(scene, WIDTH, HEIGHT, 1).renderTile(0, 0, WIDTH, HEIGHT).pixels;
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++)
+				assertEquals("Pixel (" + x + ", " + y + ") should be rendered", pixels[y * WIDTH + x] & 0xffffff,
+						frame.get(x, y));
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testWritePPM() throws IOException {
+		printCurrentMethodName();
+		final FrameBuffer frame = new FrameBuffer(3, 2);
+		frame.set(0, 0, 0xff0000);
+		frame.set(1, 0, 0x00ff80);
+		frame.set(2, 0, 0x010203);
+		frame.set(2, 1, 0xffffff);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HeadlessMain.writePPM(frame, out);
+
+		final byte[] header = "P6\n3 2\n255\n".getBytes(StandardCharsets.US_ASCII);
+		final byte[] bytes = out.toByteArray();
+		assertEquals("PPM should hold the header and three bytes per pixel", header.length + 3 * 3 * 2,
+				bytes.length);
+		assertTrue("PPM should start with the P6 header",
+				Arrays.equals(header, Arrays.copyOf(bytes, header.length)));
+		final int[] expected = { 0xff, 0x00, 0x00, 0x00, 0xff, 0x80, 0x01, 0x02, 0x03, 0, 0, 0, 0, 0, 0, 0xff, 0xff,
+				0xff };
+		for (int i = 0; i < expected.length; i++)
+			assertEquals("Byte " + i + " of the pixels", expected[i], bytes[header.length + i] & 0xff);
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testRenderStatsSince() {
+		printCurrentMethodName();
+		final RenderStats before = RenderStats.current();
+		for (int i = 0; i < 3; i++)
+			RenderStats.count(Counter.PRIMARY_RAYS);
+		RenderStats.add(Counter.SHADOW_RAYS, 5);
+		RenderStats.traversal(7, 11, 2);
+		final RenderStats delta = RenderStats.current().since(before);
+		final long[] expected = { 3, 0, 5, 7, 11, 2 };
+		for (final Counter c : Counter.values())
+			assertEquals("Delta of " + c.getLabel(), expected[c.ordinal()], delta.get(c));
+		assertEquals("Work should be node visits plus primitive tests", 18, delta.getWork());
+		for (final Counter c : Counter.values())
+			assertEquals("Counts should not change in between", 0,
+					RenderStats.current().since(RenderStats.current()).get(c));
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testRenderStatsReport() {
+		printCurrentMethodName();
+		final RenderStats.Tile[] tiles = new RenderStats.Tile[4];
+		for (int i = 0; i < tiles.length; i++) {
+			final RenderStats before = RenderStats.current();
+			RenderStats.count(Counter.PRIMARY_RAYS);
+			RenderStats.traversal(10 * (i + 1), i, 1);
+			// listed bottom up to check the report sorts them by position
+			tiles[i] = new RenderStats.Tile(4 * (i % 2), 4 * (1 - i / 2), 4, 4, RenderStats.current().since(before));
+		}
+		final RenderStats.Report report = new RenderStats.Report(Arrays.asList(tiles));
+		final RenderStats frame = report.getFrame();
+		assertEquals("Frame should sum the primary rays of the tiles", 4, frame.get(Counter.PRIMARY_RAYS));
+		assertEquals("Frame should sum the node visits of the tiles", 100, frame.get(Counter.NODE_VISITS));
+		assertEquals("Frame should sum the primitive tests of the tiles", 6, frame.get(Counter.PRIMITIVE_TESTS));
+		assertEquals("Frame should sum the primitive hits of the tiles", 4, frame.get(Counter.PRIMITIVE_HITS));
+
+		final List<RenderStats.Tile> sorted = report.getTiles();
+		assertEquals("Report should hold every tile", tiles.length, sorted.size());
+		final RenderStats.Tile[] rows = { tiles[2], tiles[3], tiles[0], tiles[1] };
+		for (int i = 0; i < rows.length; i++)
+			assertSame("Tiles should be sorted by row and column", rows[i], sorted.get(i));
+
+		final List<RenderStats.Tile> expensive = report.getMostExpensive(2);
+		assertEquals("Report should list the requested number of tiles", 2, expensive.size());
+		assertSame("Most expensive tile first", tiles[3], expensive.get(0));
+		assertSame("Second most expensive tile second", tiles[2], expensive.get(1));
+		assertEquals("Report cannot list more tiles than it has", tiles.length,
+				report.getMostExpensive(10).size());
+	}
+
+	@Test(timeout = DEFAULT_TIMEOUT)
+	public void testRenderStatsTotalKeepsEndedThreads() throws InterruptedException {
+		printCurrentMethodName();
+		final RenderStats before = RenderStats.total();
+		for (int i = 1; i <= 20; i++) {
+			final long n = i;
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					RenderStats.add(Counter.SECONDARY_RAYS, n);
+				}
+			});
+			thread.start();
+			thread.join();
+		}
+		assertEquals("Total should keep the counts of ended threads", 20 * 21 / 2,
+				RenderStats.total().since(before).get(Counter.SECONDARY_RAYS));
+	}
+
+}